@@ -0,0 +1,266 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+import org.jdom.Document;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * esearch, esummary and runinfo fixtures for the benchmarks and the E-utilities stand-in server.
+ * The output follows the layout of real NCBI SRA responses, including the escaped XML in the ExpXml
+ * and Runs items. Each synthetic experiment is derived from its index alone, so every run sees the same bytes.
+ */
+public class EUtilsFixtures {
+
+    public static final String DIRECTORY_PROPERTY = "sra.bench.fixtures";
+    private static final String DEFAULT_DIRECTORY = "build/bench/fixtures";
+
+    private static final String[][] ORGANISMS = {
+        {"9606", "Homo sapiens"}, {"10090", "Mus musculus"}, {"2697049", "Severe acute respiratory syndrome coronavirus 2"},
+        {"562", "Escherichia coli"}, {"9544", "Macaca mulatta"}, {"7227", "Drosophila melanogaster"}
+    };
+    private static final String[][] PLATFORMS = {
+        {"ILLUMINA", "Illumina NovaSeq 6000"}, {"ILLUMINA", "Illumina MiSeq"}, {"OXFORD_NANOPORE", "MinION"},
+        {"PACBIO_SMRT", "Sequel II"}
+    };
+    private static final String[] STRATEGIES = {"WGS", "AMPLICON", "RNA-Seq", "WXS", "ChIP-Seq"};
+    private static final String[] SOURCES = {"GENOMIC", "TRANSCRIPTOMIC", "VIRAL RNA", "METAGENOMIC"};
+    private static final String[] SELECTIONS = {"RANDOM", "PCR", "cDNA", "RT-PCR"};
+    private static final int FIRST_UID = 30000000;
+
+    static final String SUMMARY_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<eSummaryResult>\n";
+    static final String SUMMARY_FOOTER = "</eSummaryResult>\n";
+    static final String RUNINFO_HEADER = "Run,ReleaseDate,LoadDate,spots,bases,spots_with_mates,avgLength,size_MB,"
+            + "download_path,Experiment,LibraryName,LibraryStrategy,LibrarySelection,LibrarySource,LibraryLayout,"
+            + "Platform,Model,SRAStudy,BioProject,Sample,BioSample,TaxID,ScientificName,CenterName\n";
+
+    /**
+     * Write esearch-N.xml and esummary-N.xml for each size given
+     *
+     * @param args output directory followed by record counts
+     */
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args.length > 0 ? args[0] : DEFAULT_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        for (int i = 1; i < args.length; i++) {
+            int size = Integer.parseInt(args[i]);
+            File summary = new File(directory, "esummary-" + size + ".xml");
+            File search = new File(directory, "esearch-" + size + ".xml");
+            if (!summary.exists()) {
+                writeSummary(summary, size);
+            }
+            if (!search.exists()) {
+                writeSearch(search, size);
+            }
+        }
+    }
+
+    public static File summaryFile(int size) {
+        return new File(directory(), "esummary-" + size + ".xml");
+    }
+
+    public static File searchFile(int size) {
+        return new File(directory(), "esearch-" + size + ".xml");
+    }
+
+    public static Document load(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("Missing fixture " + file.getAbsolutePath() + "; run 'ant bench-fixtures' first");
+        }
+        try {
+            return new SAXBuilder().build(file);
+        } catch (JDOMException e) {
+            throw new IOException("Invalid fixture " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parse the esummary fixture of the given size into run records
+     */
+    public static List<SraRecord> loadRecords(int size) throws IOException {
+        return new NcbiEUtilsClient().parseSummaryRecords(load(summaryFile(size)));
+    }
+
+    private static File directory() {
+        return new File(System.getProperty(DIRECTORY_PROPERTY, DEFAULT_DIRECTORY));
+    }
+
+    private static void writeSummary(File file, int size) throws IOException {
+        try (Writer out = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+            out.write(SUMMARY_HEADER);
+            for (int i = 0; i < size; i++) {
+                writeDocSum(out, i);
+            }
+            out.write(SUMMARY_FOOTER);
+        }
+    }
+
+    /**
+     * UID of the synthetic experiment with the given index
+     */
+    static int uid(int index) {
+        return FIRST_UID + index;
+    }
+
+    /**
+     * Index of the synthetic experiment with the given UID
+     */
+    static int index(int uid) {
+        return uid - FIRST_UID;
+    }
+
+    /**
+     * Write the esummary DocSum of one synthetic experiment. Each index always produces the same experiment.
+     */
+    static void writeDocSum(Writer out, int index) throws IOException {
+        Experiment experiment = new Experiment(index);
+
+        StringBuilder expXml = new StringBuilder();
+        expXml.append("<Summary><Title>").append(experiment.title).append("</Title>")
+              .append("<Platform instrument_model=\"").append(experiment.platform[1]).append("\">")
+              .append(experiment.platform[0]).append("</Platform>")
+              .append("<Statistics total_runs=\"").append(experiment.spots.length)
+              .append("\" total_spots=\"").append(experiment.totalSpots())
+              .append("\" total_bases=\"").append(experiment.totalSpots() * experiment.readLength)
+              .append("\" total_size=\"").append(experiment.totalSpots() * experiment.readLength / 3)
+              .append("\" load_done=\"true\" cluster_name=\"public\"/></Summary>")
+              .append("<Submitter acc=\"SRA").append(1000000 + index / 4)
+              .append("\" center_name=\"University of Wisconsin\" contact_name=\"Lab Contact\" lab_name=\"\"/>")
+              .append("<Experiment acc=\"").append(experiment.accession).append("\" ver=\"1\" status=\"public\" name=\"Experiment ")
+              .append(index).append("\"/>")
+              .append("<Study acc=\"").append(experiment.study).append("\" name=\"Study ").append(index / 20).append("\"/>")
+              .append("<Organism taxid=\"").append(experiment.organism[0]).append("\" ScientificName=\"")
+              .append(experiment.organism[1]).append("\"/>")
+              .append("<Sample acc=\"").append(experiment.sample).append("\" name=\"\"/>")
+              .append("<Instrument ").append(experiment.platform[0]).append("=\"").append(experiment.platform[1]).append("\"/>")
+              .append("<Library_descriptor><LIBRARY_NAME>lib").append(index).append("</LIBRARY_NAME>")
+              .append("<LIBRARY_STRATEGY>").append(experiment.strategy).append("</LIBRARY_STRATEGY>")
+              .append("<LIBRARY_SOURCE>").append(experiment.source).append("</LIBRARY_SOURCE>")
+              .append("<LIBRARY_SELECTION>").append(experiment.selection).append("</LIBRARY_SELECTION>")
+              .append("<LIBRARY_LAYOUT> ").append(experiment.paired ? "<PAIRED/>" : "<SINGLE/>")
+              .append(" </LIBRARY_LAYOUT></Library_descriptor>")
+              .append("<Bioproject>").append(experiment.bioProject).append("</Bioproject>")
+              .append("<Biosample>").append(experiment.bioSample).append("</Biosample>");
+
+        StringBuilder runs = new StringBuilder();
+        for (int r = 0; r < experiment.spots.length; r++) {
+            runs.append("<Run acc=\"").append(experiment.run(r)).append("\" total_spots=\"").append(experiment.spots[r])
+                .append("\" total_bases=\"").append(experiment.spots[r] * experiment.readLength)
+                .append("\" load_done=\"true\" is_public=\"true\" cluster_name=\"public\" static_data_available=\"true\"/>");
+        }
+
+        out.write("<DocSum>\n\t<Id>" + uid(index) + "</Id>\n");
+        out.write("\t<Item Name=\"ExpXml\" Type=\"String\">" + escape(expXml) + "</Item>\n");
+        out.write("\t<Item Name=\"Runs\" Type=\"String\">" + escape(runs) + "</Item>\n");
+        out.write("\t<Item Name=\"ExtLinks\" Type=\"String\"></Item>\n");
+        out.write("\t<Item Name=\"CreateDate\" Type=\"String\">" + experiment.date("/", 0) + "</Item>\n");
+        out.write("\t<Item Name=\"UpdateDate\" Type=\"String\">" + experiment.date("/", 1) + "</Item>\n");
+        out.write("</DocSum>\n");
+    }
+
+    /**
+     * Write the efetch runinfo CSV rows of one synthetic experiment, one row per run
+     */
+    static void writeRunInfo(Writer out, int index) throws IOException {
+        Experiment experiment = new Experiment(index);
+        for (int r = 0; r < experiment.spots.length; r++) {
+            long spots = experiment.spots[r];
+            long bases = spots * experiment.readLength;
+            out.write(experiment.run(r) + "," + experiment.date("-", 1) + " 10:00:00," + experiment.date("-", 0) + " 09:30:00,"
+                    + spots + "," + bases + "," + (experiment.paired ? spots : 0) + "," + experiment.readLength + ","
+                    + bases / 3 / 1000000 + ",https://sra-downloadb.be-md.ncbi.nlm.nih.gov/sos5/sra-pub-zq-11/" + experiment.run(r) + ","
+                    + experiment.accession + ",lib" + index + "," + experiment.strategy + "," + experiment.selection + ","
+                    + experiment.source + "," + (experiment.paired ? "PAIRED" : "SINGLE") + "," + experiment.platform[0] + ","
+                    + experiment.platform[1] + "," + experiment.study + "," + experiment.bioProject + "," + experiment.sample + ","
+                    + experiment.bioSample + "," + experiment.organism[0] + ",\"" + experiment.organism[1] + "\","
+                    + "University of Wisconsin\n");
+        }
+    }
+
+    /**
+     * Attributes of one synthetic experiment, derived from its index
+     */
+    private static class Experiment {
+        final int index;
+        final String accession;
+        final String title;
+        final String study;
+        final String sample;
+        final String bioProject;
+        final String bioSample;
+        final String[] organism;
+        final String[] platform;
+        final String strategy;
+        final String source;
+        final String selection;
+        final boolean paired;
+        final int readLength;
+        final long[] spots;
+
+        Experiment(int index) {
+            Random random = new Random(index);
+            this.index = index;
+            accession = "SRX" + (20000000 + index);
+            organism = ORGANISMS[random.nextInt(ORGANISMS.length)];
+            platform = PLATFORMS[random.nextInt(PLATFORMS.length)];
+            strategy = STRATEGIES[index % STRATEGIES.length];
+            source = SOURCES[random.nextInt(SOURCES.length)];
+            selection = SELECTIONS[random.nextInt(SELECTIONS.length)];
+            paired = random.nextBoolean();
+            readLength = paired ? 300 : 150;
+            title = accession + ": " + strategy + " of " + organism[1] + " sample " + index;
+            study = "SRP" + (300000 + index / 20);
+            sample = "SRS" + (15000000 + index);
+            bioProject = "PRJNA" + (600000 + index / 20);
+            bioSample = "SAMN" + (13000000 + index);
+            // About one experiment in ten has several runs
+            spots = new long[random.nextInt(10) == 0 ? 2 + random.nextInt(3) : 1];
+            for (int r = 0; r < spots.length; r++) {
+                spots[r] = 10000 + random.nextInt(50000000);
+            }
+        }
+
+        String run(int r) {
+            return "SRR" + (11000000 + index * 5 + r);
+        }
+
+        long totalSpots() {
+            long total = 0;
+            for (long s : spots) {
+                total += s;
+            }
+            return total;
+        }
+
+        String date(String separator, int yearOffset) {
+            return String.format("%d%s%02d%s%02d", 2015 + index % 10 + yearOffset, separator, 1 + index % 12, separator, 1 + index % 28);
+        }
+    }
+
+    private static void writeSearch(File file, int size) throws IOException {
+        try (Writer out = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<eSearchResult>");
+            out.write("<Count>" + size + "</Count><RetMax>" + size + "</RetMax><RetStart>0</RetStart>");
+            out.write("<QueryKey>1</QueryKey><WebEnv>MCID_0123456789abcdef01234567</WebEnv>\n<IdList>\n");
+            for (int i = 0; i < size; i++) {
+                out.write("<Id>" + uid(i) + "</Id>\n");
+            }
+            out.write("</IdList><TranslationSet/><QueryTranslation>\"Homo sapiens\"[Organism]</QueryTranslation></eSearchResult>\n");
+        }
+    }
+
+    private static String escape(CharSequence xml) {
+        return xml.toString().replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,121 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import com.biomatters.plugins.ncbisra.metrics.EndpointMetrics;
+import com.biomatters.plugins.ncbisra.metrics.SraMetrics;
+import com.biomatters.plugins.ncbisra.model.SraSearchResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives concurrent searches (esearch with history, then paged record fetches) through the real client and
+ * reports end-to-end latency percentiles, throughput and errors. Runs against the embedded
+ * {@link StandInEUtilsServer} unless {@code --url} names another server.
+ * <p>
+ * Options: --url URL, --clients N, --searches N (per client), --page N, --hedge true|false, plus the server options of
+ * {@link StandInEUtilsServer#main} (--records defaults to 2000 here).
+ */
+public class EUtilsLoadHarness {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = StandInEUtilsServer.parseOptions(args);
+        options.putIfAbsent("records", "2000");
+        int clients = Integer.parseInt(options.getOrDefault("clients", "4"));
+        int searchesPerClient = Integer.parseInt(options.getOrDefault("searches", "5"));
+        int pageSize = Integer.parseInt(options.getOrDefault("page", "500"));
+
+        // The stand-in has no reason to be protected by NCBI's request rate limit
+        System.setProperty(NcbiEUtilsClient.RATE_PROPERTY, options.getOrDefault("rate", "0"));
+        System.setProperty(NcbiEUtilsClient.HEDGE_PROPERTY, options.getOrDefault("hedge", "true"));
+
+        StandInEUtilsServer server = null;
+        String url = options.get("url");
+        if (url == null) {
+            server = StandInEUtilsServer.fromOptions(options, 0);
+            server.start();
+            url = server.getBaseUrl();
+        }
+
+        try {
+            System.out.println("Running " + clients + " clients x " + searchesPerClient + " searches against " + url);
+            run(url, clients, searchesPerClient, pageSize);
+            if (server != null) {
+                System.out.println("Server handled " + server.getRequests() + " requests, injected "
+                        + server.getInjectedFaults() + " faults");
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private static void run(String url, int clients, int searchesPerClient, int pageSize) throws Exception {
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong records = new AtomicLong();
+        AtomicInteger errors = new AtomicInteger();
+        SraMetrics.getInstance().reset();
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            futures.add(pool.submit(() -> {
+                NcbiEUtilsClient client = new NcbiEUtilsClient(url);
+                SraQueryPlanner planner = new SraQueryPlanner(client);
+                for (int s = 0; s < searchesPerClient; s++) {
+                    long searchStart = System.nanoTime();
+                    try {
+                        SraSearchResult history = client.searchHistory("load test " + s);
+                        planner.fetchPages(history, history.getTotalCount(), pageSize,
+                                SraQueryPlanner.MAX_CONCURRENT_REQUESTS, batch -> {
+                                    records.addAndGet(batch.size());
+                                    return true;
+                                });
+                        latencies.add(System.nanoTime() - searchStart);
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                        System.err.println("Search failed: " + e);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        System.out.println(String.format(Locale.ROOT, "Searches: %d ok, %d failed in %.2f s (%.1f searches/s, %.0f records/s)",
+                sorted.size(), errors.get(), seconds, sorted.size() / seconds, records.get() / seconds));
+        System.out.println(String.format(Locale.ROOT, "Search latency: p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                percentileMillis(sorted, 0.50), percentileMillis(sorted, 0.99), percentileMillis(sorted, 1.0)));
+        for (String endpoint : new String[]{"esearch", "esummary", "efetch"}) {
+            EndpointMetrics metrics = SraMetrics.getInstance().endpoint(endpoint);
+            if (metrics.getRequests() > 0) {
+                System.out.println(String.format(Locale.ROOT, "  %-8s %6d requests, %d failed, %d retried, %d hedged (%d won), p50 %.1f ms, p99 %.1f ms",
+                        endpoint, metrics.getRequests(), metrics.getFailures(), metrics.getRetries(),
+                        metrics.getHedgedRequests(), metrics.getHedgeWins(),
+                        metrics.getP50LatencyMillis(), metrics.getP99LatencyMillis()));
+            }
+        }
+    }
+
+    private static double percentileMillis(List<Long> sorted, double quantile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index))) / 1e6;
+    }
+}
@@ -0,0 +1,402 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the NCBI E-utilities endpoints used by the plugin (esearch, esummary and efetch
+ * runinfo). Responses come from recorded files when a fixture directory holds them, and are otherwise
+ * synthesized by {@link EUtilsFixtures}. Latency, HTTP 429 responses, truncated bodies and slow streams
+ * can be injected to see how the client behaves when NCBI is struggling.
+ * <p>
+ * Point the plugin at it with {@code -Dncbi.sra.eutils.url=http://localhost:<port>/} and
+ * {@code -Dncbi.sra.eutils.rate=0}.
+ */
+public class StandInEUtilsServer implements Closeable {
+
+    private static final String WEBENV_PREFIX = "STANDIN_";
+    private static final int SLOW_STREAM_TICKS_PER_SECOND = 10;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int totalRecords;
+    private final File fixtureDirectory;
+
+    private volatile long latencyMillis;
+    private volatile long latencyJitterMillis;
+    private volatile double tailRate;
+    private volatile long tailLatencyMillis;
+    private volatile double tooManyRequestsRate;
+    private volatile double truncateRate;
+    private volatile long slowBytesPerSecond;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedFaults = new AtomicLong();
+
+    /**
+     * @param port port to listen on, or 0 for any free port
+     * @param totalRecords number of experiments every synthetic search matches
+     * @param fixtureDirectory directory holding recorded esearch.xml, esummary.xml or efetch.csv responses to
+     *                         serve verbatim, or null to synthesize everything
+     */
+    public StandInEUtilsServer(int port, int totalRecords, File fixtureDirectory) throws IOException {
+        this.totalRecords = totalRecords;
+        this.fixtureDirectory = fixtureDirectory;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "eutils-standin-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Delay every response by latency plus a uniformly random jitter
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = jitterMillis;
+    }
+
+    /**
+     * Delay this fraction of responses by an extra tailLatencyMillis, to model a long latency tail
+     */
+    public void setTail(double rate, long tailLatencyMillis) {
+        this.tailRate = rate;
+        this.tailLatencyMillis = tailLatencyMillis;
+    }
+
+    /**
+     * Fraction of requests answered with HTTP 429 Too Many Requests
+     */
+    public void setTooManyRequestsRate(double rate) {
+        this.tooManyRequestsRate = rate;
+    }
+
+    /**
+     * Fraction of responses cut off half way through the body
+     */
+    public void setTruncateRate(double rate) {
+        this.truncateRate = rate;
+    }
+
+    /**
+     * Stream response bodies at this rate, or 0 to send them as fast as possible
+     */
+    public void setSlowBytesPerSecond(long bytesPerSecond) {
+        this.slowBytesPerSecond = bytesPerSecond;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getInjectedFaults() {
+        return injectedFaults.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String endpoint = path.substring(path.lastIndexOf('/') + 1);
+            if (endpoint.isEmpty() || "HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            Map<String, String> params = readParameters(exchange);
+            byte[] body;
+            String contentType = "text/xml; charset=UTF-8";
+            switch (endpoint) {
+                case "esearch.fcgi":
+                    body = fixtureOr("esearch.xml", () -> search(params));
+                    break;
+                case "esummary.fcgi":
+                    body = fixtureOr("esummary.xml", () -> summary(params));
+                    break;
+                case "efetch.fcgi":
+                    body = fixtureOr("efetch.csv", () -> runInfo(params));
+                    contentType = "text/plain; charset=UTF-8";
+                    break;
+                default:
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+            }
+            respond(exchange, body, contentType);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            byte[] message = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(400, message.length);
+            exchange.getResponseBody().write(message);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void respond(HttpExchange exchange, byte[] body, String contentType) throws IOException, InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis + (latencyJitterMillis > 0 ? random.nextLong(latencyJitterMillis + 1) : 0);
+        if (random.nextDouble() < tailRate) {
+            delay += tailLatencyMillis;
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+
+        if (random.nextDouble() < tooManyRequestsRate) {
+            injectedFaults.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.sendResponseHeaders(429, -1);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+
+        int length = body.length;
+        if (random.nextDouble() < truncateRate) {
+            // Promise the full length but close the connection half way through
+            injectedFaults.incrementAndGet();
+            length = body.length / 2;
+        }
+
+        long bytesPerSecond = slowBytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            out.write(body, 0, length);
+        } else {
+            int chunk = (int) Math.max(1, bytesPerSecond / SLOW_STREAM_TICKS_PER_SECOND);
+            for (int offset = 0; offset < length; offset += chunk) {
+                out.write(body, offset, Math.min(chunk, length - offset));
+                out.flush();
+                Thread.sleep(1000 / SLOW_STREAM_TICKS_PER_SECOND);
+            }
+        }
+        out.flush();
+    }
+
+    private interface Generator {
+        byte[] generate() throws IOException;
+    }
+
+    private byte[] fixtureOr(String fixtureName, Generator generator) throws IOException {
+        if (fixtureDirectory != null) {
+            File fixture = new File(fixtureDirectory, fixtureName);
+            if (fixture.isFile()) {
+                return Files.readAllBytes(fixture.toPath());
+            }
+        }
+        return generator.generate();
+    }
+
+    private byte[] search(Map<String, String> params) throws IOException {
+        int count = countMatches(params.get("term"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<eSearchResult><Count>" + count + "</Count>");
+            if ("count".equals(params.get("rettype"))) {
+                out.write("</eSearchResult>\n");
+                return finish(out, bytes);
+            }
+
+            int retStart = intParameter(params, "retstart", 0);
+            int retMax = intParameter(params, "retmax", 20);
+            int end = Math.min(count, retStart + retMax);
+            out.write("<RetMax>" + Math.max(0, end - retStart) + "</RetMax><RetStart>" + retStart + "</RetStart>");
+            if ("y".equals(params.get("usehistory"))) {
+                out.write("<QueryKey>1</QueryKey><WebEnv>" + WEBENV_PREFIX + count + "</WebEnv>");
+            }
+            out.write("<IdList>\n");
+            for (int i = retStart; i < end; i++) {
+                out.write("<Id>" + EUtilsFixtures.uid(i) + "</Id>\n");
+            }
+            out.write("</IdList><TranslationSet/></eSearchResult>\n");
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] summary(Map<String, String> params) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            out.write(EUtilsFixtures.SUMMARY_HEADER);
+            for (int index : selectedIndexes(params)) {
+                EUtilsFixtures.writeDocSum(out, index);
+            }
+            out.write(EUtilsFixtures.SUMMARY_FOOTER);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] runInfo(Map<String, String> params) throws IOException {
+        if (!"runinfo".equals(params.get("rettype"))) {
+            throw new IllegalArgumentException("Only rettype=runinfo is supported");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            out.write(EUtilsFixtures.RUNINFO_HEADER);
+            for (int index : selectedIndexes(params)) {
+                EUtilsFixtures.writeRunInfo(out, index);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] finish(Writer out, ByteArrayOutputStream bytes) throws IOException {
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Experiments selected by an id list or by a history server page
+     */
+    private List<Integer> selectedIndexes(Map<String, String> params) {
+        List<Integer> indexes = new ArrayList<>();
+        String ids = params.get("id");
+        if (ids != null) {
+            for (String id : ids.split(",")) {
+                if (!id.trim().isEmpty()) {
+                    indexes.add(EUtilsFixtures.index(Integer.parseInt(id.trim())));
+                }
+            }
+            return indexes;
+        }
+
+        String webEnv = params.get("WebEnv");
+        if (webEnv == null || !webEnv.startsWith(WEBENV_PREFIX)) {
+            throw new IllegalArgumentException("Either id or a WebEnv from this server is required");
+        }
+        int count = Integer.parseInt(webEnv.substring(WEBENV_PREFIX.length()));
+        int retStart = intParameter(params, "retstart", 0);
+        int end = Math.min(count, retStart + intParameter(params, "retmax", 20));
+        for (int i = retStart; i < end; i++) {
+            indexes.add(i);
+        }
+        return indexes;
+    }
+
+    /**
+     * Accession lists match one experiment per accession; anything else matches every synthetic experiment
+     */
+    private int countMatches(String term) {
+        if (term == null || !term.contains("[Accession]")) {
+            return totalRecords;
+        }
+        return term.split(" OR ").length;
+    }
+
+    private static int intParameter(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    private static Map<String, String> readParameters(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            parseForm(query, params);
+        }
+        if ("POST".equals(exchange.getRequestMethod())) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            InputStream in = exchange.getRequestBody();
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                body.write(buffer, 0, n);
+            }
+            parseForm(new String(body.toByteArray(), StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> params) throws IOException {
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+    }
+
+    /**
+     * Run the server until the process is killed. Options: --port N, --records N, --fixtures DIR,
+     * --latency MS, --jitter MS, --tail FRACTION, --tailLatency MS, --rate429 FRACTION, --truncate FRACTION,
+     * --slow BYTES_PER_SECOND
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        StandInEUtilsServer server = fromOptions(options, Integer.parseInt(options.getOrDefault("port", "8089")));
+        server.start();
+        System.out.println("E-utilities stand-in listening at " + server.getBaseUrl());
+        Thread.currentThread().join();
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option but found " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    /**
+     * Create a server configured by the command line options documented on {@link #main}
+     */
+    static StandInEUtilsServer fromOptions(Map<String, String> options, int port) throws IOException {
+        String fixtures = options.get("fixtures");
+        StandInEUtilsServer server = new StandInEUtilsServer(port,
+                Integer.parseInt(options.getOrDefault("records", "10000")),
+                fixtures != null ? new File(fixtures) : null);
+        server.setLatency(Long.parseLong(options.getOrDefault("latency", "0")), Long.parseLong(options.getOrDefault("jitter", "0")));
+        server.setTail(Double.parseDouble(options.getOrDefault("tail", "0")), Long.parseLong(options.getOrDefault("tailLatency", "0")));
+        server.setTooManyRequestsRate(Double.parseDouble(options.getOrDefault("rate429", "0")));
+        server.setTruncateRate(Double.parseDouble(options.getOrDefault("truncate", "0")));
+        server.setSlowBytesPerSecond(Long.parseLong(options.getOrDefault("slow", "0")));
+        return server;
+    }
+}
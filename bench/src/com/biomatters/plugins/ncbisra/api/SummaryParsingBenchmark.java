@@ -0,0 +1,105 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+import com.biomatters.plugins.ncbisra.model.SraSearchResult;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of turning esearch and esummary responses into records. The XML is parsed into a
+ * JDOM document once in setup, so these measure only the plugin's own parsing code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SummaryParsingBenchmark {
+
+    @Param({"20", "1000", "10000"})
+    public int records;
+
+    private NcbiEUtilsClient client;
+    private Document summaryDocument;
+    private Document searchDocument;
+    private List<Element> docSums;
+    private List<String> expXmls;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        client = new NcbiEUtilsClient();
+        summaryDocument = EUtilsFixtures.load(EUtilsFixtures.summaryFile(records));
+        searchDocument = EUtilsFixtures.load(EUtilsFixtures.searchFile(records));
+
+        @SuppressWarnings("unchecked")
+        List<Element> elements = summaryDocument.getRootElement().getChildren("DocSum");
+        docSums = new ArrayList<>(elements);
+        expXmls = new ArrayList<>();
+        for (Element docSum : docSums) {
+            @SuppressWarnings("unchecked")
+            List<Element> items = docSum.getChildren("Item");
+            for (Element item : items) {
+                if ("ExpXml".equals(item.getAttributeValue("Name"))) {
+                    expXmls.add(item.getText());
+                }
+            }
+        }
+    }
+
+    /**
+     * A whole esummary response
+     */
+    @Benchmark
+    public List<SraRecord> parseSummaryRecords() {
+        return client.parseSummaryRecords(summaryDocument);
+    }
+
+    /**
+     * One DocSum per invocation, cycling through the fixture
+     */
+    @Benchmark
+    public List<SraRecord> parseSingleSummaryRecord() {
+        Element docSum = docSums.get(next);
+        next = next + 1 == docSums.size() ? 0 : next + 1;
+        return client.parseSingleSummaryRecord(docSum);
+    }
+
+    /**
+     * One ExpXml item per invocation, cycling through the fixture
+     */
+    @Benchmark
+    public SraRecord parseExpXml() {
+        String expXml = expXmls.get(next);
+        next = next + 1 == expXmls.size() ? 0 : next + 1;
+        SraRecord record = new SraRecord();
+        client.parseExpXml(record, expXml);
+        return record;
+    }
+
+    /**
+     * A whole esearch response
+     */
+    @Benchmark
+    public SraSearchResult parseSearchResult() {
+        return client.parseSearchResult(searchDocument);
+    }
+}
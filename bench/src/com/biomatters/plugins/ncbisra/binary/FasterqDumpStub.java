@@ -0,0 +1,209 @@
+package com.biomatters.plugins.ncbisra.binary;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Stand-in for fasterq-dump that writes synthetic FASTQ instead of downloading anything. It accepts the
+ * command line {@code SraDownloadOperation} builds (accession, --outdir, --split-files, --format and the flags
+ * it ignores) and is configured through system properties, which {@link #writeLauncher} bakes into a
+ * launcher script that {@link FasterqDumpBinaryManager#BINARY_PROPERTY} can point at:
+ * <ul>
+ *     <li>{@code sra.stub.spots} spots per accession (default 10000)</li>
+ *     <li>{@code sra.stub.readLength} bases per read (default 150)</li>
+ *     <li>{@code sra.stub.paired} whether runs are paired-end (default true)</li>
+ *     <li>{@code sra.stub.spotsPerSecond} throttle output to this rate, 0 for as fast as possible (default 0)</li>
+ *     <li>{@code sra.stub.failRate} probability that an accession fails part way through (default 0)</li>
+ *     <li>{@code sra.stub.failAccessions} comma separated accessions that always fail</li>
+ *     <li>{@code sra.stub.hangAccessions} comma separated accessions that stop writing half way through and never
+ *     exit, like a stuck conversion</li>
+ * </ul>
+ * Output is deterministic for a given accession so that runs can be compared.
+ */
+public class FasterqDumpStub {
+
+    static final String PROPERTY_PREFIX = "sra.stub.";
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    private static final int PROGRESS_INTERVAL_SPOTS = 100000;
+    private static final int EXIT_FAILURE = 3;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String accession = null;
+        File outputDirectory = new File(".");
+        boolean splitFiles = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--version":
+                case "-V":
+                    System.out.println("fasterq-dump : 3.0.0 (synthetic stub)");
+                    return;
+                case "--outdir":
+                case "-O":
+                    outputDirectory = new File(args[++i]);
+                    break;
+                case "--format":
+                case "-F":
+                case "--threads":
+                case "-e":
+                case "--temp":
+                case "-t":
+                    i++;
+                    break;
+                case "--split-files":
+                case "-S":
+                    splitFiles = true;
+                    break;
+                default:
+                    if (!args[i].startsWith("-")) {
+                        accession = args[i];
+                    }
+            }
+        }
+        if (accession == null) {
+            System.err.println("fasterq-dump.stub err: no accession given");
+            System.exit(EXIT_FAILURE);
+        }
+
+        long spots = Long.getLong(PROPERTY_PREFIX + "spots", 10000);
+        int readLength = Integer.getInteger(PROPERTY_PREFIX + "readLength", 150);
+        boolean paired = Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "paired", "true"));
+        long spotsPerSecond = Long.getLong(PROPERTY_PREFIX + "spotsPerSecond", 0);
+        double failRate = Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "failRate", "0"));
+        List<String> failAccessions = Arrays.asList(System.getProperty(PROPERTY_PREFIX + "failAccessions", "").split(","));
+        List<String> hangAccessions = Arrays.asList(System.getProperty(PROPERTY_PREFIX + "hangAccessions", "").split(","));
+
+        Random random = new Random(accession.hashCode());
+        long failAtSpot = -1;
+        if (failAccessions.contains(accession) || random.nextDouble() < failRate) {
+            failAtSpot = spots / 2;
+        }
+        long hangAtSpot = hangAccessions.contains(accession) ? spots / 2 : -1;
+
+        Files.createDirectories(outputDirectory.toPath());
+        List<Writer> outputs = new ArrayList<>();
+        try {
+            if (paired && splitFiles) {
+                outputs.add(open(new File(outputDirectory, accession + "_1.fastq")));
+                outputs.add(open(new File(outputDirectory, accession + "_2.fastq")));
+            } else {
+                outputs.add(open(new File(outputDirectory, accession + ".fastq")));
+            }
+
+            char[] sequence = new char[readLength];
+            char[] qualities = new char[readLength];
+            long start = System.nanoTime();
+            int readsPerSpot = paired ? 2 : 1;
+            for (long spot = 1; spot <= spots; spot++) {
+                if (spot == failAtSpot) {
+                    System.err.println("fasterq-dump.stub err: timeout exceeded while reading " + accession + " (connection reset)");
+                    System.exit(EXIT_FAILURE);
+                }
+                if (spot == hangAtSpot) {
+                    for (Writer out : outputs) {
+                        out.flush();
+                    }
+                    System.out.println("spots read      : " + spot);
+                    Thread.sleep(Long.MAX_VALUE);
+                }
+                for (int read = 1; read <= readsPerSpot; read++) {
+                    Writer out = outputs.get(outputs.size() == 1 ? 0 : read - 1);
+                    randomRead(random, sequence, qualities);
+                    out.write('@');
+                    out.write(accession);
+                    out.write('.');
+                    out.write(Long.toString(spot));
+                    out.write(' ');
+                    out.write(Long.toString(spot));
+                    out.write(" length=");
+                    out.write(Integer.toString(readLength));
+                    out.write('\n');
+                    out.write(sequence);
+                    out.write("\n+\n");
+                    out.write(qualities);
+                    out.write('\n');
+                }
+                if (spotsPerSecond > 0) {
+                    throttle(spot, spotsPerSecond, start);
+                }
+                if (spot % PROGRESS_INTERVAL_SPOTS == 0) {
+                    System.out.println("spots read      : " + spot);
+                }
+            }
+
+            System.out.println("spots read      : " + spots);
+            System.out.println("reads read      : " + spots * readsPerSpot);
+            System.out.println("reads written   : " + spots * readsPerSpot);
+        } finally {
+            for (Writer out : outputs) {
+                out.close();
+            }
+        }
+    }
+
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII), 1 << 16);
+    }
+
+    /**
+     * Illumina-like qualities: high at the start of the read and tailing off towards the end
+     */
+    private static void randomRead(Random random, char[] sequence, char[] qualities) {
+        for (int i = 0; i < sequence.length; i++) {
+            int quality = Math.max(2, Math.min(41, 38 - (i * 12 / sequence.length) + random.nextInt(7) - 3));
+            if (random.nextInt(500) == 0) {
+                sequence[i] = 'N';
+                quality = 2;
+            } else {
+                sequence[i] = BASES[random.nextInt(4)];
+            }
+            qualities[i] = (char) (quality + 33);
+        }
+    }
+
+    private static void throttle(long spotsWritten, long spotsPerSecond, long start) throws InterruptedException {
+        long dueNanos = spotsWritten * 1000000000L / spotsPerSecond;
+        long aheadMillis = (dueNanos - (System.nanoTime() - start)) / 1000000;
+        if (aheadMillis > 0) {
+            Thread.sleep(aheadMillis);
+        }
+    }
+
+    /**
+     * Write an executable script that runs this stub in a new JVM with the given settings (property names without
+     * the {@code sra.stub.} prefix). Returns the script, suitable for {@link FasterqDumpBinaryManager#BINARY_PROPERTY}.
+     */
+    public static File writeLauncher(File directory, Map<String, String> settings) throws IOException {
+        Files.createDirectories(directory.toPath());
+        String java = new File(System.getProperty("java.home"), "bin" + File.separator + "java").getAbsolutePath();
+        StringBuilder command = new StringBuilder();
+        command.append('"').append(java).append("\" -Xshare:auto -XX:TieredStopAtLevel=1 -cp \"")
+                .append(System.getProperty("java.class.path")).append('"');
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            command.append(" -D").append(PROPERTY_PREFIX).append(setting.getKey()).append('=').append(setting.getValue());
+        }
+        command.append(' ').append(FasterqDumpStub.class.getName());
+
+        boolean windows = System.getProperty("os.name").toLowerCase().contains("windows");
+        File launcher = new File(directory, windows ? "fasterq-dump.cmd" : "fasterq-dump");
+        String script = windows
+                ? "@echo off\r\n" + command + " %*\r\n"
+                : "#!/bin/sh\nexec " + command + " \"$@\"\n";
+        Files.write(launcher.toPath(), script.getBytes(StandardCharsets.UTF_8));
+        if (!launcher.setExecutable(true)) {
+            throw new IOException("Could not make " + launcher + " executable");
+        }
+        return launcher;
+    }
+}
@@ -0,0 +1,77 @@
+package com.biomatters.plugins.ncbisra.model;
+
+import com.biomatters.plugins.ncbisra.api.EUtilsFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building search result documents from records and of reading their columns,
+ * which the result table does for every visible row
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SraDocumentBenchmark {
+
+    private static final String[] FIELD_CODES = {
+        "sra.accession", "sra.organism", "sra.platform", "sra.libraryStrategy", "sra.libraryLayout",
+        "sra.title", "sra.study", "sra.bioproject", "sra.biosample", "sra.totalSpots", "sra.totalBases"
+    };
+
+    @Param({"20", "1000", "10000"})
+    public int records;
+
+    private List<SraRecord> sraRecords;
+    private List<SraDocument> documents;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        sraRecords = EUtilsFixtures.loadRecords(records);
+        documents = new ArrayList<>(sraRecords.size());
+        for (SraRecord record : sraRecords) {
+            documents.add(new SraDocument(record));
+        }
+    }
+
+    /**
+     * One document per invocation, cycling through the fixture records
+     */
+    @Benchmark
+    public SraDocument construct() {
+        SraRecord record = sraRecords.get(next);
+        next = next + 1 == sraRecords.size() ? 0 : next + 1;
+        return new SraDocument(record);
+    }
+
+    /**
+     * Every SRA column of one document per invocation
+     */
+    @Benchmark
+    public void getFieldValue(Blackhole blackhole) {
+        SraDocument document = documents.get(next);
+        next = next + 1 == documents.size() ? 0 : next + 1;
+        for (String fieldCode : FIELD_CODES) {
+            blackhole.consume(document.getFieldValue(fieldCode));
+        }
+    }
+}
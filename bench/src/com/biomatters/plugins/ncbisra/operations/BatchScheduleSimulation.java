@@ -0,0 +1,83 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the download orders of {@link BatchScheduler} on a mixed-size batch, assuming each run takes time in
+ * proportion to its FASTQ size. Reports mean completion time, time to the first usable run and, for the disk
+ * budget, how many runs were left out.
+ * <p>
+ * Options: --small N (runs of 0.2-2 GB, default 30), --large N (runs of --largeGb GB, default 1 at 200),
+ * --mbPerSecond N (download and import rate, default 50), --budgetGb N (default 100), --seed N
+ */
+public class BatchScheduleSimulation {
+
+    public static void main(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int small = Integer.parseInt(options.getOrDefault("small", "30"));
+        int large = Integer.parseInt(options.getOrDefault("large", "1"));
+        double largeGb = Double.parseDouble(options.getOrDefault("largeGb", "200"));
+        double bytesPerSecond = Double.parseDouble(options.getOrDefault("mbPerSecond", "50")) * 1e6;
+        long budget = (long) (Double.parseDouble(options.getOrDefault("budgetGb", "100")) * 1e9);
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "1")));
+
+        // The large runs were selected first, the worst case for selection order
+        Map<String, SraRecord> batch = new LinkedHashMap<>();
+        for (int i = 0; i < large; i++) {
+            batch.put("SRR9" + String.format("%06d", i), run((long) (largeGb * 1e9)));
+        }
+        for (int i = 0; i < small; i++) {
+            batch.put("SRR1" + String.format("%06d", i), run((long) ((0.2 + 1.8 * random.nextDouble()) * 1e9)));
+        }
+
+        System.out.println(String.format(Locale.ROOT, "%d runs, %.1f GB of FASTQ at %.0f MB/s", batch.size(),
+                totalFastqBytes(batch) / 1e9, bytesPerSecond / 1e6));
+        for (BatchScheduler.Order order : BatchScheduler.Order.values()) {
+            BatchScheduler scheduler = new BatchScheduler(batch, Collections.emptyList(), order, budget, false);
+            List<String> scheduled = scheduler.getOrder();
+            double elapsed = 0;
+            double total = 0;
+            double first = 0;
+            for (String accession : scheduled) {
+                elapsed += ScratchPlanner.estimate(accession, batch.get(accession)).fastqBytes / bytesPerSecond;
+                total += elapsed;
+                if (first == 0) {
+                    first = elapsed;
+                }
+            }
+            System.out.println(String.format(Locale.ROOT, "  %-18s %3d runs, mean completion %6.1f min, first result %6.1f min, " +
+                            "all done %6.1f min%s", order, scheduled.size(), total / scheduled.size() / 60, first / 60,
+                    elapsed / 60, scheduler.getSkipped().isEmpty() ? "" : ", " + scheduler.getSkipped().size() + " skipped"));
+        }
+    }
+
+    /**
+     * A paired 2x150 run of roughly the given FASTQ size
+     */
+    private static SraRecord run(long fastqBytes) {
+        SraRecord record = new SraRecord();
+        long spots = fastqBytes / 700;
+        record.setTotalSpots(spots);
+        record.setTotalBases(spots * 300);
+        record.setLibraryLayout("PAIRED");
+        return record;
+    }
+
+    private static long totalFastqBytes(Map<String, SraRecord> batch) {
+        long total = 0;
+        for (Map.Entry<String, SraRecord> entry : batch.entrySet()) {
+            total += ScratchPlanner.estimate(entry.getKey(), entry.getValue()).fastqBytes;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,224 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the ENA file report and FASTQ file server used by {@link EnaFastqDownloader}. Serves the
+ * gzipped FASTQ files registered for each run, honouring single byte-range requests, and can cap each
+ * connection's bandwidth the way a long-distance link does, which is what parallel ranges work around.
+ * <p>
+ * Point the plugin at it with {@code -Dncbi.sra.ena.url=http://localhost:<port>/}.
+ */
+public class StandInEnaServer implements Closeable {
+
+    private static final String FILE_PREFIX = "/vol1/fastq/";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, List<File>> runs = new ConcurrentHashMap<>();
+    private final Map<File, String> md5s = new ConcurrentHashMap<>();
+    private final long bytesPerSecondPerConnection;
+    private final AtomicLong rangeRequests = new AtomicLong();
+
+    /**
+     * @param bytesPerSecondPerConnection bandwidth of each response, or 0 for as fast as possible
+     */
+    public StandInEnaServer(long bytesPerSecondPerConnection) throws IOException {
+        this.bytesPerSecondPerConnection = bytesPerSecondPerConnection;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ena-standin-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Serve a run's gzipped FASTQ files, named as ENA names them
+     */
+    public void addRun(String accession, List<File> files) throws IOException {
+        for (File file : files) {
+            md5s.put(file, md5(file));
+        }
+        runs.put(accession, files);
+    }
+
+    public long getRangeRequests() {
+        return rangeRequests.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/filereport")) {
+                sendReport(exchange);
+            } else if (path.startsWith(FILE_PREFIX)) {
+                sendFile(exchange, path.substring(FILE_PREFIX.length()));
+            } else {
+                send(exchange, 404, "Not found");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendReport(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        Matcher matcher = Pattern.compile("accession=([A-Za-z0-9]+)").matcher(query != null ? query : "");
+        String accession = matcher.find() ? matcher.group(1) : "";
+        StringBuilder report = new StringBuilder("run_accession\tfastq_ftp\tfastq_bytes\tfastq_md5\n");
+        List<File> files = runs.get(accession);
+        if (files != null) {
+            StringBuilder locations = new StringBuilder();
+            StringBuilder sizes = new StringBuilder();
+            StringBuilder checksums = new StringBuilder();
+            for (File file : files) {
+                String separator = locations.length() > 0 ? ";" : "";
+                locations.append(separator).append("ftp.sra.ebi.ac.uk").append(FILE_PREFIX).append(accession).append('/').append(file.getName());
+                sizes.append(separator).append(file.length());
+                checksums.append(separator).append(md5s.get(file));
+            }
+            report.append(accession).append('\t').append(locations).append('\t').append(sizes).append('\t').append(checksums).append('\n');
+        }
+        send(exchange, 200, report.toString());
+    }
+
+    private void sendFile(HttpExchange exchange, String path) throws IOException {
+        int slash = path.indexOf('/');
+        List<File> files = slash > 0 ? runs.get(path.substring(0, slash)) : null;
+        File file = null;
+        if (files != null) {
+            for (File candidate : files) {
+                if (candidate.getName().equals(path.substring(slash + 1))) {
+                    file = candidate;
+                }
+            }
+        }
+        if (file == null) {
+            send(exchange, 404, "Not found");
+            return;
+        }
+        long length = file.length();
+        long from = 0;
+        long to = length - 1;
+        int code = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range != null ? RANGE.matcher(range) : null;
+        if (matcher != null && matcher.matches()) {
+            from = Long.parseLong(matcher.group(1));
+            if (!matcher.group(2).isEmpty()) {
+                to = Math.min(to, Long.parseLong(matcher.group(2)));
+            }
+            if (from > to) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                send(exchange, 416, "");
+                return;
+            }
+            code = 206;
+            rangeRequests.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + length);
+        }
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.sendResponseHeaders(code, to - from + 1);
+        try (RandomAccessFile in = new RandomAccessFile(file, "r"); OutputStream out = exchange.getResponseBody()) {
+            in.seek(from);
+            byte[] buffer = new byte[CHUNK_BYTES];
+            long remaining = to - from + 1;
+            long start = System.nanoTime();
+            long sent = 0;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+                sent += read;
+                throttle(start, sent);
+            }
+        }
+    }
+
+    private void throttle(long start, long sent) throws IOException {
+        if (bytesPerSecondPerConnection <= 0) {
+            return;
+        }
+        long dueNanos = (long) (sent * 1e9 / bytesPerSecondPerConnection);
+        long aheadNanos = dueNanos - (System.nanoTime() - start);
+        if (aheadNanos > 0) {
+            try {
+                Thread.sleep(aheadNanos / 1000000, (int) (aheadNanos % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+        }
+    }
+
+    private static void send(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, bytes.length > 0 ? bytes.length : -1);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static String md5(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
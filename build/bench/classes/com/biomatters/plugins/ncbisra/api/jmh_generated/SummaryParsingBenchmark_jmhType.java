@@ -0,0 +1,4 @@
+package com.biomatters.plugins.ncbisra.api.jmh_generated;
+public class SummaryParsingBenchmark_jmhType extends SummaryParsingBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package com.biomatters.plugins.ncbisra.model.jmh_generated;
+public class SraDocumentBenchmark_jmhType extends SraDocumentBenchmark_jmhType_B3 {
+}
+
@@ -5,7 +5,9 @@ import com.biomatters.geneious.publicapi.plugin.DocumentOperation;
 import com.biomatters.geneious.publicapi.plugin.DocumentType;
 import com.biomatters.geneious.publicapi.plugin.GeneiousPlugin;
 import com.biomatters.geneious.publicapi.plugin.GeneiousService;
+import com.biomatters.plugins.ncbisra.operations.BulkAccessionResolveOperation;
 import com.biomatters.plugins.ncbisra.operations.SraDownloadOperation;
+import com.biomatters.plugins.ncbisra.service.DownloadQueueService;
 import com.biomatters.plugins.ncbisra.service.NcbiSraDatabaseServiceSimple;
 
 /**
@@ -55,14 +57,16 @@ public class NcbiSraSearchPlugin extends GeneiousPlugin {
     @Override
     public GeneiousService[] getServices() {
         return new GeneiousService[] {
-            new NcbiSraDatabaseServiceSimple()
+            new NcbiSraDatabaseServiceSimple(),
+            new DownloadQueueService()
         };
     }
     
     @Override
     public DocumentOperation[] getDocumentOperations() {
         return new DocumentOperation[] {
-            new SraDownloadOperation()
+            new SraDownloadOperation(),
+            new BulkAccessionResolveOperation()
         };
     }
     
@@ -0,0 +1,79 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import com.biomatters.plugins.ncbisra.metrics.EndpointMetrics;
+import com.biomatters.plugins.ncbisra.metrics.LatencyHistogram;
+import com.biomatters.plugins.ncbisra.metrics.SraMetrics;
+
+/**
+ * Timeouts for E-utilities requests derived from the latency each endpoint has actually shown,
+ * rather than one fixed value for every request. Until an endpoint has enough history the
+ * conservative defaults apply.
+ * <ul>
+ *     <li>The wait for response headers is a multiple of the endpoint's 99th percentile response time, so
+ *     a stuck request fails in seconds when NCBI is normally fast.</li>
+ *     <li>Once headers arrive the body gets a deadline proportional to its Content-Length, so large
+ *     responses on slow links are allowed to finish but a trickling one is not.</li>
+ *     <li>Requests slower than the endpoint's 95th percentile are worth hedging.</li>
+ * </ul>
+ */
+final class AdaptiveTimeouts {
+
+    static final int CONNECT_TIMEOUT_MS = 10000;
+    // Longest a read may block once the body is streaming, and the response timeout before any history exists
+    static final int DEFAULT_TIMEOUT_MS = 30000;
+
+    private static final long MIN_SAMPLES = 20;
+    private static final double RESPONSE_TIMEOUT_MULTIPLIER = 4;
+    private static final int MIN_RESPONSE_TIMEOUT_MS = 3000;
+    private static final int MAX_RESPONSE_TIMEOUT_MS = DEFAULT_TIMEOUT_MS;
+
+    // Slowest transfer rate a response body is given time for, plus a fixed allowance
+    private static final long MIN_BODY_BYTES_PER_SECOND = 16 * 1024;
+    private static final long BODY_ALLOWANCE_MS = 10000;
+
+    private static final long MIN_HEDGE_DELAY_MS = 250;
+    // Hedges are extra load on NCBI, so at most this fraction of requests is duplicated
+    private static final double MAX_HEDGE_FRACTION = 0.1;
+
+    private AdaptiveTimeouts() {
+    }
+
+    /**
+     * How long to wait for the response headers of a request to this endpoint
+     */
+    static int responseTimeoutMillis(String endpoint) {
+        LatencyHistogram responses = SraMetrics.getInstance().endpoint(endpoint).getResponseLatency();
+        if (responses.getCount() < MIN_SAMPLES) {
+            return DEFAULT_TIMEOUT_MS;
+        }
+        double timeout = RESPONSE_TIMEOUT_MULTIPLIER * responses.getPercentileMillis(0.99);
+        return (int) Math.max(MIN_RESPONSE_TIMEOUT_MS, Math.min(MAX_RESPONSE_TIMEOUT_MS, timeout));
+    }
+
+    /**
+     * How long to allow for reading a response body of this size
+     *
+     * @param contentLength declared length in bytes, or -1 if unknown
+     * @return the deadline in milliseconds, or 0 for none when the length is unknown
+     */
+    static long bodyDeadlineMillis(long contentLength) {
+        if (contentLength < 0) {
+            return 0;
+        }
+        return BODY_ALLOWANCE_MS + contentLength * 1000 / MIN_BODY_BYTES_PER_SECOND;
+    }
+
+    /**
+     * How long to wait for a request to this endpoint before sending a duplicate
+     *
+     * @return the delay in milliseconds, or 0 if the request should not be hedged
+     */
+    static long hedgeDelayMillis(String endpoint) {
+        EndpointMetrics metrics = SraMetrics.getInstance().endpoint(endpoint);
+        LatencyHistogram latency = metrics.getLatency();
+        if (latency.getCount() < MIN_SAMPLES || metrics.getHedgedRequests() >= MAX_HEDGE_FRACTION * latency.getCount()) {
+            return 0;
+        }
+        return Math.max(MIN_HEDGE_DELAY_MS, (long) latency.getPercentileMillis(0.95));
+    }
+}
@@ -0,0 +1,205 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves large lists of SRA accessions to run records. Accessions are classified up front,
+ * answered from the {@link SraMetadataCache} where possible, and the remainder are fetched from
+ * NCBI in large concurrent batches through the {@link SraQueryPlanner}.
+ */
+public class BulkAccessionResolver {
+
+    // Sub-queries are sent by POST, so they can be much larger than interactive queries
+    private static final int TERMS_PER_QUERY = 200;
+    private static final int MAX_QUERY_LENGTH = 8000;
+
+    private static final Pattern LIST_SEPARATOR = Pattern.compile("[\\s,;]+");
+
+    /**
+     * Outcome of resolving an accession list
+     */
+    public static class Result {
+        private final List<SraRecord> records;
+        private final List<String> unresolved;
+        private final List<String> invalid;
+        private final int cacheHits;
+
+        Result(List<SraRecord> records, List<String> unresolved, List<String> invalid, int cacheHits) {
+            this.records = records;
+            this.unresolved = unresolved;
+            this.invalid = invalid;
+            this.cacheHits = cacheHits;
+        }
+
+        /**
+         * One record per run, in the order they were resolved
+         */
+        public List<SraRecord> getRecords() {
+            return records;
+        }
+
+        /**
+         * Valid accessions that NCBI returned no runs for
+         */
+        public List<String> getUnresolved() {
+            return unresolved;
+        }
+
+        /**
+         * Tokens that are not recognised SRA, BioProject or BioSample accessions
+         */
+        public List<String> getInvalid() {
+            return invalid;
+        }
+
+        /**
+         * Number of accessions answered from the metadata cache
+         */
+        public int getCacheHits() {
+            return cacheHits;
+        }
+    }
+
+    private final SraQueryPlanner queryPlanner;
+    private final SraMetadataCache cache;
+
+    public BulkAccessionResolver(NcbiEUtilsClient client) {
+        this(new SraQueryPlanner(client), SraMetadataCache.getInstance());
+    }
+
+    public BulkAccessionResolver(SraQueryPlanner queryPlanner, SraMetadataCache cache) {
+        this.queryPlanner = queryPlanner;
+        this.cache = cache;
+    }
+
+    /**
+     * Read accessions separated by whitespace, commas or semicolons. Lines starting with # are ignored.
+     */
+    public static List<String> readAccessions(Reader reader) throws IOException {
+        List<String> accessions = new ArrayList<>();
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            for (String token : LIST_SEPARATOR.split(line)) {
+                if (!token.isEmpty()) {
+                    accessions.add(token);
+                }
+            }
+        }
+        return accessions;
+    }
+
+    /**
+     * Resolve accessions to run records. Batches of newly resolved records are passed to the handler
+     * as they arrive; returning false from the handler stops resolution early. The handler's
+     * {@link SraQueryPlanner.RecordBatchHandler#isCanceled()} is polled while waiting for NCBI.
+     *
+     * @throws java.io.InterruptedIOException if the handler reports that resolution was cancelled
+     */
+    public Result resolve(Collection<String> accessions, SraQueryPlanner.RecordBatchHandler handler) throws IOException {
+        Map<String, SraAccessionType> pending = new LinkedHashMap<>();
+        List<String> invalid = new ArrayList<>();
+        for (String accession : accessions) {
+            String normalized = accession.trim().toUpperCase(Locale.ROOT);
+            SraAccessionType type = SraAccessionType.classify(normalized);
+            if (type == null) {
+                invalid.add(accession);
+            } else {
+                pending.put(normalized, type);
+            }
+        }
+
+        Map<String, SraRecord> resolved = new LinkedHashMap<>();
+        List<String> unresolved = new ArrayList<>(pending.keySet());
+
+        // Answer what we can from the cache first
+        List<SraRecord> cached = new ArrayList<>();
+        int cacheHits = 0;
+        for (Map.Entry<String, SraAccessionType> entry : new ArrayList<>(pending.entrySet())) {
+            List<SraRecord> records = cache.get(entry.getKey(), entry.getValue());
+            if (records != null) {
+                cacheHits++;
+                pending.remove(entry.getKey());
+                for (SraRecord record : records) {
+                    if (resolved.put(record.getRun(), record) == null) {
+                        cached.add(record);
+                    }
+                }
+            }
+        }
+        if (!cached.isEmpty() && !handler.recordsReceived(cached)) {
+            return result(resolved, unresolved, pending, invalid, cacheHits);
+        }
+
+        if (!pending.isEmpty()) {
+            List<String> terms = new ArrayList<>(pending.size());
+            for (Map.Entry<String, SraAccessionType> entry : pending.entrySet()) {
+                terms.add(entry.getValue().toSearchTerm(entry.getKey()));
+            }
+
+            List<String> subQueries = queryPlanner.planTerms(terms, TERMS_PER_QUERY, MAX_QUERY_LENGTH);
+            Map<String, Boolean> found = new LinkedHashMap<>();
+            queryPlanner.execute(subQueries, Integer.MAX_VALUE, new SraQueryPlanner.RecordBatchHandler() {
+                @Override
+                public boolean recordsReceived(List<SraRecord> records) {
+                    List<SraRecord> matched = new ArrayList<>();
+                    for (SraRecord record : records) {
+                        // A run accession resolves to its whole experiment; only keep runs that were asked for
+                        boolean requested = false;
+                        for (String accession : identifiers(record)) {
+                            if (accession != null && pending.containsKey(accession)) {
+                                found.put(accession, Boolean.TRUE);
+                                requested = true;
+                            }
+                        }
+                        if (requested && record.getRun() != null && !resolved.containsKey(record.getRun())) {
+                            resolved.put(record.getRun(), record);
+                            matched.add(record);
+                        }
+                    }
+                    return matched.isEmpty() || handler.recordsReceived(matched);
+                }
+
+                @Override
+                public boolean isCanceled() {
+                    return handler.isCanceled();
+                }
+            });
+            pending.keySet().removeAll(found.keySet());
+        }
+
+        return result(resolved, unresolved, pending, invalid, cacheHits);
+    }
+
+    private static List<String> identifiers(SraRecord record) {
+        return Arrays.asList(record.getRun(), record.getExperiment(), record.getStudy(), record.getSample(),
+                record.getBioProject(), record.getBioSample(), record.getSubmission());
+    }
+
+    private static Result result(Map<String, SraRecord> resolved, List<String> requested,
+                                 Map<String, SraAccessionType> pending, List<String> invalid, int cacheHits) {
+        List<String> unresolved = new ArrayList<>();
+        for (String accession : requested) {
+            if (pending.containsKey(accession)) {
+                unresolved.add(accession);
+            }
+        }
+        return new Result(new ArrayList<>(resolved.values()), unresolved, invalid, cacheHits);
+    }
+}
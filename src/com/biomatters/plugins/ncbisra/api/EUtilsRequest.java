@@ -0,0 +1,135 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An asynchronous E-utilities call. Cancelling the request, or reaching its deadline, closes
+ * the connections it has open so that blocked socket reads stop immediately.
+ *
+ * @param <T> the result type
+ */
+public class EUtilsRequest<T> extends CompletableFuture<T> {
+
+    private static final ThreadLocal<EUtilsRequest<?>> CURRENT = new ThreadLocal<>();
+
+    private final Set<HttpURLConnection> connections = ConcurrentHashMap.newKeySet();
+    private final long deadlineNanos;
+    private Thread worker;
+
+    /**
+     * @param timeoutMillis overall deadline for the request, or 0 for none
+     */
+    EUtilsRequest(long timeoutMillis) {
+        this.deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+    }
+
+    /**
+     * The request being executed on the current thread, if any
+     */
+    static EUtilsRequest<?> current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Run the call on the current thread and complete this request with its outcome
+     */
+    void run(NcbiEUtilsClient.Call<T> call) {
+        if (!begin()) {
+            return;
+        }
+        CURRENT.set(this);
+        try {
+            complete(call.call());
+        } catch (Throwable t) {
+            completeExceptionally(t);
+        } finally {
+            CURRENT.remove();
+            end();
+        }
+    }
+
+    private synchronized boolean begin() {
+        if (isDone()) {
+            return false;
+        }
+        worker = Thread.currentThread();
+        return true;
+    }
+
+    private synchronized void end() {
+        worker = null;
+        // Don't leak an interrupt from a late cancel into the next task on this pool thread
+        Thread.interrupted();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        abort();
+        return cancelled;
+    }
+
+    /**
+     * Fail the request with a {@link TimeoutException} if it is still running
+     */
+    void expire() {
+        if (completeExceptionally(new TimeoutException("NCBI request did not complete before its deadline"))) {
+            abort();
+        }
+    }
+
+    private void abort() {
+        for (HttpURLConnection connection : connections) {
+            connection.disconnect();
+        }
+        synchronized (this) {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Track an open connection so it can be closed on cancel. Fails if the request is already finished.
+     */
+    void register(HttpURLConnection connection) throws IOException {
+        connections.add(connection);
+        if (isDone()) {
+            connection.disconnect();
+            throw new InterruptedIOException("NCBI request was cancelled");
+        }
+    }
+
+    void unregister(HttpURLConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Socket timeout to use for the next connection: the default, capped at the time left before the deadline
+     */
+    int timeoutMillis(int defaultTimeout) throws IOException {
+        if (deadlineNanos == 0) {
+            return defaultTimeout;
+        }
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (remaining <= 0) {
+            throw new InterruptedIOException("NCBI request deadline exceeded");
+        }
+        return (int) Math.min(defaultTimeout, remaining);
+    }
+
+    boolean hasDeadline() {
+        return deadlineNanos != 0;
+    }
+
+    long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+}
@@ -0,0 +1,21 @@
+package com.biomatters.plugins.ncbisra.api;
+
+/**
+ * Source format used by {@link NcbiEUtilsClient} to retrieve SRA metadata for a list of UIDs
+ */
+public enum MetadataBackend {
+    /**
+     * esummary XML with embedded ExpXml and Runs fragments. Includes experiment titles.
+     */
+    ESUMMARY,
+
+    /**
+     * efetch rettype=runinfo CSV. Much smaller and faster to parse, but has no experiment titles.
+     */
+    RUNINFO,
+
+    /**
+     * Use esummary for small result sets and runinfo for large ones
+     */
+    AUTO
+}
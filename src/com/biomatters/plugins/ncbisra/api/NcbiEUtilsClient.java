@@ -1,6 +1,11 @@
 package com.biomatters.plugins.ncbisra.api;
 
 import com.biomatters.plugins.ncbisra.model.SraRecord;
+import com.biomatters.plugins.ncbisra.jfr.EUtilsRequestEvent;
+import com.biomatters.plugins.ncbisra.jfr.ExpXmlParseEvent;
+import com.biomatters.plugins.ncbisra.jfr.SummaryParseEvent;
+import com.biomatters.plugins.ncbisra.metrics.CountingInputStream;
+import com.biomatters.plugins.ncbisra.metrics.SraMetrics;
 import com.biomatters.plugins.ncbisra.model.SraSearchResult;
 
 import org.jdom.Document;
@@ -9,30 +14,142 @@ import org.jdom.input.SAXBuilder;
 
 import java.io.*;
 import java.net.*;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Client for NCBI E-utilities API to search and retrieve SRA metadata
  */
 public class NcbiEUtilsClient {
     
-    private static final String EUTILS_BASE_URL = "https://eutils.ncbi.nlm.nih.gov/entrez/eutils/";
-    private static final String ESEARCH_URL = EUTILS_BASE_URL + "esearch.fcgi";
-    private static final String EFETCH_URL = EUTILS_BASE_URL + "efetch.fcgi";
-    private static final String ESUMMARY_URL = EUTILS_BASE_URL + "esummary.fcgi";
+    public static final String DEFAULT_BASE_URL = "https://eutils.ncbi.nlm.nih.gov/entrez/eutils/";
+    
+    // System properties to point the default client at another E-utilities server (such as a local
+    // stand-in for load testing) and to change the request rate limit; a rate of 0 disables limiting
+    public static final String BASE_URL_PROPERTY = "ncbi.sra.eutils.url";
+    public static final String RATE_PROPERTY = "ncbi.sra.eutils.rate";
+    // Set to false to stop duplicating slow asynchronous requests
+    public static final String HEDGE_PROPERTY = "ncbi.sra.eutils.hedge";
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 3;
     
     private static final String DATABASE = "sra";
     private static final int DEFAULT_RETMAX = 20;
-    private static final int DEFAULT_TIMEOUT = 30000; // 30 seconds
+    // Most UIDs asked for in one esearch response; larger requests are paged
+    private static final int UID_PAGE_SIZE = 10000;
+    
+    // Result sets at least this large are fetched as runinfo CSV when the backend is AUTO
+    private static final int RUNINFO_AUTO_THRESHOLD = 500;
+    
+    // Retries for HTTP 429 (too many requests) and 503 responses
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_BACKOFF_MS = 1000;
+    
+    // NCBI limits are per client IP, so each server's limiter is shared by all client instances
+    private static final Map<String, NcbiRateLimiter> RATE_LIMITERS = new ConcurrentHashMap<>();
+    
+    // Threads for asynchronous requests. Requests beyond this wait in a queue; cancelling one that
+    // hasn't started removes it without touching the network.
+    private static final int MAX_ASYNC_REQUESTS = 6;
+    private static final ExecutorService ASYNC_EXECUTOR = Executors.newFixedThreadPool(MAX_ASYNC_REQUESTS, daemonThreads("ncbi-eutils-async-"));
+    private static final ScheduledExecutorService DEADLINE_SCHEDULER = Executors.newSingleThreadScheduledExecutor(daemonThreads("ncbi-eutils-deadline-"));
+    
+    /**
+     * A blocking E-utilities call that can be run asynchronously
+     */
+    interface Call<T> {
+        T call() throws IOException;
+    }
+    
+    // esummary payloads with at least this many DocSums are parsed in parallel. Kept below
+    // RUNINFO_AUTO_THRESHOLD, since under AUTO larger result sets never reach esummary.
+    private static final int PARALLEL_PARSE_THRESHOLD = 200;
+    private static final int PARSE_CHUNK_SIZE = 100;
+    private static final ForkJoinPool PARSE_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("ncbi-sra-parse-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
     
+    // All state is immutable or volatile, so one client can be shared between threads
     private final String userAgent;
-    private final SimpleDateFormat dateFormat;
+    private final String baseUrl;
+    private final String esearchUrl;
+    private final String efetchUrl;
+    private final String esummaryUrl;
+    private final NcbiRateLimiter rateLimiter;
+    private volatile MetadataBackend metadataBackend = MetadataBackend.AUTO;
+    private volatile boolean hedging = !"false".equalsIgnoreCase(System.getProperty(HEDGE_PROPERTY));
     
+    /**
+     * Client for the server named by the {@value #BASE_URL_PROPERTY} system property, or NCBI if it isn't set
+     */
     public NcbiEUtilsClient() {
+        this(System.getProperty(BASE_URL_PROPERTY, DEFAULT_BASE_URL));
+    }
+    
+    /**
+     * @param baseUrl E-utilities base URL, e.g. {@link #DEFAULT_BASE_URL}
+     */
+    public NcbiEUtilsClient(String baseUrl) {
         this.userAgent = "GeneiousNcbiSraPlugin/1.0 (geneious@biomatters.com)";
-        this.dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm");
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.esearchUrl = this.baseUrl + "esearch.fcgi";
+        this.efetchUrl = this.baseUrl + "efetch.fcgi";
+        this.esummaryUrl = this.baseUrl + "esummary.fcgi";
+        this.rateLimiter = RATE_LIMITERS.computeIfAbsent(this.baseUrl, url -> createRateLimiter());
+    }
+    
+    private static NcbiRateLimiter createRateLimiter() {
+        double requestsPerSecond = DEFAULT_REQUESTS_PER_SECOND;
+        String rate = System.getProperty(RATE_PROPERTY);
+        if (rate != null) {
+            try {
+                requestsPerSecond = Double.parseDouble(rate.trim());
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid " + RATE_PROPERTY + " value: " + rate);
+            }
+        }
+        return new NcbiRateLimiter(requestsPerSecond > 0 ? requestsPerSecond : Double.POSITIVE_INFINITY);
+    }
+    
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+    
+    public MetadataBackend getMetadataBackend() {
+        return metadataBackend;
+    }
+    
+    /**
+     * Select how record metadata is retrieved after esearch. Defaults to {@link MetadataBackend#AUTO}.
+     */
+    public void setMetadataBackend(MetadataBackend metadataBackend) {
+        this.metadataBackend = metadataBackend != null ? metadataBackend : MetadataBackend.AUTO;
+    }
+    
+    public boolean isHedging() {
+        return hedging;
+    }
+    
+    /**
+     * Whether asynchronous single-request calls that take longer than their endpoint's 95th percentile
+     * are duplicated, using whichever response arrives first. On by default.
+     */
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
     }
     
     /**
@@ -61,7 +178,7 @@ public class NcbiEUtilsClient {
         
         if (!uids.isEmpty()) {
             // Fetch detailed information for each UID
-            List<SraRecord> detailedRecords = fetchDetailedRecords(uids);
+            List<SraRecord> detailedRecords = fetchDetailedRecords(uids, result);
             result.setRecords(detailedRecords);
         } else {
             result.setRecords(new ArrayList<>());
@@ -70,6 +187,230 @@ public class NcbiEUtilsClient {
         return result;
     }
     
+    /**
+     * Run an esearch and return up to retMax of the matching UIDs without fetching their summaries.
+     * Matches beyond one esearch response are fetched page by page, so none are silently left out.
+     * The term is sent by POST so that long accession lists don't hit URL length limits.
+     */
+    public List<String> searchUids(String queryTerm, int retMax) throws IOException {
+        if (queryTerm == null || queryTerm.trim().isEmpty()) {
+            throw new IllegalArgumentException("Query term cannot be empty");
+        }
+        
+        int limit = retMax > 0 ? retMax : DEFAULT_RETMAX;
+        String term = URLEncoder.encode(optimizeSearchQuery(queryTerm), "UTF-8");
+        List<String> uids = new ArrayList<>();
+        while (true) {
+            StringBuilder params = new StringBuilder();
+            params.append("db=").append(DATABASE);
+            params.append("&term=").append(term);
+            params.append("&retstart=").append(uids.size());
+            params.append("&retmax=").append(Math.min(UID_PAGE_SIZE, limit - uids.size()));
+            params.append("&retmode=xml");
+            
+            Document searchDoc = fetchXmlDocument(esearchUrl, params.toString());
+            List<String> page = extractUids(searchDoc);
+            uids.addAll(page);
+            int total = parseSearchResult(searchDoc).getTotalCount();
+            if (page.isEmpty() || uids.size() >= Math.min(limit, total)) {
+                return uids;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Search was interrupted");
+            }
+        }
+    }
+    
+    /**
+     * Count the matches for a query without retrieving any UIDs (esearch rettype=count)
+     */
+    public int searchCount(String queryTerm) throws IOException {
+        if (queryTerm == null || queryTerm.trim().isEmpty()) {
+            throw new IllegalArgumentException("Query term cannot be empty");
+        }
+        
+        StringBuilder params = new StringBuilder();
+        params.append("db=").append(DATABASE);
+        params.append("&term=").append(URLEncoder.encode(optimizeSearchQuery(queryTerm), "UTF-8"));
+        params.append("&rettype=count");
+        params.append("&retmode=xml");
+        
+        return parseSearchResult(fetchXmlDocument(esearchUrl, params.toString())).getTotalCount();
+    }
+    
+    /**
+     * Run an esearch that stores the matching UIDs on the NCBI history server without returning them.
+     * Records can then be fetched page by page with {@link #fetchRecords(SraSearchResult, int, int)}.
+     */
+    public SraSearchResult searchHistory(String queryTerm) throws IOException {
+        if (queryTerm == null || queryTerm.trim().isEmpty()) {
+            throw new IllegalArgumentException("Query term cannot be empty");
+        }
+        
+        StringBuilder params = new StringBuilder();
+        params.append("db=").append(DATABASE);
+        params.append("&term=").append(URLEncoder.encode(optimizeSearchQuery(queryTerm), "UTF-8"));
+        params.append("&retmax=0");
+        params.append("&usehistory=y");
+        params.append("&retmode=xml");
+        
+        SraSearchResult result = parseSearchResult(fetchXmlDocument(esearchUrl, params.toString()));
+        result.setRecords(new ArrayList<>());
+        if (result.getWebEnv() == null || result.getQueryKey() == null) {
+            throw new IOException("NCBI did not return a history server session for the search");
+        }
+        return result;
+    }
+    
+    /**
+     * Fetch one page of records from a search stored on the history server.
+     * The metadata backend is chosen from the total size of the search, not the page size.
+     */
+    public List<SraRecord> fetchRecords(SraSearchResult history, int retStart, int retMax) throws IOException {
+        String selection = buildHistoryParams(history, retStart, retMax);
+        
+        List<SraRecord> records;
+        if (useRunInfo(history.getTotalCount())) {
+            records = fetchRunInfoRecords(selection);
+        } else {
+            records = parseSummaryRecords(fetchXmlDocument(esummaryUrl, "db=" + DATABASE + selection + "&retmode=xml"));
+        }
+        
+        SraMetadataCache.getInstance().putAll(records);
+        return records;
+    }
+    
+    /**
+     * Fetch records for a batch of UIDs using the configured metadata backend
+     */
+    public List<SraRecord> fetchRecords(List<String> uids) throws IOException {
+        return fetchDetailedRecords(uids, null);
+    }
+    
+    /**
+     * Asynchronous version of {@link #search(String, int, int)}
+     *
+     * @param timeoutMillis deadline for the whole call including retries, or 0 for none
+     */
+    public EUtilsRequest<SraSearchResult> searchAsync(String queryTerm, int retStart, int retMax, long timeoutMillis) {
+        return submit(() -> search(queryTerm, retStart, retMax), timeoutMillis);
+    }
+    
+    /**
+     * Asynchronous version of {@link #searchCount(String)}
+     */
+    public EUtilsRequest<Integer> searchCountAsync(String queryTerm, long timeoutMillis) {
+        return submitHedged(() -> searchCount(queryTerm), timeoutMillis, endpointName(esearchUrl));
+    }
+    
+    /**
+     * Asynchronous version of {@link #searchHistory(String)}
+     */
+    public EUtilsRequest<SraSearchResult> searchHistoryAsync(String queryTerm, long timeoutMillis) {
+        return submitHedged(() -> searchHistory(queryTerm), timeoutMillis, endpointName(esearchUrl));
+    }
+    
+    /**
+     * Asynchronous version of {@link #searchUids(String, int)}
+     */
+    public EUtilsRequest<List<String>> searchUidsAsync(String queryTerm, int retMax, long timeoutMillis) {
+        return submitHedged(() -> searchUids(queryTerm, retMax), timeoutMillis, endpointName(esearchUrl));
+    }
+    
+    /**
+     * Asynchronous version of {@link #fetchRecords(SraSearchResult, int, int)}
+     */
+    public EUtilsRequest<List<SraRecord>> fetchRecordsAsync(SraSearchResult history, int retStart, int retMax, long timeoutMillis) {
+        return submitHedged(() -> fetchRecords(history, retStart, retMax), timeoutMillis,
+                endpointName(useRunInfo(history.getTotalCount()) ? efetchUrl : esummaryUrl));
+    }
+    
+    /**
+     * Asynchronous version of {@link #fetchRecords(List)}
+     */
+    public EUtilsRequest<List<SraRecord>> fetchRecordsAsync(List<String> uids, long timeoutMillis) {
+        return submitHedged(() -> fetchRecords(uids), timeoutMillis,
+                endpointName(useRunInfo(uids.size()) ? efetchUrl : esummaryUrl));
+    }
+    
+    /**
+     * Asynchronous version of {@link #searchByAccession(String)}
+     */
+    public EUtilsRequest<SraRecord> searchByAccessionAsync(String accession, long timeoutMillis) {
+        return submit(() -> searchByAccession(accession), timeoutMillis);
+    }
+    
+    private <T> EUtilsRequest<T> submit(Call<T> call, long timeoutMillis) {
+        EUtilsRequest<T> request = new EUtilsRequest<>(timeoutMillis);
+        ASYNC_EXECUTOR.execute(() -> request.run(call));
+        if (request.hasDeadline()) {
+            DEADLINE_SCHEDULER.schedule(request::expire, request.remainingMillis(), TimeUnit.MILLISECONDS);
+        }
+        return request;
+    }
+    
+    /**
+     * Submit a call consisting of a single request to the endpoint. If hedging is on and the call is still
+     * running after the endpoint's usual latency, a duplicate is started; the first success wins and the
+     * other is cancelled. The call fails only once every attempt has failed.
+     */
+    private <T> EUtilsRequest<T> submitHedged(Call<T> call, long timeoutMillis, String endpoint) {
+        long hedgeDelay = hedging ? AdaptiveTimeouts.hedgeDelayMillis(endpoint) : 0;
+        if (hedgeDelay == 0) {
+            return submit(call, timeoutMillis);
+        }
+        
+        EUtilsRequest<T> result = new EUtilsRequest<>(timeoutMillis);
+        List<EUtilsRequest<T>> attempts = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger(1);
+        
+        EUtilsRequest<T> original = submit(call, 0);
+        attempts.add(original);
+        original.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(error);
+            }
+        });
+        
+        DEADLINE_SCHEDULER.schedule(() -> {
+            running.incrementAndGet();
+            if (result.isDone()) {
+                return;
+            }
+            EUtilsRequest<T> hedge = submit(call, 0);
+            attempts.add(hedge);
+            hedge.whenComplete((value, error) -> {
+                boolean won = error == null && result.complete(value);
+                SraMetrics.getInstance().recordHedge(endpoint, won);
+                if (error != null && running.decrementAndGet() == 0) {
+                    result.completeExceptionally(error);
+                }
+            });
+        }, hedgeDelay, TimeUnit.MILLISECONDS);
+        
+        // Completion, cancellation and the deadline all stop whichever attempts are still running
+        result.whenComplete((value, error) -> {
+            for (EUtilsRequest<T> attempt : attempts) {
+                attempt.cancel(true);
+            }
+        });
+        if (result.hasDeadline()) {
+            DEADLINE_SCHEDULER.schedule(result::expire, result.remainingMillis(), TimeUnit.MILLISECONDS);
+        }
+        return result;
+    }
+    
+    private static ThreadFactory daemonThreads(String namePrefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
     /**
      * Search by specific accession number
      */
@@ -82,6 +423,12 @@ public class NcbiEUtilsClient {
         SraSearchResult result = search(queryTerm, 0, 1);
         
         if (result.getRecords() != null && !result.getRecords().isEmpty()) {
+            // A run accession resolves to its experiment, which expands into one record per run
+            for (SraRecord record : result.getRecords()) {
+                if (accession.trim().equalsIgnoreCase(record.getRun())) {
+                    return record;
+                }
+            }
             return result.getRecords().get(0);
         }
         
@@ -139,108 +486,301 @@ public class NcbiEUtilsClient {
     /**
      * Optimize search query for better NCBI SRA results
      */
-    private String optimizeSearchQuery(String queryTerm) {
+    static String optimizeSearchQuery(String queryTerm) {
         if (queryTerm == null || queryTerm.trim().isEmpty()) {
             return queryTerm;
         }
         
         String optimized = queryTerm.trim();
         
-        // If query looks like an accession but doesn't have a field tag, add it
-        if (isLikelyAccession(optimized) && !optimized.contains("[")) {
-            optimized = optimized + "[Accession]";
-        }
-        // If query looks like a BioProject but doesn't have a field tag, add it
-        else if (isLikelyBioProject(optimized) && !optimized.contains("[")) {
-            optimized = optimized + "[Bioproject]";
-        }
-        // If query looks like a BioSample but doesn't have a field tag, add it
-        else if (isLikelyBioSample(optimized) && !optimized.contains("[")) {
-            optimized = optimized + "[Biosample]";
+        // If query looks like an accession, BioProject or BioSample but doesn't have a field tag, add it
+        if (!optimized.contains("[")) {
+            SraAccessionType accessionType = SraAccessionType.classify(optimized);
+            if (accessionType != null) {
+                optimized = accessionType.toSearchTerm(optimized);
+            }
         }
         
         return optimized;
     }
     
+    private String buildSearchUrl(String queryTerm, int retStart, int retMax) throws UnsupportedEncodingException {
+        StringBuilder url = new StringBuilder(esearchUrl);
+        url.append("?db=").append(DATABASE);
+        url.append("&term=").append(URLEncoder.encode(queryTerm, "UTF-8"));
+        url.append("&retstart=").append(retStart);
+        url.append("&retmax=").append(retMax);
+        url.append("&usehistory=y");
+        url.append("&retmode=xml");
+        
+        return url.toString();
+    }
+    
     /**
-     * Check if a string looks like an SRA/ENA/DRA accession
+     * Open a connection and check the response code. Sends a form-encoded POST when postData is not null.
+     * The caller is responsible for disconnecting.
      */
-    private boolean isLikelyAccession(String term) {
-        if (term == null || term.length() < 6) {
-            return false;
+    private HttpURLConnection openConnection(String urlString, String postData) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IOException("Operation was interrupted");
+            }
+            
+            rateLimiter.acquire();
+            HttpURLConnection connection;
+            try {
+                connection = sendRequest(urlString, postData, attempt);
+            } catch (ResponseTimeoutException e) {
+                // Requests are idempotent, so one that is slower than this endpoint ever is gets sent again
+                if (attempt >= MAX_RETRIES) {
+                    throw e;
+                }
+                SraMetrics.getInstance().recordRetry(endpointName(urlString));
+                continue;
+            }
+            int responseCode = connection.getResponseCode();
+            if (responseCode == 200) {
+                return connection;
+            }
+            release(connection);
+            
+            boolean retryable = responseCode == 429 || responseCode == 503;
+            if (!retryable || attempt >= MAX_RETRIES) {
+                throw new IOException("HTTP error " + responseCode + " when accessing " + urlString);
+            }
+            SraMetrics.getInstance().recordRetry(endpointName(urlString));
+            
+            try {
+                Thread.sleep(RETRY_BACKOFF_MS << attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry " + urlString);
+            }
         }
-        
-        // Common SRA/ENA/DRA accession patterns
-        return term.matches("^(SRR|ERR|DRR|SRX|ERX|DRX|SRS|ERS|DRS|SRP|ERP|DRP|SRA|ERA|DRA)\\d+$");
     }
     
     /**
-     * Check if a string looks like a BioProject ID
+     * @param attempt number of earlier attempts; each doubles the time allowed for a response
      */
-    private boolean isLikelyBioProject(String term) {
-        if (term == null) {
-            return false;
+    private HttpURLConnection sendRequest(String urlString, String postData, int attempt) throws IOException {
+        URL url = new URL(urlString);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        String endpoint = endpointName(urlString);
+        
+        // Asynchronous requests cap socket timeouts at their deadline and can close the connection on cancel.
+        // The read timeout only bounds stalls; the wait for headers and the body have their own deadlines.
+        EUtilsRequest<?> request = EUtilsRequest.current();
+        int connectTimeout = AdaptiveTimeouts.CONNECT_TIMEOUT_MS;
+        int readTimeout = AdaptiveTimeouts.DEFAULT_TIMEOUT_MS;
+        if (request != null) {
+            connectTimeout = request.timeoutMillis(connectTimeout);
+            readTimeout = request.timeoutMillis(readTimeout);
+        }
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestProperty("User-Agent", userAgent);
+        
+        int responseTimeout = (int) Math.min(AdaptiveTimeouts.DEFAULT_TIMEOUT_MS,
+                (long) AdaptiveTimeouts.responseTimeoutMillis(endpoint) << attempt);
+        long start = System.nanoTime();
+        Watchdog watchdog = new Watchdog(connection, responseTimeout);
+        try {
+            if (request != null) {
+                request.register(connection);
+            }
+            if (postData != null) {
+                byte[] body = postData.getBytes("UTF-8");
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+            } else {
+                connection.setRequestMethod("GET");
+            }
+            
+            // Send the request now so that connection errors are reported before the caller reads
+            if (connection.getResponseCode() == 200) {
+                SraMetrics.getInstance().recordResponse(endpoint, System.nanoTime() - start);
+            }
+            return connection;
+        } catch (IOException e) {
+            release(connection);
+            if (watchdog.hasFired()) {
+                throw new ResponseTimeoutException(String.format("No response from NCBI %s within %d ms", endpoint, responseTimeout));
+            }
+            throw e;
+        } finally {
+            watchdog.close();
         }
+    }
+    
+    private static final class ResponseTimeoutException extends SocketTimeoutException {
+        private static final long serialVersionUID = 1L;
         
-        return term.matches("^PRJ[NED][A-Z]\\d+$");
+        ResponseTimeoutException(String message) {
+            super(message);
+        }
     }
     
     /**
-     * Check if a string looks like a BioSample ID
+     * Disconnects a connection that is taking longer than allowed. Socket timeouts can't be changed once a
+     * connection is open, so this is how the response and body deadlines are enforced.
      */
-    private boolean isLikelyBioSample(String term) {
-        if (term == null) {
-            return false;
+    private static final class Watchdog implements AutoCloseable {
+        
+        private final ScheduledFuture<?> timer;
+        private volatile boolean fired;
+        
+        /**
+         * @param timeoutMillis time allowed, or 0 for no limit
+         */
+        Watchdog(HttpURLConnection connection, long timeoutMillis) {
+            timer = timeoutMillis <= 0 ? null : DEADLINE_SCHEDULER.schedule(() -> {
+                fired = true;
+                connection.disconnect();
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        
+        boolean hasFired() {
+            return fired;
         }
         
-        return term.matches("^SAM[NED][A-Z]?\\d+$");
+        @Override
+        public void close() {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
     }
     
-    private String buildSearchUrl(String queryTerm, int retStart, int retMax) throws UnsupportedEncodingException {
-        StringBuilder url = new StringBuilder(ESEARCH_URL);
-        url.append("?db=").append(DATABASE);
-        url.append("&term=").append(URLEncoder.encode(queryTerm, "UTF-8"));
-        url.append("&retstart=").append(retStart);
-        url.append("&retmax=").append(retMax);
-        url.append("&usehistory=y");
-        url.append("&retmode=xml");
-        
-        return url.toString();
+    /**
+     * Start the size-aware deadline for reading a response body
+     */
+    private static Watchdog bodyDeadline(HttpURLConnection connection) {
+        return new Watchdog(connection, AdaptiveTimeouts.bodyDeadlineMillis(connection.getContentLengthLong()));
     }
     
-    private Document fetchXmlDocument(String urlString) throws IOException {
-        if (Thread.currentThread().isInterrupted()) {
-            throw new IOException("Operation was interrupted");
+    private static SocketTimeoutException bodyTimeout(String urlString, HttpURLConnection connection) {
+        return new SocketTimeoutException(String.format("NCBI %s response of %,d bytes was not received within %d ms",
+                endpointName(urlString), connection.getContentLengthLong(),
+                AdaptiveTimeouts.bodyDeadlineMillis(connection.getContentLengthLong())));
+    }
+    
+    /**
+     * Disconnect and stop tracking a connection opened by {@link #sendRequest}
+     */
+    private void release(HttpURLConnection connection) {
+        connection.disconnect();
+        EUtilsRequest<?> request = EUtilsRequest.current();
+        if (request != null) {
+            request.unregister(connection);
         }
-        
-        URL url = new URL(urlString);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
-        connection.setConnectTimeout(DEFAULT_TIMEOUT);
-        connection.setReadTimeout(DEFAULT_TIMEOUT);
-        connection.setRequestProperty("User-Agent", userAgent);
+    }
+    
+    private Document fetchXmlDocument(String urlString) throws IOException {
+        return fetchXmlDocument(urlString, null);
+    }
+    
+    private Document fetchXmlDocument(String urlString, String postData) throws IOException {
+        EUtilsRequestEvent event = new EUtilsRequestEvent();
+        event.begin();
+        long start = System.nanoTime();
+        CountingInputStream inputStream = null;
+        boolean success = false;
+        HttpURLConnection connection = null;
+        Watchdog deadline = null;
         
         try {
-            int responseCode = connection.getResponseCode();
-            if (responseCode != 200) {
-                throw new IOException("HTTP error " + responseCode + " when accessing " + urlString);
-            }
-            
-            InputStream inputStream = connection.getInputStream();
+            connection = openConnection(urlString, postData);
+            deadline = bodyDeadline(connection);
+            inputStream = new CountingInputStream(connection.getInputStream());
             SAXBuilder builder = new SAXBuilder();
-            return builder.build(inputStream);
+            Document document = builder.build(inputStream);
+            success = true;
+            return document;
             
         } catch (Exception e) {
+            if (deadline != null && deadline.hasFired()) {
+                throw bodyTimeout(urlString, connection);
+            }
             if (e instanceof IOException) {
                 throw (IOException) e;
             }
             throw new IOException("Error parsing XML response: " + e.getMessage(), e);
         } finally {
-            connection.disconnect();
+            if (deadline != null) {
+                deadline.close();
+            }
+            if (connection != null) {
+                release(connection);
+            }
+            long bytes = inputStream != null ? inputStream.getCount() : 0;
+            recordRequest(endpointName(urlString), System.nanoTime() - start, bytes, success);
+            event.end();
+            if (event.shouldCommit()) {
+                event.endpoint = endpointName(urlString);
+                event.uidCount = countUids(postData);
+                event.responseBytes = bytes;
+                event.success = success;
+                event.commit();
+            }
         }
     }
     
-    private SraSearchResult parseSearchResult(Document doc) {
+    /**
+     * Requests abandoned because they were cancelled, such as the slower copy of a hedged request, are not failures
+     */
+    private static void recordRequest(String endpoint, long nanos, long bytes, boolean success) {
+        EUtilsRequest<?> request = EUtilsRequest.current();
+        if (success || request == null || !request.isCancelled()) {
+            SraMetrics.getInstance().recordRequest(endpoint, nanos, bytes, success);
+        }
+    }
+    
+    /**
+     * Number of UIDs in the id parameter of a request body
+     */
+    private static int countUids(String postData) {
+        if (postData == null) {
+            return 0;
+        }
+        int start;
+        if (postData.startsWith("id=")) {
+            start = 3;
+        } else {
+            start = postData.indexOf("&id=");
+            if (start < 0) {
+                return 0;
+            }
+            start += 4;
+        }
+        int count = 1;
+        for (int i = start; i < postData.length() && postData.charAt(i) != '&'; i++) {
+            if (postData.charAt(i) == ',') {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Metrics name for an E-utilities URL, e.g. "esummary" for .../esummary.fcgi
+     */
+    private static String endpointName(String urlString) {
+        int end = urlString.indexOf('?');
+        if (end < 0) {
+            end = urlString.length();
+        }
+        int start = urlString.lastIndexOf('/', end - 1) + 1;
+        String name = urlString.substring(start, end);
+        return name.endsWith(".fcgi") ? name.substring(0, name.length() - 5) : name;
+    }
+    
+    // The parse methods are package-private so that the benchmarks in bench/ can call them directly
+    SraSearchResult parseSearchResult(Document doc) {
         Element root = doc.getRootElement();
         
         SraSearchResult result = new SraSearchResult();
@@ -290,46 +830,176 @@ public class NcbiEUtilsClient {
         return uids;
     }
     
-    private List<SraRecord> fetchDetailedRecords(List<String> uids) throws IOException {
+    private List<SraRecord> fetchDetailedRecords(List<String> uids, SraSearchResult history) throws IOException {
         if (uids.isEmpty()) {
             return new ArrayList<>();
         }
         
-        // Use esummary to get detailed information
-        String summaryUrl = buildSummaryUrl(uids);
-        Document summaryDoc = fetchXmlDocument(summaryUrl);
+        List<SraRecord> records;
+        if (useRunInfo(uids.size())) {
+            // Reuse the esearch history server when available so the UID list doesn't need to be resent
+            boolean hasHistory = history != null && history.getWebEnv() != null && history.getQueryKey() != null;
+            records = fetchRunInfoRecords(hasHistory
+                    ? buildHistoryParams(history, history.getRetStart(), uids.size())
+                    : "&id=" + String.join(",", uids));
+        } else {
+            // Use esummary to get detailed information. POST keeps large UID lists out of the URL.
+            Document summaryDoc = fetchXmlDocument(esummaryUrl, buildSummaryParams(uids));
+            records = parseSummaryRecords(summaryDoc);
+        }
         
-        return parseSummaryRecords(summaryDoc);
+        SraMetadataCache.getInstance().putAll(records);
+        return records;
     }
     
-    private String buildSummaryUrl(List<String> uids) throws UnsupportedEncodingException {
-        StringBuilder url = new StringBuilder(ESUMMARY_URL);
-        url.append("?db=").append(DATABASE);
-        url.append("&id=").append(String.join(",", uids));
-        url.append("&retmode=xml");
+    private boolean useRunInfo(int uidCount) {
+        switch (metadataBackend) {
+            case RUNINFO:
+                return true;
+            case ESUMMARY:
+                return false;
+            default:
+                return uidCount >= RUNINFO_AUTO_THRESHOLD;
+        }
+    }
+    
+    /**
+     * Fetch run-level metadata as efetch runinfo CSV, streaming the response into the parser
+     *
+     * @param selection the id or history server parameters selecting the records, starting with '&'
+     */
+    private List<SraRecord> fetchRunInfoRecords(String selection) throws IOException {
+        StringBuilder params = new StringBuilder();
+        params.append("db=").append(DATABASE);
+        params.append("&rettype=runinfo");
+        params.append("&retmode=text");
+        params.append(selection);
         
-        return url.toString();
+        long start = System.nanoTime();
+        CountingInputStream inputStream = null;
+        boolean success = false;
+        HttpURLConnection connection = null;
+        Watchdog deadline = null;
+        try {
+            connection = openConnection(efetchUrl, params.toString());
+            deadline = bodyDeadline(connection);
+            inputStream = new CountingInputStream(connection.getInputStream());
+            List<SraRecord> records;
+            try (Reader reader = new InputStreamReader(inputStream, "UTF-8")) {
+                records = new RunInfoCsvParser().parse(reader);
+            }
+            success = true;
+            // The CSV is parsed as it streams in, so parse time includes the transfer
+            SraMetrics.getInstance().recordRecordsParsed(records.size(), System.nanoTime() - start);
+            return records;
+        } catch (IOException e) {
+            if (deadline != null && deadline.hasFired()) {
+                throw bodyTimeout(efetchUrl, connection);
+            }
+            throw e;
+        } finally {
+            if (deadline != null) {
+                deadline.close();
+            }
+            if (connection != null) {
+                release(connection);
+            }
+            recordRequest(endpointName(efetchUrl), System.nanoTime() - start,
+                    inputStream != null ? inputStream.getCount() : 0, success);
+        }
     }
     
-    private List<SraRecord> parseSummaryRecords(Document doc) {
-        List<SraRecord> records = new ArrayList<>();
+    private String buildHistoryParams(SraSearchResult history, int retStart, int retMax) throws UnsupportedEncodingException {
+        StringBuilder params = new StringBuilder();
+        params.append("&query_key=").append(URLEncoder.encode(history.getQueryKey(), "UTF-8"));
+        params.append("&WebEnv=").append(URLEncoder.encode(history.getWebEnv(), "UTF-8"));
+        params.append("&retstart=").append(retStart);
+        params.append("&retmax=").append(retMax);
+        
+        return params.toString();
+    }
+    
+    private String buildSummaryParams(List<String> uids) {
+        StringBuilder params = new StringBuilder();
+        params.append("db=").append(DATABASE);
+        params.append("&id=").append(String.join(",", uids));
+        params.append("&retmode=xml");
+        
+        return params.toString();
+    }
+    
+    List<SraRecord> parseSummaryRecords(Document doc) {
         Element root = doc.getRootElement();
         
         @SuppressWarnings("unchecked")
-        List<Element> docSumElements = root.getChildren("DocSum");
+        List<Element> docSumElements = new ArrayList<>(root.getChildren("DocSum"));
         
-        for (Element docSum : docSumElements) {
-            SraRecord record = parseSingleSummaryRecord(docSum);
-            if (record != null) {
-                records.add(record);
-            }
+        SummaryParseEvent event = new SummaryParseEvent();
+        event.begin();
+        long start = System.nanoTime();
+        boolean parallel = docSumElements.size() >= PARALLEL_PARSE_THRESHOLD;
+        List<SraRecord> records;
+        if (parallel) {
+            records = PARSE_POOL.invoke(new SummaryParseTask(docSumElements, 0, docSumElements.size()));
+        } else {
+            records = parseSummaryRange(docSumElements, 0, docSumElements.size());
+        }
+        SraMetrics.getInstance().recordRecordsParsed(records.size(), System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.docSumCount = docSumElements.size();
+            event.recordCount = records.size();
+            event.parallel = parallel;
+            event.commit();
         }
-        
         return records;
     }
     
-    private SraRecord parseSingleSummaryRecord(Element docSum) {
+    private List<SraRecord> parseSummaryRange(List<Element> docSums, int from, int to) {
+        List<SraRecord> records = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            records.addAll(parseSingleSummaryRecord(docSums.get(i)));
+        }
+        return records;
+    }
+    
+    /**
+     * Parses a range of DocSums, splitting it in half until ranges are small enough to parse directly.
+     * Records come back in document order. The parsed document is only read, never modified.
+     */
+    private class SummaryParseTask extends RecursiveTask<List<SraRecord>> {
+        private static final long serialVersionUID = 1L;
+        
+        private final List<Element> docSums;
+        private final int from;
+        private final int to;
+        
+        SummaryParseTask(List<Element> docSums, int from, int to) {
+            this.docSums = docSums;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected List<SraRecord> compute() {
+            if (to - from <= PARSE_CHUNK_SIZE) {
+                return parseSummaryRange(docSums, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            SummaryParseTask second = new SummaryParseTask(docSums, middle, to);
+            second.fork();
+            List<SraRecord> records = new SummaryParseTask(docSums, from, middle).compute();
+            records.addAll(second.join());
+            return records;
+        }
+    }
+    
+    /**
+     * Parse a DocSum into one record per run of the experiment
+     */
+    List<SraRecord> parseSingleSummaryRecord(Element docSum) {
         SraRecord record = new SraRecord();
+        String runsXml = null;
         
         // Parse UID
         Element idElement = docSum.getChild("Id");
@@ -354,9 +1024,9 @@ public class NcbiEUtilsClient {
                 continue;
             }
             
-            // Handle Runs specially - it contains run information
+            // Handle Runs specially - it is expanded into run records once all experiment fields are known
             if ("Runs".equals(name) && content != null) {
-                parseRunsXml(record, content);
+                runsXml = content;
                 continue;
             }
             
@@ -365,23 +1035,15 @@ public class NcbiEUtilsClient {
             switch (name) {
                 case "CreateDate":
                 case "UpdateDate":
-                    try {
-                        // Try different date formats
-                        Date date;
-                        if (content.contains("/")) {
-                            SimpleDateFormat format = new SimpleDateFormat("yyyy/MM/dd");
-                            date = format.parse(content);
-                        } else {
-                            date = dateFormat.parse(content);
-                        }
-                        
-                        if ("CreateDate".equals(name)) {
-                            record.setSubmissionDate(date);
-                        } else {
-                            record.setPublicationDate(date);
-                        }
-                    } catch (ParseException e) {
-                        // Ignore date parsing errors
+                    // Unparseable dates are ignored
+                    Date date = SraValueParser.parseSummaryDate(content);
+                    if (date == null) {
+                        break;
+                    }
+                    if ("CreateDate".equals(name)) {
+                        record.setSubmissionDate(date);
+                    } else {
+                        record.setPublicationDate(date);
                     }
                     break;
                 default:
@@ -391,13 +1053,15 @@ public class NcbiEUtilsClient {
             }
         }
         
-        return record;
+        return SraRunsParser.expandRuns(record, runsXml);
     }
     
     /**
      * Parse the nested XML in ExpXml field
      */
-    private void parseExpXml(SraRecord record, String expXml) {
+    void parseExpXml(SraRecord record, String expXml) {
+        ExpXmlParseEvent event = new ExpXmlParseEvent();
+        event.begin();
         try {
             // The ExpXml contains escaped XML - we need to unescape and parse it
             String unescapedXml = expXml.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&amp;", "&");
@@ -434,20 +1098,14 @@ public class NcbiEUtilsClient {
                     String totalSpots = statsElement.getAttributeValue("total_spots");
                     String totalBases = statsElement.getAttributeValue("total_bases");
                     
-                    if (totalSpots != null) {
-                        try {
-                            record.setTotalSpots(Long.parseLong(totalSpots));
-                        } catch (NumberFormatException e) {
-                            // Ignore
-                        }
+                    long spots = SraValueParser.parseCount(totalSpots, -1);
+                    if (spots >= 0) {
+                        record.setTotalSpots(spots);
                     }
                     
-                    if (totalBases != null) {
-                        try {
-                            record.setTotalBases(Long.parseLong(totalBases));
-                        } catch (NumberFormatException e) {
-                            // Ignore
-                        }
+                    long bases = SraValueParser.parseCount(totalBases, -1);
+                    if (bases >= 0) {
+                        record.setTotalBases(bases);
                     }
                 }
             }
@@ -498,6 +1156,11 @@ public class NcbiEUtilsClient {
                 }
             }
             
+            Element submitterElement = root.getChild("Submitter");
+            if (submitterElement != null) {
+                record.setSubmission(submitterElement.getAttributeValue("acc"));
+            }
+            
             Element sampleElement = root.getChild("Sample");
             if (sampleElement != null) {
                 String sampleAcc = sampleElement.getAttributeValue("acc");
@@ -583,33 +1246,13 @@ public class NcbiEUtilsClient {
             
         } catch (Exception e) {
             // Ignore XML parsing errors for ExpXml - not critical for basic functionality
-        }
-    }
-    
-    /**
-     * Parse the nested XML in Runs field
-     */
-    private void parseRunsXml(SraRecord record, String runsXml) {
-        try {
-            // The Runs contains escaped XML with run information
-            String unescapedXml = runsXml.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"");
-            
-            SAXBuilder builder = new SAXBuilder();
-            Document runsDoc = builder.build(new StringReader(unescapedXml));
-            Element runElement = runsDoc.getRootElement();
-            
-            // Extract run accession
-            String runAcc = runElement.getAttributeValue("acc");
-            if (runAcc != null) {
-                record.setRun(runAcc);
-                // If no accession set yet, use the run accession
-                if (record.getAccession() == null) {
-                    record.setAccession(runAcc);
-                }
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.accession = record.getExperiment();
+                event.xmlLength = expXml.length();
+                event.commit();
             }
-            
-        } catch (Exception e) {
-            // Ignore XML parsing errors for Runs - not critical for basic functionality
         }
     }
     
@@ -618,7 +1261,7 @@ public class NcbiEUtilsClient {
      */
     public boolean isServiceAvailable() {
         try {
-            URL url = new URL(EUTILS_BASE_URL);
+            URL url = new URL(baseUrl);
             HttpURLConnection connection = (HttpURLConnection) url.openConnection();
             connection.setRequestMethod("HEAD");
             connection.setConnectTimeout(5000);
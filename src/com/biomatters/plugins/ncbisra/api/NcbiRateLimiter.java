@@ -0,0 +1,49 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Spaces out E-utilities requests so that all threads together stay under the NCBI request rate limit
+ * (3 requests per second without an API key).
+ */
+public class NcbiRateLimiter {
+
+    private final long intervalNanos;
+    private long nextPermitNanos;
+
+    /**
+     * @param requestsPerSecond maximum request rate; {@link Double#POSITIVE_INFINITY} disables limiting
+     */
+    public NcbiRateLimiter(double requestsPerSecond) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("Request rate must be positive");
+        }
+        this.intervalNanos = (long) (1_000_000_000L / requestsPerSecond);
+        this.nextPermitNanos = System.nanoTime();
+    }
+
+    /**
+     * Block until the next request may be sent
+     */
+    public void acquire() throws InterruptedIOException {
+        if (intervalNanos == 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long permit = Math.max(now, nextPermitNanos);
+            nextPermitNanos = permit + intervalNanos;
+            waitNanos = permit - now;
+        }
+
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for NCBI rate limit");
+            }
+        }
+    }
+}
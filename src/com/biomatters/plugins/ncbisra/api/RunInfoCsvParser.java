@@ -0,0 +1,256 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming parser for the CSV returned by efetch with rettype=runinfo.
+ * Each row describes a single run. Columns are located by name from the header row,
+ * so column order changes on the NCBI side don't break parsing.
+ */
+public class RunInfoCsvParser {
+
+    private static final int NOT_PRESENT = -1;
+
+    private String[] header;
+    private int runColumn = NOT_PRESENT;
+    private int releaseDateColumn = NOT_PRESENT;
+    private int loadDateColumn = NOT_PRESENT;
+    private int spotsColumn = NOT_PRESENT;
+    private int basesColumn = NOT_PRESENT;
+    private int avgLengthColumn = NOT_PRESENT;
+    private int sizeColumn = NOT_PRESENT;
+    private int downloadPathColumn = NOT_PRESENT;
+    private int experimentColumn = NOT_PRESENT;
+    private int strategyColumn = NOT_PRESENT;
+    private int selectionColumn = NOT_PRESENT;
+    private int sourceColumn = NOT_PRESENT;
+    private int layoutColumn = NOT_PRESENT;
+    private int platformColumn = NOT_PRESENT;
+    private int modelColumn = NOT_PRESENT;
+    private int studyColumn = NOT_PRESENT;
+    private int bioProjectColumn = NOT_PRESENT;
+    private int sampleColumn = NOT_PRESENT;
+    private int bioSampleColumn = NOT_PRESENT;
+    private int submissionColumn = NOT_PRESENT;
+    private int taxIdColumn = NOT_PRESENT;
+    private int scientificNameColumn = NOT_PRESENT;
+    private int centerNameColumn = NOT_PRESENT;
+
+    /**
+     * Parse all rows from the reader. The reader is consumed but not closed.
+     */
+    public List<SraRecord> parse(Reader reader) throws IOException {
+        List<SraRecord> records = new ArrayList<>();
+        CsvRowReader rows = new CsvRowReader(reader);
+
+        String[] row;
+        while ((row = rows.readRow()) != null) {
+            if (row.length == 1 && row[0].isEmpty()) {
+                continue; // Blank line
+            }
+            if (header == null) {
+                setHeader(row);
+                continue;
+            }
+            // efetch repeats the header row at the start of every internal batch
+            if (Arrays.equals(row, header)) {
+                continue;
+            }
+
+            SraRecord record = parseRow(row);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+
+        return records;
+    }
+
+    private void setHeader(String[] row) {
+        header = row;
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < row.length; i++) {
+            columns.put(row[i].trim(), i);
+        }
+
+        runColumn = column(columns, "Run");
+        releaseDateColumn = column(columns, "ReleaseDate");
+        loadDateColumn = column(columns, "LoadDate");
+        spotsColumn = column(columns, "spots");
+        basesColumn = column(columns, "bases");
+        avgLengthColumn = column(columns, "avgLength");
+        sizeColumn = column(columns, "size_MB");
+        downloadPathColumn = column(columns, "download_path");
+        experimentColumn = column(columns, "Experiment");
+        strategyColumn = column(columns, "LibraryStrategy");
+        selectionColumn = column(columns, "LibrarySelection");
+        sourceColumn = column(columns, "LibrarySource");
+        layoutColumn = column(columns, "LibraryLayout");
+        platformColumn = column(columns, "Platform");
+        modelColumn = column(columns, "Model");
+        studyColumn = column(columns, "SRAStudy");
+        bioProjectColumn = column(columns, "BioProject");
+        sampleColumn = column(columns, "Sample");
+        bioSampleColumn = column(columns, "BioSample");
+        submissionColumn = column(columns, "Submission");
+        taxIdColumn = column(columns, "TaxID");
+        scientificNameColumn = column(columns, "ScientificName");
+        centerNameColumn = column(columns, "CenterName");
+    }
+
+    private static int column(Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index != null ? index : NOT_PRESENT;
+    }
+
+    private SraRecord parseRow(String[] row) {
+        String run = value(row, runColumn);
+        if (run == null) {
+            return null;
+        }
+
+        SraRecord record = new SraRecord(run);
+        record.setRun(run);
+        record.setExperiment(value(row, experimentColumn));
+        record.setStudy(value(row, studyColumn));
+        record.setSample(value(row, sampleColumn));
+        record.setBioProject(value(row, bioProjectColumn));
+        record.setBioSample(value(row, bioSampleColumn));
+        record.setSubmission(value(row, submissionColumn));
+        record.setOrganism(value(row, scientificNameColumn));
+        record.setCenterName(value(row, centerNameColumn));
+        record.setLibraryStrategy(value(row, strategyColumn));
+        record.setLibrarySource(value(row, sourceColumn));
+        record.setLibrarySelection(value(row, selectionColumn));
+        record.setLibraryLayout(value(row, layoutColumn));
+
+        // Match the "instrument_model (PLATFORM)" format produced from esummary
+        String platform = value(row, platformColumn);
+        String model = value(row, modelColumn);
+        if (platform != null && model != null) {
+            record.setPlatform(model + " (" + platform + ")");
+        } else {
+            record.setPlatform(platform != null ? platform : model);
+        }
+
+        record.setTotalSpots(longValue(row, spotsColumn));
+        record.setTotalBases(longValue(row, basesColumn));
+        record.setSubmissionDate(dateValue(row, loadDateColumn));
+        record.setPublicationDate(dateValue(row, releaseDateColumn));
+
+        addAttribute(record, "avgLength", value(row, avgLengthColumn));
+        addAttribute(record, "size_MB", value(row, sizeColumn));
+        addAttribute(record, "download_path", value(row, downloadPathColumn));
+        addAttribute(record, "TaxID", value(row, taxIdColumn));
+
+        return record;
+    }
+
+    private static void addAttribute(SraRecord record, String name, String value) {
+        if (value != null) {
+            record.addAttribute(name, value);
+        }
+    }
+
+    private static String value(String[] row, int column) {
+        if (column == NOT_PRESENT || column >= row.length) {
+            return null;
+        }
+        String value = row[column];
+        return value.isEmpty() ? null : value;
+    }
+
+    private static long longValue(String[] row, int column) {
+        String value = value(row, column);
+        if (value == null) {
+            return 0;
+        }
+        return SraValueParser.parseCount(value, 0);
+    }
+
+    private static Date dateValue(String[] row, int column) {
+        return SraValueParser.parseRunInfoDate(value(row, column));
+    }
+
+    /**
+     * Minimal RFC 4180 row reader supporting quoted fields with embedded commas, quotes and newlines
+     */
+    static class CsvRowReader {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+        private final StringBuilder field = new StringBuilder();
+
+        CsvRowReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+
+        /**
+         * @return the fields of the next row, or null at end of input
+         */
+        String[] readRow() throws IOException {
+            List<String> fields = new ArrayList<>();
+            field.setLength(0);
+            boolean inQuotes = false;
+            boolean sawAnything = false;
+
+            int c;
+            while ((c = read()) != -1) {
+                sawAnything = true;
+                if (inQuotes) {
+                    if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            inQuotes = false;
+                            if (next == -1) {
+                                break;
+                            }
+                            position--; // Re-process the character after the closing quote
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    inQuotes = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+            }
+
+            if (!sawAnything) {
+                return null;
+            }
+            fields.add(field.toString());
+            return fields.toArray(new String[0]);
+        }
+    }
+}
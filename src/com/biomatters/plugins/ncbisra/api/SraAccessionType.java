@@ -0,0 +1,59 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import java.util.regex.Pattern;
+
+/**
+ * Kinds of accessions accepted by SRA searches, each with a precompiled matcher
+ */
+public enum SraAccessionType {
+    RUN("^[SED]RR\\d+$", "[Accession]"),
+    EXPERIMENT("^[SED]RX\\d+$", "[Accession]"),
+    SAMPLE("^[SED]RS\\d+$", "[Accession]"),
+    STUDY("^[SED]RP\\d+$", "[Accession]"),
+    SUBMISSION("^[SED]RA\\d+$", "[Accession]"),
+    BIOPROJECT("^PRJ[NED][A-Z]\\d+$", "[Bioproject]"),
+    BIOSAMPLE("^SAM[NED][A-Z]?\\d+$", "[Biosample]");
+
+    private final Pattern pattern;
+    private final String fieldTag;
+
+    SraAccessionType(String regex, String fieldTag) {
+        this.pattern = Pattern.compile(regex);
+        this.fieldTag = fieldTag;
+    }
+
+    /**
+     * The Entrez field tag used to search for this kind of accession
+     */
+    public String getFieldTag() {
+        return fieldTag;
+    }
+
+    /**
+     * Return the accession with its Entrez field tag appended
+     */
+    public String toSearchTerm(String accession) {
+        return accession + fieldTag;
+    }
+
+    public boolean matches(String term) {
+        return term != null && pattern.matcher(term).matches();
+    }
+
+    /**
+     * Classify an accession
+     *
+     * @return the accession type, or null if the term is not a recognised accession
+     */
+    public static SraAccessionType classify(String term) {
+        if (term == null || term.length() < 6) {
+            return null;
+        }
+        for (SraAccessionType type : values()) {
+            if (type.matches(term)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,92 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory LRU cache of run records fetched from NCBI, indexed by run and experiment accession.
+ * Every record fetched by {@link NcbiEUtilsClient} is added, so repeated lookups of the same
+ * accessions don't need another round trip.
+ */
+public class SraMetadataCache {
+
+    private static final int DEFAULT_MAX_RUNS = 200000;
+
+    private static final SraMetadataCache INSTANCE = new SraMetadataCache(DEFAULT_MAX_RUNS);
+
+    private final int maxRuns;
+    private final LinkedHashMap<String, SraRecord> runs;
+    private final Map<String, List<SraRecord>> experiments = new LinkedHashMap<>();
+
+    public static SraMetadataCache getInstance() {
+        return INSTANCE;
+    }
+
+    SraMetadataCache(int maxRuns) {
+        this.maxRuns = maxRuns;
+        this.runs = new LinkedHashMap<String, SraRecord>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SraRecord> eldest) {
+                if (size() <= SraMetadataCache.this.maxRuns) {
+                    return false;
+                }
+                // An experiment is only complete while all of its runs are cached
+                String experiment = eldest.getValue().getExperiment();
+                if (experiment != null) {
+                    experiments.remove(experiment);
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Add records for complete experiments. All runs of an experiment are expected to be in the same collection.
+     */
+    public synchronized void putAll(Collection<SraRecord> records) {
+        Map<String, List<SraRecord>> byExperiment = new LinkedHashMap<>();
+        for (SraRecord record : records) {
+            String run = record.getRun();
+            if (run == null) {
+                continue;
+            }
+            runs.put(run, record);
+            if (record.getExperiment() != null) {
+                byExperiment.computeIfAbsent(record.getExperiment(), k -> new ArrayList<>()).add(record);
+            }
+        }
+        experiments.putAll(byExperiment);
+    }
+
+    /**
+     * Look up cached records for an accession. Only run and experiment accessions can be answered from the cache.
+     *
+     * @return the cached run records, or null if the accession must be fetched from NCBI
+     */
+    public synchronized List<SraRecord> get(String accession, SraAccessionType type) {
+        if (type == SraAccessionType.RUN) {
+            SraRecord record = runs.get(accession);
+            return record != null ? Collections.singletonList(record) : null;
+        }
+        if (type == SraAccessionType.EXPERIMENT) {
+            List<SraRecord> records = experiments.get(accession);
+            return records != null ? new ArrayList<>(records) : null;
+        }
+        return null;
+    }
+
+    public synchronized int size() {
+        return runs.size();
+    }
+
+    public synchronized void clear() {
+        runs.clear();
+        experiments.clear();
+    }
+}
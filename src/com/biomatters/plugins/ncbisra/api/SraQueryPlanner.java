@@ -0,0 +1,438 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+import com.biomatters.plugins.ncbisra.model.SraSearchResult;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Splits accession lists and long OR queries into size-bounded sub-queries.
+ * Sub-queries are sent by POST and run concurrently as {@link EUtilsRequest}s; requests are still
+ * throttled by the shared NCBI rate limit in {@link NcbiEUtilsClient}. UIDs from all sub-queries are
+ * deduplicated and their records are delivered as one stream of batches.
+ */
+public class SraQueryPlanner {
+
+    // Sub-query size bounds. Queries within both limits are left alone.
+    static final int MAX_TERMS_PER_QUERY = 100;
+    static final int MAX_QUERY_LENGTH = 2000;
+
+    private static final int SUMMARY_BATCH_SIZE = 500;
+    public static final int MAX_CONCURRENT_REQUESTS = 3;
+    private static final long CANCEL_POLL_MS = 100;
+
+    private static final Pattern LIST_SEPARATOR = Pattern.compile("[\\s,;]+");
+
+    /**
+     * Receives batches of records as they are fetched
+     */
+    public interface RecordBatchHandler {
+        /**
+         * @return false to stop retrieving further records
+         */
+        boolean recordsReceived(List<SraRecord> records);
+
+        /**
+         * Polled while waiting for NCBI; returning true abandons the requests in flight immediately
+         */
+        default boolean isCanceled() {
+            return false;
+        }
+    }
+
+    private final NcbiEUtilsClient client;
+
+    public SraQueryPlanner(NcbiEUtilsClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Plan the sub-queries for a search term. A bare list of accessions is turned into a tagged OR query.
+     * A parenthesised OR list combined with filters, as in {@code (SRR1 OR SRR2 OR ...) AND "Illumina"[Platform]},
+     * is split with the filters repeated in every sub-query.
+     *
+     * @return the sub-queries to run; a single element means the term can be searched as is
+     */
+    public List<String> plan(String queryTerm) {
+        List<String> plan = new ArrayList<>();
+        if (queryTerm == null || queryTerm.trim().isEmpty()) {
+            return plan;
+        }
+
+        String term = queryTerm.trim();
+        List<String> orTerms = parseAccessionList(term);
+        if (orTerms == null) {
+            orTerms = splitTopLevelOr(term);
+        }
+
+        if (orTerms == null) {
+            List<String> filtered = planFilteredList(term);
+            if (filtered != null) {
+                return filtered;
+            }
+        }
+
+        if (orTerms == null || orTerms.isEmpty()) {
+            plan.add(term);
+            return plan;
+        }
+
+        return planTerms(orTerms, MAX_TERMS_PER_QUERY, MAX_QUERY_LENGTH);
+    }
+
+    /**
+     * Split an OR list that is one operand of a query joined by AND and NOT, repeating the rest of the query in
+     * every sub-query. Entrez evaluates operators left to right, so this is only equivalent when the list comes
+     * first or straight after an AND, and there is no other top-level OR.
+     *
+     * @return the sub-queries, or null if the query has no such list or it is small enough to send as is
+     */
+    private List<String> planFilteredList(String term) {
+        List<String> parts = splitTopLevel(term);
+        int listIndex = -1;
+        List<String> orTerms = null;
+        for (int i = 0; i < parts.size(); i += 2) {
+            if (i > 0 && "OR".equals(parts.get(i - 1))) {
+                return null;
+            }
+            String operand = parts.get(i);
+            if (!operand.startsWith("(")) {
+                continue;
+            }
+            String inner = stripOuterParentheses(operand);
+            List<String> terms = parseAccessionList(inner);
+            if (terms == null) {
+                terms = splitTopLevelOr(inner);
+            }
+            if (terms != null && terms.size() > 1 && (orTerms == null || terms.size() > orTerms.size())) {
+                listIndex = i;
+                orTerms = terms;
+            }
+        }
+        if (orTerms == null || (listIndex > 0 && !"AND".equals(parts.get(listIndex - 1)))) {
+            return null;
+        }
+
+        String prefix = String.join(" ", parts.subList(0, listIndex));
+        String suffix = String.join(" ", parts.subList(listIndex + 1, parts.size()));
+        prefix = prefix.isEmpty() ? "(" : prefix + " (";
+        suffix = suffix.isEmpty() ? ")" : ") " + suffix;
+        List<String> chunks = planTerms(orTerms, MAX_TERMS_PER_QUERY,
+                MAX_QUERY_LENGTH - prefix.length() - suffix.length());
+        if (chunks.size() < 2) {
+            return null;
+        }
+        List<String> plan = new ArrayList<>(chunks.size());
+        for (String chunk : chunks) {
+            plan.add(prefix + chunk + suffix);
+        }
+        return plan;
+    }
+
+    /**
+     * Pack OR terms into sub-queries holding at most maxTermsPerQuery terms and maxQueryLength characters
+     */
+    public List<String> planTerms(List<String> orTerms, int maxTermsPerQuery, int maxQueryLength) {
+        List<String> plan = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int termsInCurrent = 0;
+        for (String orTerm : orTerms) {
+            boolean full = termsInCurrent >= maxTermsPerQuery
+                    || (termsInCurrent > 0 && current.length() + orTerm.length() + 4 > maxQueryLength);
+            if (full) {
+                plan.add(current.toString());
+                current.setLength(0);
+                termsInCurrent = 0;
+            }
+            if (termsInCurrent > 0) {
+                current.append(" OR ");
+            }
+            current.append(orTerm);
+            termsInCurrent++;
+        }
+        if (termsInCurrent > 0) {
+            plan.add(current.toString());
+        }
+
+        return plan;
+    }
+
+    /**
+     * Parse a whitespace, comma or semicolon separated list of accessions into field-tagged terms
+     *
+     * @return the tagged terms, or null if the term is not an accession list
+     */
+    static List<String> parseAccessionList(String term) {
+        if (term.indexOf('[') >= 0 || term.indexOf('(') >= 0 || term.indexOf('"') >= 0) {
+            return null;
+        }
+
+        String[] tokens = LIST_SEPARATOR.split(term);
+        if (tokens.length < 2) {
+            return null;
+        }
+
+        Set<String> tagged = new LinkedHashSet<>();
+        for (String token : tokens) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            SraAccessionType accessionType = SraAccessionType.classify(token);
+            if (accessionType == null) {
+                return null; // Not an accession, BioProject or BioSample
+            }
+            tagged.add(accessionType.toSearchTerm(token));
+        }
+        return new ArrayList<>(tagged);
+    }
+
+    /**
+     * Split a query on top-level OR operators. Entrez evaluates boolean operators left to right,
+     * so splitting is only safe when every top-level operator is OR. One pair of parentheses around the
+     * whole query, as an identifier list from the search fields has, is looked through.
+     *
+     * @return the OR terms, or null if the query has a top-level AND or NOT
+     */
+    static List<String> splitTopLevelOr(String term) {
+        List<String> parts = splitTopLevel(stripOuterParentheses(term));
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            if (i % 2 == 0) {
+                terms.add(parts.get(i));
+            } else if (!"OR".equals(parts.get(i))) {
+                return null;
+            }
+        }
+
+        terms.removeIf(String::isEmpty);
+        return terms;
+    }
+
+    /**
+     * Split a query on its top-level boolean operators
+     *
+     * @return the operands, trimmed, alternating with the AND, OR and NOT operators between them
+     */
+    private static List<String> splitTopLevel(String term) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        boolean inQuotes = false;
+        int termStart = 0;
+
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (!inQuotes && c == '(') {
+                depth++;
+            } else if (!inQuotes && c == ')') {
+                depth--;
+            } else if (!inQuotes && depth == 0 && c == ' ') {
+                for (String operator : new String[]{"OR", "AND", "NOT"}) {
+                    if (term.startsWith(" " + operator + " ", i)) {
+                        parts.add(term.substring(termStart, i).trim());
+                        parts.add(operator);
+                        termStart = i + operator.length() + 2;
+                        i += operator.length() + 1;
+                        break;
+                    }
+                }
+            }
+        }
+        parts.add(term.substring(termStart).trim());
+        return parts;
+    }
+
+    /**
+     * The query without one pair of parentheses enclosing all of it, or the query itself if it has none
+     */
+    private static String stripOuterParentheses(String term) {
+        if (!term.startsWith("(") || !term.endsWith(")")) {
+            return term;
+        }
+        int depth = 0;
+        boolean inQuotes = false;
+        for (int i = 0; i < term.length() - 1; i++) {
+            char c = term.charAt(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (!inQuotes && c == '(') {
+                depth++;
+            } else if (!inQuotes && c == ')' && --depth == 0) {
+                return term; // The first parenthesis closes before the end, as in "(a) OR (b)"
+            }
+        }
+        return term.substring(1, term.length() - 1).trim();
+    }
+
+    /**
+     * Run the sub-queries concurrently, deduplicate their UIDs and fetch records in batches.
+     * Batches are handed to the handler on the calling thread as soon as they arrive.
+     *
+     * @param maxRecords maximum number of unique UIDs to fetch records for; each sub-query retrieves up to this
+     *                   many of its matches, paging through esearch if there are more than fit in one response
+     * @return the number of unique UIDs found
+     */
+    public int execute(List<String> subQueries, int maxRecords, RecordBatchHandler handler) throws IOException {
+        BlockingQueue<EUtilsRequest<List<String>>> searches = new LinkedBlockingQueue<>();
+        BlockingQueue<EUtilsRequest<List<SraRecord>>> summaries = new LinkedBlockingQueue<>();
+        List<Future<?>> requests = new ArrayList<>();
+
+        Set<String> seenUids = new LinkedHashSet<>();
+        List<String> pendingUids = new ArrayList<>();
+        int summaryTasks = 0;
+
+        try {
+            for (String subQuery : subQueries) {
+                requests.add(whenDone(client.searchUidsAsync(subQuery, maxRecords, 0), searches));
+            }
+
+            for (int i = 0; i < subQueries.size(); i++) {
+                for (String uid : await(searches, handler)) {
+                    if (seenUids.size() < maxRecords && seenUids.add(uid)) {
+                        pendingUids.add(uid);
+                    }
+                }
+
+                while (pendingUids.size() >= SUMMARY_BATCH_SIZE) {
+                    requests.add(submitSummaries(summaries, pendingUids.subList(0, SUMMARY_BATCH_SIZE)));
+                    summaryTasks++;
+                }
+
+                // Deliver any batches that are already complete while searches are still running
+                EUtilsRequest<List<SraRecord>> done;
+                while ((done = summaries.poll()) != null) {
+                    summaryTasks--;
+                    if (!handler.recordsReceived(get(done, handler))) {
+                        return seenUids.size();
+                    }
+                }
+            }
+
+            if (!pendingUids.isEmpty()) {
+                requests.add(submitSummaries(summaries, pendingUids));
+                summaryTasks++;
+            }
+
+            for (; summaryTasks > 0; summaryTasks--) {
+                if (!handler.recordsReceived(await(summaries, handler))) {
+                    break;
+                }
+            }
+
+            return seenUids.size();
+        } finally {
+            // Closes the connections of any requests still running
+            for (Future<?> request : requests) {
+                request.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Fetch the records of a search stored on the history server page by page, keeping up to
+     * {@code concurrency} pages in flight. Pages are handed to the handler in order on the calling thread.
+     *
+     * @param total number of UIDs to fetch, starting at the first
+     */
+    public void fetchPages(SraSearchResult history, int total, int pageSize, int concurrency,
+                           RecordBatchHandler handler) throws IOException {
+        Deque<EUtilsRequest<List<SraRecord>>> inFlight = new ArrayDeque<>();
+        int nextStart = 0;
+
+        try {
+            while (nextStart < total || !inFlight.isEmpty()) {
+                while (nextStart < total && inFlight.size() < Math.max(1, concurrency)) {
+                    int retMax = Math.min(pageSize, total - nextStart);
+                    inFlight.add(client.fetchRecordsAsync(history, nextStart, retMax, 0));
+                    nextStart += retMax;
+                }
+
+                if (!handler.recordsReceived(get(inFlight.poll(), handler))) {
+                    return;
+                }
+            }
+        } finally {
+            for (Future<?> request : inFlight) {
+                request.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Submit a summary fetch for the given UIDs and remove them from the pending list
+     */
+    private EUtilsRequest<List<SraRecord>> submitSummaries(BlockingQueue<EUtilsRequest<List<SraRecord>>> summaries, List<String> uids) {
+        List<String> batch = new ArrayList<>(uids);
+        uids.clear();
+        return whenDone(client.fetchRecordsAsync(batch, 0), summaries);
+    }
+
+    /**
+     * Add the request to the queue once it has completed, so requests can be consumed in completion order
+     */
+    private static <T> EUtilsRequest<T> whenDone(EUtilsRequest<T> request, BlockingQueue<EUtilsRequest<T>> completed) {
+        request.whenComplete((result, error) -> completed.add(request));
+        return request;
+    }
+
+    private static <T> T await(BlockingQueue<EUtilsRequest<T>> completed, RecordBatchHandler handler) throws IOException {
+        try {
+            EUtilsRequest<T> request;
+            while ((request = completed.poll(CANCEL_POLL_MS, TimeUnit.MILLISECONDS)) == null) {
+                checkCanceled(handler);
+            }
+            return get(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Search was interrupted");
+        }
+    }
+
+    /**
+     * Wait for a request, giving up promptly if the handler reports that the search was cancelled
+     */
+    private static <T> T get(Future<T> future, RecordBatchHandler handler) throws IOException {
+        try {
+            while (true) {
+                try {
+                    return future.get(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    checkCanceled(handler);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Search was interrupted");
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Search was cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Sub-query failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static void checkCanceled(RecordBatchHandler handler) throws InterruptedIOException {
+        if (handler.isCanceled()) {
+            throw new InterruptedIOException("Search was cancelled");
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser for the Runs field of an SRA esummary DocSum.
+ * The field holds one Run element per run of the experiment, e.g.
+ * {@code <Run acc="SRR123" total_spots="1000" total_bases="150000" .../><Run acc="SRR124" .../>}
+ */
+public class SraRunsParser {
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private SraRunsParser() {
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * Expand an experiment-level record into one record per run listed in the Runs field.
+     * Experiment-level fields are shared between the returned records; run accession,
+     * total spots and total bases are taken from each Run element.
+     *
+     * @return one record per run, or a list holding only the experiment record if no runs could be parsed
+     */
+    public static List<SraRecord> expandRuns(SraRecord experimentRecord, String runsXml) {
+        List<SraRecord> runRecords = new ArrayList<>();
+
+        try {
+            List<RunInfo> runs = parseRuns(runsXml);
+            for (RunInfo run : runs) {
+                SraRecord runRecord = runs.size() == 1 ? experimentRecord : experimentRecord.copy();
+                runRecord.setRun(run.accession);
+                runRecord.setAccession(run.accession);
+
+                // Per-run statistics replace the experiment totals whenever NCBI provides them
+                if (run.totalSpots >= 0) {
+                    runRecord.setTotalSpots(run.totalSpots);
+                }
+                if (run.totalBases >= 0) {
+                    runRecord.setTotalBases(run.totalBases);
+                }
+                runRecords.add(runRecord);
+            }
+        } catch (XMLStreamException e) {
+            // Ignore XML parsing errors for Runs - not critical for basic functionality
+        }
+
+        if (runRecords.isEmpty()) {
+            runRecords.add(experimentRecord);
+        }
+        return runRecords;
+    }
+
+    /**
+     * Parse all Run elements from the Runs field
+     */
+    static List<RunInfo> parseRuns(String runsXml) throws XMLStreamException {
+        List<RunInfo> runs = new ArrayList<>();
+        if (runsXml == null || runsXml.isEmpty()) {
+            return runs;
+        }
+
+        // The Runs field may arrive double-escaped; the fragment also has multiple root elements
+        String fragment = runsXml.indexOf('<') < 0
+                ? runsXml.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&amp;", "&")
+                : runsXml;
+
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new StringReader("<Runs>" + fragment + "</Runs>"));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "Run".equals(reader.getLocalName())) {
+                    String accession = reader.getAttributeValue(null, "acc");
+                    if (accession != null && !accession.isEmpty()) {
+                        runs.add(new RunInfo(accession,
+                                parseCount(reader.getAttributeValue(null, "total_spots")),
+                                parseCount(reader.getAttributeValue(null, "total_bases"))));
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return runs;
+    }
+
+    private static long parseCount(String value) {
+        return SraValueParser.parseCount(value, -1);
+    }
+
+    /**
+     * Run-level attributes from a single Run element
+     */
+    static class RunInfo {
+        final String accession;
+        final long totalSpots;
+        final long totalBases;
+
+        RunInfo(String accession, long totalSpots, long totalBases) {
+            this.accession = accession;
+            this.totalSpots = totalSpots;
+            this.totalBases = totalBases;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.biomatters.plugins.ncbisra.api;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * Stateless parsers for the numbers and dates in NCBI responses. Everything here is safe to call
+ * from any number of threads at once. The common fixed-width forms are parsed directly from the
+ * characters without allocating; anything else falls back to immutable {@link DateTimeFormatter}s.
+ */
+final class SraValueParser {
+
+    // esummary CreateDate/UpdateDate, e.g. "2020/01/31" or "2020/1/31 12:00"
+    private static final DateTimeFormatter SUMMARY_DATE = DateTimeFormatter.ofPattern("yyyy/M/d");
+    // runinfo ReleaseDate/LoadDate, e.g. "2020-01-31 12:00:00"
+    private static final DateTimeFormatter RUNINFO_DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter ISO_DATE = DateTimeFormatter.ISO_LOCAL_DATE;
+
+    private SraValueParser() {
+    }
+
+    /**
+     * Parse a non-negative decimal count
+     *
+     * @return the value, or defaultValue if the text is empty, not a number or overflows
+     */
+    static long parseCount(CharSequence text, long defaultValue) {
+        if (text == null) {
+            return defaultValue;
+        }
+        int length = text.length();
+        if (length == 0 || length > 18) {
+            // 18 digits always fit in a long; longer counts don't occur in SRA
+            return defaultValue;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return defaultValue;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parse the date part of an esummary date. Any time of day is ignored.
+     *
+     * @return the start of that day in the local time zone, or null if the text is not a date
+     */
+    static Date parseSummaryDate(String text) {
+        if (text == null) {
+            return null;
+        }
+        LocalDate date = fixedWidthDate(text, '/');
+        if (date == null) {
+            int space = text.indexOf(' ');
+            date = parseDate(space >= 0 ? text.substring(0, space) : text, SUMMARY_DATE);
+        }
+        return date != null ? toDate(date.atStartOfDay()) : null;
+    }
+
+    /**
+     * Parse a runinfo date, with or without a time of day
+     *
+     * @return the date in the local time zone, or null if the text is not a date
+     */
+    static Date parseRunInfoDate(String text) {
+        if (text == null) {
+            return null;
+        }
+        LocalDate date = fixedWidthDate(text, '-');
+        if (date != null) {
+            if (text.length() == 10) {
+                return toDate(date.atStartOfDay());
+            }
+            if (text.length() == 19 && text.charAt(10) == ' ') {
+                int hour = digits(text, 11, 13);
+                int minute = digits(text, 14, 16);
+                int second = digits(text, 17, 19);
+                if (hour >= 0 && minute >= 0 && second >= 0 && hour < 24 && minute < 60 && second < 60) {
+                    return toDate(date.atTime(hour, minute, second));
+                }
+            }
+        }
+        try {
+            return toDate(LocalDateTime.parse(text, RUNINFO_DATE_TIME));
+        } catch (DateTimeParseException e) {
+            LocalDate dateOnly = parseDate(text, ISO_DATE);
+            return dateOnly != null ? toDate(dateOnly.atStartOfDay()) : null;
+        }
+    }
+
+    /**
+     * Read a leading yyyy?MM?dd date with the given separator
+     */
+    private static LocalDate fixedWidthDate(String text, char separator) {
+        if (text.length() < 10 || text.charAt(4) != separator || text.charAt(7) != separator) {
+            return null;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 7);
+        int day = digits(text, 8, 10);
+        if (year < 0 || month < 0 || day < 0) {
+            return null;
+        }
+        try {
+            return LocalDate.of(year, month, day);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static int digits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static LocalDate parseDate(String text, DateTimeFormatter formatter) {
+        try {
+            return LocalDate.parse(text, formatter);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static Date toDate(LocalDateTime dateTime) {
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
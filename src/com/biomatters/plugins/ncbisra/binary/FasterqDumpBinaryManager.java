@@ -19,6 +19,12 @@ public class FasterqDumpBinaryManager {
     private static final String RESOURCE_PATH_WINDOWS = "/resources/binaries/windows/";
     private static final String RESOURCE_PATH_LINUX = "/resources/binaries/linux/";
     
+    /**
+     * System property naming an executable to run instead of the bundled binary, such as a locally
+     * installed SRA Toolkit or the synthetic stub used by the download benchmarks
+     */
+    public static final String BINARY_PROPERTY = "ncbi.sra.fasterqdump";
+    
     private static FasterqDumpBinaryManager instance;
     private File extractedBinary;
     
@@ -36,6 +42,15 @@ public class FasterqDumpBinaryManager {
      * Get the platform-appropriate fasterq-dump binary, extracting it if necessary
      */
     public File getBinary() throws IOException {
+        String override = System.getProperty(BINARY_PROPERTY);
+        if (override != null && !override.trim().isEmpty()) {
+            File binary = new File(override.trim());
+            if (!binary.isFile()) {
+                throw new IOException("fasterq-dump binary set by " + BINARY_PROPERTY + " does not exist: " + binary.getAbsolutePath());
+            }
+            return binary;
+        }
+        
         if (extractedBinary != null && extractedBinary.exists()) {
             return extractedBinary;
         }
@@ -0,0 +1,54 @@
+package com.biomatters.plugins.ncbisra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An E-utilities request, from sending it to finishing reading the response
+ */
+public class EUtilsRequestEvent extends SraEvent {
+
+    public String endpoint;
+    public int uidCount;
+    public long responseBytes;
+    public boolean success;
+
+    @Override
+    SraEvent.Recorded create() {
+        return new Recorded();
+    }
+
+    @Override
+    void copyTo(SraEvent.Recorded recorded) {
+        Recorded event = (Recorded) recorded;
+        event.endpoint = endpoint;
+        event.uidCount = uidCount;
+        event.responseBytes = responseBytes;
+        event.success = success;
+    }
+
+    @Name("com.biomatters.plugins.ncbisra.EUtilsRequest")
+    @Label("E-utilities Request")
+    @Category({"NCBI SRA Plugin", "Network"})
+    @Description("HTTP request to NCBI E-utilities, including retries and reading the response")
+    static class Recorded extends Event implements SraEvent.Recorded {
+
+        @Label("Endpoint")
+        String endpoint;
+
+        @Label("UID Count")
+        @Description("Number of UIDs sent with the request, if any")
+        int uidCount;
+
+        @Label("Response Size")
+        @DataAmount
+        long responseBytes;
+
+        @Label("Success")
+        boolean success;
+    }
+}
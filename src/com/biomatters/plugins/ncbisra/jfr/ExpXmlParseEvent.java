@@ -0,0 +1,43 @@
+package com.biomatters.plugins.ncbisra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Parsing of the nested ExpXml of a single DocSum
+ */
+public class ExpXmlParseEvent extends SraEvent {
+
+    public String accession;
+    public int xmlLength;
+
+    @Override
+    SraEvent.Recorded create() {
+        return new Recorded();
+    }
+
+    @Override
+    void copyTo(SraEvent.Recorded recorded) {
+        Recorded event = (Recorded) recorded;
+        event.accession = accession;
+        event.xmlLength = xmlLength;
+    }
+
+    @Name("com.biomatters.plugins.ncbisra.ExpXmlParse")
+    @Label("ExpXml Parse")
+    @Category({"NCBI SRA Plugin", "Parsing"})
+    @Description("Parsing of the escaped experiment XML embedded in an esummary DocSum")
+    static class Recorded extends Event implements SraEvent.Recorded {
+
+        @Label("Experiment")
+        String accession;
+
+        @Label("ExpXml Size")
+        @DataAmount(DataAmount.BYTES)
+        int xmlLength;
+    }
+}
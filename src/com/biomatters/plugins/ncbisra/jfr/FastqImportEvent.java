@@ -0,0 +1,51 @@
+package com.biomatters.plugins.ncbisra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Import of downloaded FASTQ files into Geneious sequence lists
+ */
+public class FastqImportEvent extends SraEvent {
+
+    public String accession;
+    public boolean paired;
+    public long readsImported;
+    public int documentCount;
+
+    @Override
+    SraEvent.Recorded create() {
+        return new Recorded();
+    }
+
+    @Override
+    void copyTo(SraEvent.Recorded recorded) {
+        Recorded event = (Recorded) recorded;
+        event.accession = accession;
+        event.paired = paired;
+        event.readsImported = readsImported;
+        event.documentCount = documentCount;
+    }
+
+    @Name("com.biomatters.plugins.ncbisra.FastqImport")
+    @Label("FASTQ Import")
+    @Category({"NCBI SRA Plugin", "Download"})
+    @Description("Import of downloaded FASTQ files as Geneious sequence lists")
+    static class Recorded extends Event implements SraEvent.Recorded {
+
+        @Label("Accession")
+        String accession;
+
+        @Label("Paired")
+        boolean paired;
+
+        @Label("Reads Imported")
+        long readsImported;
+
+        @Label("Documents Created")
+        int documentCount;
+    }
+}
@@ -0,0 +1,77 @@
+package com.biomatters.plugins.ncbisra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A fasterq-dump run, or ENA FASTQ download, for one accession
+ */
+public class SraDownloadEvent extends SraEvent {
+
+    public String accession;
+    public String source = "fasterq-dump";
+    public int exitCode = -1;
+    public int fileCount;
+    public long fastqBytes;
+    public long outputLines;
+    public int warnings;
+    public String failure;
+
+    @Override
+    SraEvent.Recorded create() {
+        return new Recorded();
+    }
+
+    @Override
+    void copyTo(SraEvent.Recorded recorded) {
+        Recorded event = (Recorded) recorded;
+        event.accession = accession;
+        event.source = source;
+        event.exitCode = exitCode;
+        event.fileCount = fileCount;
+        event.fastqBytes = fastqBytes;
+        event.outputLines = outputLines;
+        event.warnings = warnings;
+        event.failure = failure;
+    }
+
+    @Name("com.biomatters.plugins.ncbisra.SraDownload")
+    @Label("SRA Download")
+    @Category({"NCBI SRA Plugin", "Download"})
+    @Description("Download of an SRA run as FASTQ, converted with fasterq-dump or fetched from the ENA mirror")
+    static class Recorded extends Event implements SraEvent.Recorded {
+
+        @Label("Accession")
+        String accession;
+
+        @Label("Source")
+        @Description("fasterq-dump, or ENA when the gzipped FASTQ came from the ENA mirror")
+        String source;
+
+        @Label("Exit Code")
+        @Description("fasterq-dump exit code, or -1 if the process did not finish")
+        int exitCode;
+
+        @Label("FASTQ Files")
+        int fileCount;
+
+        @Label("FASTQ Size")
+        @DataAmount
+        long fastqBytes;
+
+        @Label("Output Lines")
+        @Description("Lines of output fasterq-dump wrote")
+        long outputLines;
+
+        @Label("Warnings")
+        int warnings;
+
+        @Label("Failure")
+        @Description("Cause of the failure as classified from fasterq-dump's error lines, if it failed")
+        String failure;
+    }
+}
@@ -0,0 +1,69 @@
+package com.biomatters.plugins.ncbisra.jfr;
+
+/**
+ * Base of the plugin's JDK Flight Recorder events. Java 8 runtimes before 8u262 have no {@code jdk.jfr}, so the
+ * events used by the plugin don't extend {@code jdk.jfr.Event} themselves: each one creates its recorded event,
+ * a nested class, only once JFR is known to be available, and otherwise does nothing.
+ */
+public abstract class SraEvent {
+
+    private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+    private Recorded recorded;
+
+    public void begin() {
+        if (JFR_AVAILABLE) {
+            recorded = create();
+            recorded.begin();
+        }
+    }
+
+    public void end() {
+        if (recorded != null) {
+            recorded.end();
+        }
+    }
+
+    public boolean shouldCommit() {
+        return recorded != null && recorded.shouldCommit();
+    }
+
+    public void commit() {
+        if (recorded != null) {
+            copyTo(recorded);
+            recorded.commit();
+        }
+    }
+
+    /**
+     * @return a new instance of the event's {@code jdk.jfr.Event} class
+     */
+    abstract Recorded create();
+
+    /**
+     * Copy the event's fields to the recorded event before it is committed
+     */
+    abstract void copyTo(Recorded recorded);
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * The methods of {@code jdk.jfr.Event} the plugin uses, which each recorded event class inherits
+     */
+    interface Recorded {
+        void begin();
+
+        void end();
+
+        boolean shouldCommit();
+
+        void commit();
+    }
+}
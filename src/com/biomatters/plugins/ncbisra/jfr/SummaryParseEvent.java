@@ -0,0 +1,47 @@
+package com.biomatters.plugins.ncbisra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Parsing of an esummary response into run records
+ */
+public class SummaryParseEvent extends SraEvent {
+
+    public int docSumCount;
+    public int recordCount;
+    public boolean parallel;
+
+    @Override
+    SraEvent.Recorded create() {
+        return new Recorded();
+    }
+
+    @Override
+    void copyTo(SraEvent.Recorded recorded) {
+        Recorded event = (Recorded) recorded;
+        event.docSumCount = docSumCount;
+        event.recordCount = recordCount;
+        event.parallel = parallel;
+    }
+
+    @Name("com.biomatters.plugins.ncbisra.SummaryParse")
+    @Label("esummary Parse")
+    @Category({"NCBI SRA Plugin", "Parsing"})
+    @Description("Conversion of esummary DocSums into run records")
+    static class Recorded extends Event implements SraEvent.Recorded {
+
+        @Label("DocSum Count")
+        int docSumCount;
+
+        @Label("Record Count")
+        @Description("Run records produced after expanding multi-run experiments")
+        int recordCount;
+
+        @Label("Parallel")
+        boolean parallel;
+    }
+}
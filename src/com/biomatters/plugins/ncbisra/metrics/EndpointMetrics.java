@@ -0,0 +1,145 @@
+package com.biomatters.plugins.ncbisra.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, size and retry counts for requests to one endpoint
+ */
+public class EndpointMetrics implements EndpointMetricsMXBean {
+
+    private final String endpoint;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram responseLatency = new LatencyHistogram();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    EndpointMetrics(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    void recordRequest(long nanos, long bytes, boolean success) {
+        latency.record(nanos);
+        bytesReceived.add(bytes);
+        if (!success) {
+            failures.increment();
+        }
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    /**
+     * Time from sending a request until the response headers arrived
+     */
+    void recordResponse(long nanos) {
+        responseLatency.record(nanos);
+    }
+
+    /**
+     * @param won whether the duplicate request finished before the original
+     */
+    void recordHedge(boolean won) {
+        hedges.increment();
+        if (won) {
+            hedgeWins.increment();
+        }
+    }
+
+    /**
+     * Exposed so that callers can base timeouts on observed latency
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Time to the response headers, which unlike {@link #getLatency()} doesn't depend on the response size
+     */
+    public LatencyHistogram getResponseLatency() {
+        return responseLatency;
+    }
+
+    void reset() {
+        latency.reset();
+        responseLatency.reset();
+        failures.reset();
+        retries.reset();
+        bytesReceived.reset();
+        hedges.reset();
+        hedgeWins.reset();
+    }
+
+    @Override
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public long getRequests() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public double getMeanLatencyMillis() {
+        return latency.getMeanMillis();
+    }
+
+    @Override
+    public double getP50LatencyMillis() {
+        return latency.getPercentileMillis(0.50);
+    }
+
+    @Override
+    public double getP95LatencyMillis() {
+        return latency.getPercentileMillis(0.95);
+    }
+
+    @Override
+    public double getP99LatencyMillis() {
+        return latency.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getMaxLatencyMillis() {
+        return latency.getMaxMillis();
+    }
+
+    @Override
+    public double getP95ResponseMillis() {
+        return responseLatency.getPercentileMillis(0.95);
+    }
+
+    @Override
+    public double getP99ResponseMillis() {
+        return responseLatency.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long getHedgedRequests() {
+        return hedges.sum();
+    }
+
+    @Override
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+}
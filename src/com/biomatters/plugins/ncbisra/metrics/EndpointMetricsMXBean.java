@@ -0,0 +1,44 @@
+package com.biomatters.plugins.ncbisra.metrics;
+
+/**
+ * Request metrics for a single E-utilities endpoint such as esearch or esummary
+ */
+public interface EndpointMetricsMXBean {
+
+    String getEndpoint();
+
+    long getRequests();
+
+    long getFailures();
+
+    long getRetries();
+
+    long getBytesReceived();
+
+    double getMeanLatencyMillis();
+
+    double getP50LatencyMillis();
+
+    double getP95LatencyMillis();
+
+    double getP99LatencyMillis();
+
+    double getMaxLatencyMillis();
+
+    /**
+     * 95th percentile time to the response headers, which the adaptive timeouts and hedging are based on
+     */
+    double getP95ResponseMillis();
+
+    double getP99ResponseMillis();
+
+    /**
+     * Requests duplicated because the original was slower than usual
+     */
+    long getHedgedRequests();
+
+    /**
+     * Hedged requests where the duplicate finished first
+     */
+    long getHedgeWins();
+}
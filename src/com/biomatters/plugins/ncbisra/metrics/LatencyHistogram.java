@@ -0,0 +1,85 @@
+package com.biomatters.plugins.ncbisra.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two microsecond buckets. Percentiles are interpolated
+ * linearly within the bucket they fall in, so they are approximate but never off by more than a factor of two.
+ */
+public class LatencyHistogram {
+
+    // Bucket i holds samples below 2^i microseconds; the last bucket holds everything longer
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private volatile long maxNanos;
+
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+        if (nanos > maxNanos) {
+            synchronized (this) {
+                if (nanos > maxNanos) {
+                    maxNanos = nanos;
+                }
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMillis() {
+        long samples = count.sum();
+        return samples == 0 ? 0 : totalNanos.sum() / 1e6 / samples;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return the latency below which that fraction of samples fall, or 0 if nothing has been recorded
+     */
+    public double getPercentileMillis(double quantile) {
+        long samples = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            samples += counts[i];
+        }
+        if (samples == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * samples));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (seen + counts[i] >= rank) {
+                double lowerMicros = i == 0 ? 0 : 1L << (i - 1);
+                double upperMicros = 1L << i;
+                double fraction = (double) (rank - seen) / counts[i];
+                return Math.min((lowerMicros + fraction * (upperMicros - lowerMicros)) / 1000.0, getMaxMillis());
+            }
+            seen += counts[i];
+        }
+        return getMaxMillis();
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos = 0;
+    }
+}
@@ -0,0 +1,208 @@
+package com.biomatters.plugins.ncbisra.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, timers and histograms for the search and download hot paths, published over JMX under
+ * {@code com.biomatters.plugins.ncbisra:type=Metrics} and {@code com.biomatters.plugins.ncbisra:type=Endpoint,name=<endpoint>}.
+ * Recording is cheap enough to leave on permanently.
+ */
+public final class SraMetrics implements SraMetricsMXBean {
+
+    private static final String DOMAIN = "com.biomatters.plugins.ncbisra";
+
+    private static final SraMetrics INSTANCE = new SraMetrics();
+
+    private final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    private final Throughput recordsParsed = new Throughput();
+    private final Throughput documentsCreated = new Throughput();
+    private final LatencyHistogram processSpawn = new LatencyHistogram();
+    private final Throughput spotsDownloaded = new Throughput();
+    private final LongAdder downloadFailures = new LongAdder();
+    private final Throughput readsImported = new Throughput();
+    private final AtomicInteger inFlightJobs = new AtomicInteger();
+    private final MBeanServer mbeanServer;
+
+    private SraMetrics() {
+        mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        register(this, DOMAIN + ":type=Metrics");
+    }
+
+    public static SraMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Metrics for an endpoint, registering its MBean the first time it is seen
+     */
+    public EndpointMetrics endpoint(String name) {
+        EndpointMetrics metrics = endpoints.get(name);
+        if (metrics == null) {
+            EndpointMetrics created = new EndpointMetrics(name);
+            metrics = endpoints.putIfAbsent(name, created);
+            if (metrics == null) {
+                metrics = created;
+                register(created, DOMAIN + ":type=Endpoint,name=" + name);
+            }
+        }
+        return metrics;
+    }
+
+    public void recordRequest(String endpoint, long nanos, long bytes, boolean success) {
+        endpoint(endpoint).recordRequest(nanos, bytes, success);
+    }
+
+    public void recordRetry(String endpoint) {
+        endpoint(endpoint).recordRetry();
+    }
+
+    public void recordResponse(String endpoint, long nanos) {
+        endpoint(endpoint).recordResponse(nanos);
+    }
+
+    public void recordHedge(String endpoint, boolean won) {
+        endpoint(endpoint).recordHedge(won);
+    }
+
+    public void recordRecordsParsed(int count, long nanos) {
+        recordsParsed.record(count, nanos);
+    }
+
+    public void recordDocumentsCreated(int count, long nanos) {
+        documentsCreated.record(count, nanos);
+    }
+
+    public void recordProcessSpawn(long nanos) {
+        processSpawn.record(nanos);
+    }
+
+    /**
+     * @param spots spots downloaded, or 0 if unknown
+     */
+    public void recordDownload(long spots, long nanos, boolean success) {
+        if (success) {
+            spotsDownloaded.record(spots, nanos);
+        } else {
+            downloadFailures.increment();
+        }
+    }
+
+    public void recordImport(long reads, long nanos) {
+        readsImported.record(reads, nanos);
+    }
+
+    public void jobStarted() {
+        inFlightJobs.incrementAndGet();
+    }
+
+    public void jobFinished() {
+        inFlightJobs.decrementAndGet();
+    }
+
+    private void register(Object mbean, String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            if (!mbeanServer.isRegistered(objectName)) {
+                mbeanServer.registerMBean(mbean, objectName);
+            }
+        } catch (JMException | SecurityException e) {
+            // Metrics are still recorded, just not visible over JMX
+            System.err.println("Could not register metrics MBean " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public long getRecordsParsed() {
+        return recordsParsed.getTotal();
+    }
+
+    @Override
+    public double getRecordsParsedPerSecond() {
+        return recordsParsed.getPerSecond();
+    }
+
+    @Override
+    public long getDocumentsCreated() {
+        return documentsCreated.getTotal();
+    }
+
+    @Override
+    public double getDocumentsCreatedPerSecond() {
+        return documentsCreated.getPerSecond();
+    }
+
+    @Override
+    public long getDownloads() {
+        return processSpawn.getCount();
+    }
+
+    @Override
+    public long getDownloadFailures() {
+        return downloadFailures.sum();
+    }
+
+    @Override
+    public double getMeanProcessSpawnMillis() {
+        return processSpawn.getMeanMillis();
+    }
+
+    @Override
+    public double getMaxProcessSpawnMillis() {
+        return processSpawn.getMaxMillis();
+    }
+
+    @Override
+    public long getSpotsDownloaded() {
+        return spotsDownloaded.getTotal();
+    }
+
+    @Override
+    public double getSpotsPerSecond() {
+        return spotsDownloaded.getPerSecond();
+    }
+
+    @Override
+    public double getLastDownloadSpotsPerSecond() {
+        return spotsDownloaded.getLastPerSecond();
+    }
+
+    @Override
+    public long getReadsImported() {
+        return readsImported.getTotal();
+    }
+
+    @Override
+    public double getImportReadsPerSecond() {
+        return readsImported.getPerSecond();
+    }
+
+    @Override
+    public double getLastImportReadsPerSecond() {
+        return readsImported.getLastPerSecond();
+    }
+
+    @Override
+    public int getInFlightJobs() {
+        return inFlightJobs.get();
+    }
+
+    @Override
+    public void reset() {
+        for (EndpointMetrics metrics : endpoints.values()) {
+            metrics.reset();
+        }
+        recordsParsed.reset();
+        documentsCreated.reset();
+        processSpawn.reset();
+        spotsDownloaded.reset();
+        downloadFailures.reset();
+        readsImported.reset();
+    }
+}
@@ -0,0 +1,43 @@
+package com.biomatters.plugins.ncbisra.metrics;
+
+/**
+ * Plugin-wide metrics for parsing, document creation, downloads and imports.
+ * Per-endpoint request metrics are published separately as {@link EndpointMetricsMXBean}s.
+ */
+public interface SraMetricsMXBean {
+
+    long getRecordsParsed();
+
+    double getRecordsParsedPerSecond();
+
+    long getDocumentsCreated();
+
+    double getDocumentsCreatedPerSecond();
+
+    long getDownloads();
+
+    long getDownloadFailures();
+
+    double getMeanProcessSpawnMillis();
+
+    double getMaxProcessSpawnMillis();
+
+    long getSpotsDownloaded();
+
+    double getSpotsPerSecond();
+
+    double getLastDownloadSpotsPerSecond();
+
+    long getReadsImported();
+
+    double getImportReadsPerSecond();
+
+    double getLastImportReadsPerSecond();
+
+    int getInFlightJobs();
+
+    /**
+     * Clear all counters and histograms, including the per-endpoint ones
+     */
+    void reset();
+}
@@ -0,0 +1,46 @@
+package com.biomatters.plugins.ncbisra.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts items processed and the time spent processing them, giving a rate per second of busy time
+ */
+public class Throughput {
+
+    private final LongAdder items = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private volatile double lastPerSecond;
+
+    public void record(long itemCount, long elapsedNanos) {
+        items.add(itemCount);
+        nanos.add(elapsedNanos);
+        if (elapsedNanos > 0) {
+            lastPerSecond = itemCount * 1e9 / elapsedNanos;
+        }
+    }
+
+    public long getTotal() {
+        return items.sum();
+    }
+
+    /**
+     * Items per second over everything recorded so far
+     */
+    public double getPerSecond() {
+        long elapsed = nanos.sum();
+        return elapsed == 0 ? 0 : items.sum() * 1e9 / elapsed;
+    }
+
+    /**
+     * Items per second for the most recent recording
+     */
+    public double getLastPerSecond() {
+        return lastPerSecond;
+    }
+
+    public void reset() {
+        items.reset();
+        nanos.reset();
+        lastPerSecond = 0;
+    }
+}
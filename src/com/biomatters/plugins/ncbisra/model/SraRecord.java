@@ -27,6 +27,7 @@ public class SraRecord {
     private String centerName;
     private String bioProject;
     private String bioSample;
+    private String submission;
     private Map<String, String> attributes;
     
     public SraRecord() {
@@ -191,6 +192,14 @@ public class SraRecord {
         this.bioSample = bioSample;
     }
     
+    public String getSubmission() {
+        return submission;
+    }
+    
+    public void setSubmission(String submission) {
+        this.submission = submission;
+    }
+    
     public Map<String, String> getAttributes() {
         return attributes;
     }
@@ -207,6 +216,35 @@ public class SraRecord {
         return this.attributes.get(key);
     }
     
+    /**
+     * Create a copy of this record. Field values are shared; the attribute map is copied
+     * so that run-level attributes can be added without affecting the original.
+     */
+    public SraRecord copy() {
+        SraRecord copy = new SraRecord(accession);
+        copy.title = title;
+        copy.organism = organism;
+        copy.study = study;
+        copy.sample = sample;
+        copy.experiment = experiment;
+        copy.run = run;
+        copy.platform = platform;
+        copy.libraryStrategy = libraryStrategy;
+        copy.librarySource = librarySource;
+        copy.librarySelection = librarySelection;
+        copy.libraryLayout = libraryLayout;
+        copy.submissionDate = submissionDate;
+        copy.publicationDate = publicationDate;
+        copy.totalSpots = totalSpots;
+        copy.totalBases = totalBases;
+        copy.centerName = centerName;
+        copy.bioProject = bioProject;
+        copy.bioSample = bioSample;
+        copy.submission = submission;
+        copy.attributes.putAll(attributes);
+        return copy;
+    }
+    
     /**
      * Check if this record represents paired-end data
      */
@@ -0,0 +1,135 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides the order in which a batch of runs is downloaded, from each run's estimated size. Downloading the
+ * smallest runs first means most of a mixed batch is usable long before one huge run has finished; packing to a
+ * disk budget downloads as many runs as will fit rather than stopping at the first that doesn't.
+ * <p>
+ * Runs whose FASTQ files were already downloaded by an earlier attempt always come first, since they only need
+ * importing. Runs of unknown size keep their selection order after every run whose size is known.
+ */
+final class BatchScheduler {
+
+    enum Order {
+        AS_SELECTED,
+        SHORTEST_FIRST,
+        LARGEST_FIRST,
+        // Shortest first, leaving out runs that would take the batch over its disk budget
+        FIT_TO_DISK_BUDGET
+    }
+
+    private final List<String> scheduled = new ArrayList<>();
+    private final Map<String, String> skipped = new LinkedHashMap<>();
+
+    /**
+     * @param accessions the batch's runs and their metadata (null where not yet known), in selection order
+     * @param ready runs already downloaded, which go first
+     * @param diskBudget bytes the batch may use, for {@link Order#FIT_TO_DISK_BUDGET}
+     * @param keepsFastq whether FASTQ files are kept until the end of the batch rather than deleted as each run
+     *                   is saved, so count against the budget as well
+     */
+    BatchScheduler(Map<String, SraRecord> accessions, Collection<String> ready, Order order, long diskBudget, boolean keepsFastq) {
+        Map<String, ScratchPlanner.Estimate> estimates = new LinkedHashMap<>();
+        List<String> known = new ArrayList<>();
+        List<String> unknown = new ArrayList<>();
+        for (Map.Entry<String, SraRecord> entry : accessions.entrySet()) {
+            String accession = entry.getKey();
+            if (ready.contains(accession)) {
+                scheduled.add(accession);
+                continue;
+            }
+            ScratchPlanner.Estimate estimate = ScratchPlanner.estimate(accession, entry.getValue());
+            estimates.put(accession, estimate);
+            (estimate.isKnown() && order != Order.AS_SELECTED ? known : unknown).add(accession);
+        }
+
+        // The sort is stable, so runs of the same size keep their selection order
+        Comparator<String> bySize = Comparator.comparingLong(accession -> estimates.get(accession).fastqBytes);
+        if (order == Order.LARGEST_FIRST) {
+            known.sort(bySize.reversed());
+        } else {
+            known.sort(bySize);
+        }
+
+        if (order == Order.FIT_TO_DISK_BUDGET) {
+            long used = 0;
+            for (String accession : known) {
+                ScratchPlanner.Estimate estimate = estimates.get(accession);
+                long kept = estimate.importedBytes + (keepsFastq ? estimate.fastqBytes : 0);
+                // Scratch space is only needed while the run downloads, so just has to fit beside what's kept
+                if (used + Math.max(kept, estimate.scratchBytes) > diskBudget) {
+                    skipped.put(accession, String.format("Skipped: needs about %s, more than the %s left of the " +
+                                    "batch's disk budget", ScratchPlanner.formatSize(estimate.scratchBytes),
+                            ScratchPlanner.formatSize(diskBudget - used)));
+                    continue;
+                }
+                scheduled.add(accession);
+                used += kept;
+            }
+        } else {
+            scheduled.addAll(known);
+        }
+        scheduled.addAll(unknown);
+    }
+
+    /**
+     * Runs to download, in order
+     */
+    List<String> getOrder() {
+        return new ArrayList<>(scheduled);
+    }
+
+    /**
+     * Runs left out to stay within the disk budget, with the reason for each
+     */
+    Map<String, String> getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Mean and first completion times the order would give if each run took time in proportion to its size,
+     * relative to downloading in selection order, for the log
+     */
+    static String describe(Map<String, SraRecord> accessions, List<String> order) {
+        List<String> selected = new ArrayList<>(accessions.keySet());
+        selected.retainAll(order);
+        double[] scheduled = completionTimes(accessions, order);
+        double[] unscheduled = completionTimes(accessions, selected);
+        if (unscheduled[0] <= 0) {
+            return "run sizes unknown";
+        }
+        return String.format("mean completion %.0f%% and first result %.0f%% of selection order",
+                100 * scheduled[0] / unscheduled[0], 100 * scheduled[1] / Math.max(1e-9, unscheduled[1]));
+    }
+
+    /**
+     * @return mean and first completion time, in bytes downloaded, over runs of known size
+     */
+    private static double[] completionTimes(Map<String, SraRecord> accessions, List<String> order) {
+        long elapsed = 0;
+        double total = 0;
+        double first = 0;
+        int count = 0;
+        for (String accession : order) {
+            ScratchPlanner.Estimate estimate = ScratchPlanner.estimate(accession, accessions.get(accession));
+            if (!estimate.isKnown()) {
+                continue;
+            }
+            elapsed += estimate.fastqBytes;
+            total += elapsed;
+            if (count++ == 0) {
+                first = elapsed;
+            }
+        }
+        return new double[] {count > 0 ? total / count : 0, first};
+    }
+}
@@ -0,0 +1,197 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import com.biomatters.geneious.publicapi.components.Dialogs;
+import com.biomatters.geneious.publicapi.documents.AnnotatedPluginDocument;
+import com.biomatters.geneious.publicapi.documents.DocumentUtilities;
+import com.biomatters.geneious.publicapi.plugin.*;
+import com.biomatters.plugins.ncbisra.api.BulkAccessionResolver;
+import com.biomatters.plugins.ncbisra.api.NcbiEUtilsClient;
+import com.biomatters.plugins.ncbisra.api.SraQueryPlanner;
+import com.biomatters.plugins.ncbisra.metrics.SraMetrics;
+import com.biomatters.plugins.ncbisra.model.SraDocument;
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+import jebl.util.ProgressListener;
+
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DocumentOperation that turns a list of SRA accessions (from a file, the clipboard or pasted text)
+ * into SRA dataset documents, resolving them in large batches
+ */
+public class BulkAccessionResolveOperation extends DocumentOperation {
+
+    private static final String HELP_TEXT =
+        "Resolves a list of SRA run, experiment, study, BioProject or BioSample accessions into SRA dataset documents. " +
+        "Accessions can be pasted, read from the clipboard or read from a text file, separated by whitespace, " +
+        "commas or semicolons. Accessions are looked up in batches, so lists of tens of thousands of accessions are supported.";
+
+    private static final String OPERATION_NAME = "Resolve SRA Accession List";
+
+    // Option keys
+    private static final String OPTION_ACCESSIONS = "accessions";
+    private static final String OPTION_FILE = "accessionFile";
+    private static final String OPTION_CLIPBOARD = "readClipboard";
+
+    @Override
+    public String getUniqueId() {
+        return "sra_resolve_accession_list";
+    }
+
+    @Override
+    public GeneiousActionOptions getActionOptions() {
+        return new GeneiousActionOptions(OPERATION_NAME)
+                .setMainMenuLocation(GeneiousActionOptions.MainMenu.Tools)
+                .setInPopupMenu(false)
+                .setInMainToolbar(false);
+    }
+
+    @Override
+    public String getHelp() {
+        return HELP_TEXT;
+    }
+
+    @Override
+    public DocumentSelectionSignature[] getSelectionSignatures() {
+        // No documents need to be selected
+        return new DocumentSelectionSignature[0];
+    }
+
+    @Override
+    public Options getOptions(AnnotatedPluginDocument... documents) throws DocumentOperationException {
+        Options options = new Options(this.getClass());
+        options.addMultipleLineStringOption(OPTION_ACCESSIONS, "Accessions:", "", 10, true);
+        options.addFileSelectionOption(OPTION_FILE, "Accession list file:", "");
+        options.addBooleanOption(OPTION_CLIPBOARD, "Also read accessions from the clipboard", false);
+        return options;
+    }
+
+    @Override
+    public List<AnnotatedPluginDocument> performOperation(AnnotatedPluginDocument[] documents,
+            ProgressListener progressListener, Options options) throws DocumentOperationException {
+
+        List<String> accessions = readAccessions(options);
+        if (accessions.isEmpty()) {
+            throw new DocumentOperationException("No accessions were provided. Paste accessions, choose a file or copy them to the clipboard.");
+        }
+
+        progressListener.setMessage(String.format("Resolving %d accessions...", accessions.size()));
+        progressListener.setIndeterminateProgress();
+
+        List<AnnotatedPluginDocument> results = new ArrayList<>();
+        BulkAccessionResolver.Result result;
+        try {
+            BulkAccessionResolver resolver = new BulkAccessionResolver(new NcbiEUtilsClient());
+            result = resolver.resolve(accessions, new SraQueryPlanner.RecordBatchHandler() {
+                @Override
+                public boolean recordsReceived(List<SraRecord> records) {
+                    long start = System.nanoTime();
+                    for (SraRecord record : records) {
+                        results.add(DocumentUtilities.createAnnotatedPluginDocument(new SraDocument(record)));
+                    }
+                    SraMetrics.getInstance().recordDocumentsCreated(records.size(), System.nanoTime() - start);
+                    progressListener.setMessage(String.format("Resolved %d runs...", results.size()));
+                    return !progressListener.isCanceled();
+                }
+
+                @Override
+                public boolean isCanceled() {
+                    return progressListener.isCanceled();
+                }
+            });
+        } catch (IOException e) {
+            if (progressListener.isCanceled()) {
+                throw new DocumentOperationException.Canceled();
+            }
+            throw new DocumentOperationException("Failed to resolve accessions: " + e.getMessage(), e);
+        }
+
+        if (progressListener.isCanceled()) {
+            throw new DocumentOperationException.Canceled();
+        }
+
+        if (results.isEmpty()) {
+            throw new DocumentOperationException("None of the " + accessions.size() + " accessions could be resolved to SRA runs." +
+                    describeSkipped(result));
+        }
+        if (!result.getInvalid().isEmpty() || !result.getUnresolved().isEmpty()) {
+            reportSkipped(results.size(), result);
+        }
+
+        progressListener.setMessage(String.format("Resolved %d runs (%d accessions from cache)",
+                results.size(), result.getCacheHits()));
+        progressListener.setProgress(1.0);
+        return results;
+    }
+
+    /**
+     * Gather accessions from the text, file and clipboard options
+     */
+    private List<String> readAccessions(Options options) throws DocumentOperationException {
+        List<String> accessions = new ArrayList<>();
+        try {
+            Object text = options.getValue(OPTION_ACCESSIONS);
+            if (text != null && !text.toString().trim().isEmpty()) {
+                accessions.addAll(BulkAccessionResolver.readAccessions(new StringReader(text.toString())));
+            }
+
+            Object path = options.getValue(OPTION_FILE);
+            if (path != null && !path.toString().trim().isEmpty()) {
+                File file = new File(path.toString().trim());
+                if (!file.isFile()) {
+                    throw new DocumentOperationException("Accession list file not found: " + file.getAbsolutePath());
+                }
+                try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                    accessions.addAll(BulkAccessionResolver.readAccessions(reader));
+                }
+            }
+
+            if (Boolean.TRUE.equals(options.getValue(OPTION_CLIPBOARD)) && !GraphicsEnvironment.isHeadless()) {
+                Object clipboard = Toolkit.getDefaultToolkit().getSystemClipboard().getData(DataFlavor.stringFlavor);
+                if (clipboard != null) {
+                    accessions.addAll(BulkAccessionResolver.readAccessions(new StringReader(clipboard.toString())));
+                }
+            }
+        } catch (IOException | UnsupportedFlavorException e) {
+            throw new DocumentOperationException("Failed to read accession list: " + e.getMessage(), e);
+        }
+        return accessions;
+    }
+
+    /**
+     * Tell the user which accessions were left out, so a partly resolved list isn't mistaken for a complete one
+     */
+    private static void reportSkipped(int resolvedRuns, BulkAccessionResolver.Result result) {
+        String message = String.format("Resolved %d run(s), but some accessions were skipped:%s", resolvedRuns,
+                describeSkipped(result));
+        System.err.println(message);
+        if (!GraphicsEnvironment.isHeadless()) {
+            Dialogs.showMessageDialog(message, "Some SRA Accessions Were Not Resolved", null, Dialogs.DialogIcon.WARNING);
+        }
+    }
+
+    private static String describeSkipped(BulkAccessionResolver.Result result) {
+        StringBuilder description = new StringBuilder();
+        if (!result.getInvalid().isEmpty()) {
+            description.append(String.format("\n\n%d unrecognised accession(s): %s", result.getInvalid().size(),
+                    summarize(result.getInvalid())));
+        }
+        if (!result.getUnresolved().isEmpty()) {
+            description.append(String.format("\n\nNo SRA runs found for %d accession(s): %s", result.getUnresolved().size(),
+                    summarize(result.getUnresolved())));
+        }
+        return description.toString();
+    }
+
+    private static String summarize(List<String> accessions) {
+        int shown = Math.min(accessions.size(), 10);
+        String list = String.join(", ", accessions.subList(0, shown));
+        return accessions.size() > shown ? list + ", ..." : list;
+    }
+}
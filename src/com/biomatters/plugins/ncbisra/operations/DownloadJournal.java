@@ -0,0 +1,466 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent record of a batch download, so that a retry or a restart after a crash only repeats the
+ * accessions that did not finish. Each job lives in its own directory, keyed by the set of accessions
+ * and download options, holding an append-only journal of state changes and one output directory per
+ * accession. FASTQ files are kept until the documents imported from them have been handed back to Geneious.
+ * An accession's output may be placed on another volume by {@link ScratchPlanner}; the journal records where.
+ * <p>
+ * A job is locked while it is open, so two downloads of the same accessions, from the queue, the operation or
+ * another Geneious, never write to the same directory at once.
+ */
+class DownloadJournal implements Closeable {
+
+    /**
+     * System property overriding where jobs are kept, {@code ~/.geneious-sra/jobs} by default
+     */
+    static final String DIRECTORY_PROPERTY = "ncbi.sra.jobs.dir";
+
+    // Jobs nobody came back to are deleted along with any FASTQ they kept
+    private static final long MAX_JOB_AGE_MS = TimeUnit.DAYS.toMillis(7);
+
+    private static final String JOURNAL_FILE = "journal.log";
+    private static final String LOCK_FILE = "job.lock";
+    private static final String COMMIT = "COMMIT";
+    private static final String SEPARATOR = "\t";
+
+    // Jobs open in this JVM. The file lock only keeps out other processes, since closing any channel on the
+    // lock file, even one that failed to lock it, would release it.
+    private static final Set<File> OPEN_JOBS = ConcurrentHashMap.newKeySet();
+
+    enum State {
+        PENDING,
+        DOWNLOADING,
+        CONVERTED,
+        IMPORTED,
+        // Imported and saved to the database, so finished even if this attempt never commits
+        SAVED,
+        FAILED
+    }
+
+    private final File directory;
+    private final String runId = UUID.randomUUID().toString();
+    private final Map<String, State> states = new LinkedHashMap<>();
+    private final Map<String, String> failures = new LinkedHashMap<>();
+    private final Map<String, File> outputs = new LinkedHashMap<>();
+    private final Writer journal;
+    private final FileOutputStream journalStream;
+    private final File lockFile;
+    private final FileChannel lockChannel;
+    private boolean closed;
+
+    private DownloadJournal(File directory, List<String> accessions) throws IOException {
+        this.directory = directory;
+        for (String accession : accessions) {
+            states.put(accession, State.PENDING);
+        }
+        lockFile = new File(directory, LOCK_FILE);
+        lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileOutputStream stream = null;
+        try {
+            FileLock lock;
+            try {
+                // Released when the channel is closed
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new JobInUseException(accessions);
+            }
+            File journalFile = new File(directory, JOURNAL_FILE);
+            if (journalFile.exists()) {
+                replay(journalFile);
+            }
+            stream = new FileOutputStream(journalFile, true);
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+        journalStream = stream;
+        journal = new OutputStreamWriter(journalStream, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Open the job for these accessions, resuming it if an earlier attempt left a journal behind
+     *
+     * @throws JobInUseException if another download of the same accessions has the job open
+     */
+    static DownloadJournal open(List<String> accessions, boolean splitFiles) throws IOException {
+        File root = getJobsDirectory();
+        pruneAbandonedJobs(root);
+        File directory = new File(root, jobId(accessions, splitFiles));
+        while (true) {
+            if (!OPEN_JOBS.add(directory)) {
+                throw new JobInUseException(accessions);
+            }
+            DownloadJournal journal;
+            try {
+                Files.createDirectories(directory.toPath());
+                journal = new DownloadJournal(directory, accessions);
+            } catch (IOException | RuntimeException e) {
+                OPEN_JOBS.remove(directory);
+                throw e;
+            }
+            if (journal.lockFile.exists()) {
+                return journal;
+            }
+            // Another Geneious finished the job and deleted it between our opening and locking it
+            journal.close();
+        }
+    }
+
+    static File getJobsDirectory() {
+        String override = System.getProperty(DIRECTORY_PROPERTY);
+        if (override != null && !override.trim().isEmpty()) {
+            return new File(override.trim());
+        }
+        return new File(System.getProperty("user.home"), ".geneious-sra" + File.separator + "jobs");
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Directory fasterq-dump writes this accession's FASTQ files to, in the job directory unless the download
+     * was started elsewhere
+     */
+    File getOutputDirectory(String accession) throws IOException {
+        File output = outputFor(accession);
+        Files.createDirectories(output.toPath());
+        return output;
+    }
+
+    State getState(String accession) {
+        State state = states.get(accession);
+        return state != null ? state : State.PENDING;
+    }
+
+    /**
+     * Whether the accession's documents have been imported, by this or an earlier attempt
+     */
+    boolean isDone(String accession) {
+        State state = getState(accession);
+        return state == State.IMPORTED || state == State.SAVED;
+    }
+
+    /**
+     * Accessions that were finished by an earlier attempt at this job
+     */
+    int countImported() {
+        int imported = 0;
+        for (String accession : states.keySet()) {
+            if (isDone(accession)) {
+                imported++;
+            }
+        }
+        return imported;
+    }
+
+    Map<String, State> getStates() {
+        return states;
+    }
+
+    Map<String, String> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @param outputDirectory where the download will write, which is recorded so a later attempt can find it
+     */
+    void downloading(String accession, File outputDirectory) throws IOException {
+        deleteOutput(accession);
+        outputs.put(accession, outputDirectory);
+        deleteContents(outputDirectory);
+        Files.createDirectories(outputDirectory.toPath());
+        record(accession, State.DOWNLOADING, outputDirectory.getAbsolutePath());
+    }
+
+    void converted(String accession) throws IOException {
+        record(accession, State.CONVERTED, null);
+    }
+
+    void imported(String accession) throws IOException {
+        record(accession, State.IMPORTED, null);
+    }
+
+    /**
+     * The accession's documents have been saved to the database, so its FASTQ files are no longer needed
+     */
+    void saved(String accession) throws IOException {
+        record(accession, State.SAVED, null);
+        deleteOutput(accession);
+    }
+
+    /**
+     * Partial output of a failed accession is deleted; it is downloaded from scratch on the next attempt
+     */
+    void failed(String accession, String message) throws IOException {
+        deleteOutput(accession);
+        record(accession, State.FAILED, message);
+    }
+
+    /**
+     * Delete the kept FASTQ files of an imported accession early to make room for other downloads. If this
+     * attempt then fails to commit, the accession is downloaded again rather than re-imported.
+     *
+     * @return true if there were files to delete
+     */
+    boolean reclaim(String accession) {
+        if (getState(accession) != State.IMPORTED || !hasOutput(accession)) {
+            return false;
+        }
+        deleteOutput(accession);
+        return true;
+    }
+
+    /**
+     * Called once the imported documents have been handed back. Their FASTQ files are no longer needed, and if
+     * nothing failed the whole job is finished and removed.
+     */
+    void commit() throws IOException {
+        write(runId + SEPARATOR + COMMIT);
+        boolean complete = true;
+        for (Map.Entry<String, State> entry : states.entrySet()) {
+            if (entry.getValue() == State.IMPORTED) {
+                deleteOutput(entry.getKey());
+            } else if (entry.getValue() != State.SAVED) {
+                complete = false;
+            }
+        }
+        if (complete) {
+            // Everything but the lock goes while the job is still locked
+            journal.close();
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.equals(lockFile)) {
+                        deleteContents(file);
+                    }
+                }
+            }
+            close();
+            deleteContents(directory);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            journal.close();
+        } finally {
+            try {
+                lockChannel.close();
+            } finally {
+                OPEN_JOBS.remove(directory);
+            }
+        }
+    }
+
+    private synchronized void record(String accession, State state, String message) throws IOException {
+        states.put(accession, state);
+        if (state == State.FAILED) {
+            failures.put(accession, message);
+        } else {
+            failures.remove(accession);
+        }
+        String line = runId + SEPARATOR + state + SEPARATOR + accession;
+        if (message != null) {
+            line += SEPARATOR + message.replaceAll("\\s+", " ");
+        }
+        write(line);
+    }
+
+    /**
+     * Each entry is flushed to disk before the state change it records is acted on
+     */
+    private void write(String line) throws IOException {
+        journal.write(line);
+        journal.write('\n');
+        journal.flush();
+        journalStream.getFD().sync();
+    }
+
+    /**
+     * Rebuild accession states from an earlier journal. Documents imported by an attempt that never committed
+     * were lost with it, so those accessions are imported again from their kept FASTQ files; interrupted
+     * downloads start again.
+     */
+    private void replay(File journalFile) throws IOException {
+        Set<String> committedRuns = new HashSet<>();
+        List<String[]> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(journalFile.toPath()), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR, 4);
+                if (fields.length == 2 && COMMIT.equals(fields[1])) {
+                    committedRuns.add(fields[0]);
+                } else if (fields.length >= 3) {
+                    entries.add(fields);
+                }
+                // A torn final line from a crash is ignored
+            }
+        }
+
+        Map<String, String> lastRun = new LinkedHashMap<>();
+        for (String[] entry : entries) {
+            String accession = entry[2];
+            if (!states.containsKey(accession)) {
+                continue;
+            }
+            State state;
+            try {
+                state = State.valueOf(entry[1]);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            states.put(accession, state);
+            if (state == State.FAILED) {
+                failures.put(accession, entry.length > 3 ? entry[3] : "");
+            } else {
+                failures.remove(accession);
+            }
+            if (state == State.DOWNLOADING && entry.length > 3) {
+                outputs.put(accession, new File(entry[3]));
+            }
+            lastRun.put(accession, entry[0]);
+        }
+
+        for (Map.Entry<String, State> entry : states.entrySet()) {
+            String accession = entry.getKey();
+            switch (entry.getValue()) {
+                case DOWNLOADING:
+                    entry.setValue(State.PENDING);
+                    break;
+                case IMPORTED:
+                    if (!committedRuns.contains(lastRun.get(accession))) {
+                        entry.setValue(hasOutput(accession) ? State.CONVERTED : State.PENDING);
+                    }
+                    break;
+                case CONVERTED:
+                    if (!hasOutput(accession)) {
+                        entry.setValue(State.PENDING);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private File outputFor(String accession) {
+        File output = outputs.get(accession);
+        return output != null ? output : new File(directory, accession);
+    }
+
+    private boolean hasOutput(String accession) {
+        String[] files = outputFor(accession).list();
+        return files != null && files.length > 0;
+    }
+
+    /**
+     * Delete an accession's output, and the job's directory on another volume once that is empty
+     */
+    private void deleteOutput(String accession) {
+        File output = outputFor(accession);
+        deleteContents(output);
+        File parent = output.getParentFile();
+        String[] remaining = parent != null ? parent.list() : null;
+        if (parent != null && !parent.equals(directory) && remaining != null && remaining.length == 0) {
+            deleteContents(parent);
+        }
+    }
+
+    private static String jobId(List<String> accessions, boolean splitFiles) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String accession : new TreeSet<>(accessions)) {
+                digest.update(accession.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            digest.update((byte) (splitFiles ? 1 : 0));
+            StringBuilder id = new StringBuilder();
+            for (byte b : digest.digest()) {
+                id.append(String.format("%02x", b));
+            }
+            return id.substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void pruneAbandonedJobs(File root) {
+        File[] jobs = root.listFiles();
+        if (jobs == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - MAX_JOB_AGE_MS;
+        for (File job : jobs) {
+            File journalFile = new File(job, JOURNAL_FILE);
+            long lastModified = journalFile.exists() ? journalFile.lastModified() : job.lastModified();
+            if (job.isDirectory() && lastModified < cutoff) {
+                deleteContents(job);
+            }
+        }
+    }
+
+    /**
+     * Thrown when the job for a set of accessions is already open in another download
+     */
+    static final class JobInUseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        JobInUseException(List<String> accessions) {
+            super((accessions.size() == 1 ? accessions.get(0) : accessions.size() + " accessions")
+                    + " already being downloaded");
+        }
+    }
+
+    /**
+     * Delete a file or directory tree, ignoring anything that can't be deleted
+     */
+    static void deleteContents(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteContents(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            System.err.println("Warning: Could not delete " + file.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,786 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import com.biomatters.geneious.publicapi.databaseservice.DatabaseServiceException;
+import com.biomatters.geneious.publicapi.databaseservice.WritableDatabaseService;
+import com.biomatters.geneious.publicapi.documents.AnnotatedPluginDocument;
+import com.biomatters.geneious.publicapi.documents.DocumentUtilities;
+import com.biomatters.geneious.publicapi.plugin.DocumentOperation;
+import com.biomatters.geneious.publicapi.plugin.DocumentOperationException;
+import com.biomatters.geneious.publicapi.plugin.GeneiousService;
+import com.biomatters.geneious.publicapi.plugin.Options;
+import com.biomatters.geneious.publicapi.plugin.PluginUtilities;
+import com.biomatters.geneious.publicapi.plugin.ServiceUtilities;
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+import jebl.util.ProgressListener;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Background download queue that outlives the operation that filled it. Runs are queued in jobs, one per
+ * request, and downloaded one run at a time by a pool of workers: the highest priority job goes first, oldest
+ * first within a priority, and no more runs download at once than the concurrency limit. Every job is kept on
+ * disk, so the queue carries on where it left off after Geneious restarts; each run is downloaded through its
+ * own {@link DownloadJournal}, which resumes a run that was part way through. A run is held back while the same
+ * accession is downloading in another job or outside the queue, since both would use the same journal.
+ * <p>
+ * Imported documents are saved to the folder that was selected when the job was queued.
+ */
+public final class DownloadQueue {
+
+    /**
+     * System property overriding where queued jobs are kept, {@code ~/.geneious-sra/queue} by default
+     */
+    static final String DIRECTORY_PROPERTY = "ncbi.sra.queue.dir";
+    /**
+     * System property giving the initial number of runs downloaded at once
+     */
+    static final String CONCURRENCY_PROPERTY = "ncbi.sra.queue.concurrency";
+
+    private static final int DEFAULT_CONCURRENCY = 2;
+    public static final int MAX_CONCURRENCY = 16;
+    private static final String JOB_SUFFIX = ".job";
+    private static final String SETTINGS_FILE = "queue.properties";
+    // How long a run waits before trying again when its accession is being downloaded outside the queue
+    private static final long HOLD_BACK_MS = 30000;
+
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    enum RunState {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    private static DownloadQueue instance;
+
+    private final File directory;
+    private final List<Job> jobs = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    // Accessions found downloading outside the queue, and when to try them again
+    private final Map<String, Long> heldBack = new HashMap<>();
+    private int concurrency;
+    private boolean paused;
+    private boolean started;
+    private boolean stopping;
+    private int running;
+
+    private DownloadQueue(File directory) {
+        this.directory = directory;
+        concurrency = Integer.getInteger(CONCURRENCY_PROPERTY, DEFAULT_CONCURRENCY);
+        load();
+    }
+
+    /**
+     * The queue for this Geneious session, with the jobs left over from earlier sessions
+     */
+    public static synchronized DownloadQueue getInstance() {
+        if (instance == null) {
+            instance = new DownloadQueue(getQueueDirectory());
+        }
+        return instance;
+    }
+
+    static File getQueueDirectory() {
+        String override = System.getProperty(DIRECTORY_PROPERTY);
+        if (override != null && !override.trim().isEmpty()) {
+            return new File(override.trim());
+        }
+        return new File(System.getProperty("user.home"), ".geneious-sra" + File.separator + "queue");
+    }
+
+    /**
+     * Start the workers, if they aren't running already
+     */
+    public synchronized void start() {
+        stopping = false;
+        started = true;
+        while (workers.size() < concurrency) {
+            Thread worker = new Thread(this::work, "SRA download queue " + (workers.size() + 1));
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Stop the workers. Downloads in progress are cancelled and queued again, to resume next time the queue starts.
+     */
+    public synchronized void stop() {
+        stopping = true;
+        started = false;
+        workers.clear();
+        notifyAll();
+    }
+
+    /**
+     * Queue runs for download with the options they were chosen with. Runs are ordered within the job by the
+     * options' download order, and runs that would exceed a disk budget are failed straight away.
+     *
+     * @param destination folder to save into, or null for wherever Geneious puts generated documents
+     */
+    void enqueue(Map<String, SraRecord> accessions, Options options, Priority priority,
+                 WritableDatabaseService destination) throws DocumentOperationException {
+        long budget = SraDownloadOperation.getDiskBudget(options);
+        if (budget <= 0) {
+            budget = new ScratchPlanner(DownloadJournal.getJobsDirectory(), false).getLargestFreeSpace();
+        }
+        BatchScheduler scheduler = new BatchScheduler(accessions, Collections.<String>emptyList(),
+                SraDownloadOperation.getSchedulingOrder(options), budget, false);
+
+        Job job = new Job(UUID.randomUUID().toString(), priority, System.currentTimeMillis());
+        job.title = describe(new ArrayList<>(accessions.keySet()));
+        job.options = new XMLOutputter(Format.getCompactFormat()).outputString(options.valuesToXML("options"));
+        job.destination = destination != null ? destination.getUniqueID() : null;
+        for (String accession : scheduler.getOrder()) {
+            job.states.put(accession, RunState.QUEUED);
+            job.records.put(accession, accessions.get(accession));
+        }
+        for (Map.Entry<String, String> skipped : scheduler.getSkipped().entrySet()) {
+            job.states.put(skipped.getKey(), RunState.FAILED);
+            job.failures.put(skipped.getKey(), skipped.getValue());
+        }
+        synchronized (this) {
+            try {
+                save(job);
+            } catch (IOException e) {
+                throw new DocumentOperationException("Failed to save the download queue: " + e.getMessage(), e);
+            }
+            jobs.add(job);
+            start();
+        }
+    }
+
+    /**
+     * Snapshot of every job, highest priority first
+     */
+    public synchronized List<JobStatus> getJobs() {
+        List<JobStatus> statuses = new ArrayList<>();
+        for (Job job : sortedJobs()) {
+            statuses.add(new JobStatus(job, paused));
+        }
+        return statuses;
+    }
+
+    public synchronized void setPriority(String jobId, Priority priority) {
+        Job job = find(jobId);
+        if (job != null) {
+            job.priority = priority;
+            trySave(job);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop a job. Its runs in progress are cancelled, and it stays in the queue until cleared.
+     */
+    public synchronized void cancel(String jobId) {
+        Job job = find(jobId);
+        if (job != null) {
+            job.canceled = true;
+            trySave(job);
+        }
+    }
+
+    /**
+     * Queue a job's failed runs again, reviving it if it was cancelled
+     */
+    public synchronized void retry(String jobId) {
+        Job job = find(jobId);
+        if (job != null) {
+            for (Map.Entry<String, RunState> entry : job.states.entrySet()) {
+                if (entry.getValue() == RunState.FAILED) {
+                    entry.setValue(RunState.QUEUED);
+                }
+            }
+            job.failures.clear();
+            job.canceled = false;
+            trySave(job);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Remove jobs with nothing left to download, and cancelled jobs once their runs in progress have stopped
+     */
+    public synchronized void clearFinished() {
+        for (Job job : new ArrayList<>(jobs)) {
+            if (job.running == 0 && (job.canceled || job.count(RunState.QUEUED) == 0)) {
+                jobs.remove(job);
+                jobFile(job.id).delete();
+            }
+        }
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Hold back further downloads; runs already downloading finish
+     */
+    public synchronized void setPaused(boolean paused) {
+        this.paused = paused;
+        saveSettings();
+        notifyAll();
+    }
+
+    public synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Number of runs downloaded at once. Lowering it lets downloads in progress finish.
+     */
+    public synchronized void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, Math.min(MAX_CONCURRENCY, concurrency));
+        saveSettings();
+        if (started) {
+            start();
+        }
+        notifyAll();
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) {
+                return;
+            }
+            RunState state = RunState.QUEUED;
+            String failure = null;
+            boolean inUse = false;
+            ProgressListener progress = new TaskProgress(task);
+            try {
+                SraDownloadOperation operation = new SraDownloadOperation();
+                QueueCallback callback = new QueueCallback(task.job, getDestination(task.job));
+                List<AnnotatedPluginDocument> documents = operation.download(Collections.singletonMap(task.accession,
+                        task.job.records.get(task.accession)), progress, task.job.createOptions(operation), callback);
+                for (AnnotatedPluginDocument document : documents) {
+                    callback.addDocument(document, false, ProgressListener.EMPTY);
+                }
+                state = RunState.DONE;
+            } catch (DocumentOperationException.Canceled e) {
+                // Cancelled jobs keep their remaining runs queued in case they are retried
+            } catch (Exception e) {
+                if (e.getCause() instanceof DownloadJournal.JobInUseException) {
+                    // Stays queued until the other download is done with the accession
+                    inUse = true;
+                } else {
+                    state = RunState.FAILED;
+                    failure = e.getMessage();
+                    System.err.println("Queued download of " + task.accession + " failed: " + failure);
+                }
+            }
+            finish(task, state, failure, inUse);
+        }
+    }
+
+    private synchronized Task take() throws InterruptedException {
+        while (true) {
+            if (stopping || !workers.contains(Thread.currentThread())) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            long nextRetry = Long.MAX_VALUE;
+            if (!paused && running < concurrency) {
+                for (Job job : sortedJobs()) {
+                    if (job.canceled) {
+                        continue;
+                    }
+                    for (Map.Entry<String, RunState> entry : job.states.entrySet()) {
+                        if (entry.getValue() != RunState.QUEUED || isRunning(entry.getKey())) {
+                            continue;
+                        }
+                        Long retry = heldBack.get(entry.getKey());
+                        if (retry != null && retry > now) {
+                            nextRetry = Math.min(nextRetry, retry);
+                            continue;
+                        }
+                        entry.setValue(RunState.RUNNING);
+                        running++;
+                        job.started();
+                        trySave(job);
+                        return new Task(job, entry.getKey());
+                    }
+                }
+            }
+            if (nextRetry < Long.MAX_VALUE) {
+                wait(nextRetry - now);
+            } else {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Whether a run of this accession is downloading in any job
+     */
+    private boolean isRunning(String accession) {
+        for (Job job : jobs) {
+            if (job.states.get(accession) == RunState.RUNNING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param inUse whether the run couldn't start because its accession is being downloaded outside the queue
+     */
+    private synchronized void finish(Task task, RunState state, String failure, boolean inUse) {
+        Job job = task.job;
+        job.states.put(task.accession, state);
+        if (failure != null) {
+            job.failures.put(task.accession, failure);
+        }
+        job.activity.remove(task.accession);
+        if (inUse) {
+            heldBack.put(task.accession, System.currentTimeMillis() + HOLD_BACK_MS);
+        } else {
+            heldBack.remove(task.accession);
+        }
+        job.finished();
+        running--;
+        trySave(job);
+        notifyAll();
+    }
+
+    private synchronized boolean isCanceled(Task task) {
+        return stopping || task.job.canceled;
+    }
+
+    private List<Job> sortedJobs() {
+        List<Job> sorted = new ArrayList<>(jobs);
+        sorted.sort(Comparator.<Job, Priority>comparing(job -> job.priority).thenComparingLong(job -> job.created));
+        return sorted;
+    }
+
+    private Job find(String jobId) {
+        for (Job job : jobs) {
+            if (job.id.equals(jobId)) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private static WritableDatabaseService getDestination(Job job) {
+        if (job.destination != null) {
+            GeneiousService service = PluginUtilities.getGeneiousService(job.destination);
+            if (service instanceof WritableDatabaseService) {
+                return (WritableDatabaseService) service;
+            }
+            System.err.println("Download queue folder " + job.destination + " no longer exists; saving to the results folder instead");
+        }
+        return ServiceUtilities.getResultsDestination();
+    }
+
+    private static String describe(List<String> accessions) {
+        if (accessions.size() == 1) {
+            return accessions.get(0);
+        }
+        return accessions.get(0) + " and " + (accessions.size() - 1) + " more";
+    }
+
+    private File jobFile(String jobId) {
+        return new File(directory, jobId + JOB_SUFFIX);
+    }
+
+    private void trySave(Job job) {
+        try {
+            save(job);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not save download queue job " + job.title + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write a job's file, replacing the old one in a single step so a crash never leaves half a job
+     */
+    private void save(Job job) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Properties properties = new Properties();
+        properties.setProperty("title", job.title);
+        properties.setProperty("priority", job.priority.name());
+        properties.setProperty("created", Long.toString(job.created));
+        properties.setProperty("options", job.options);
+        if (job.destination != null) {
+            properties.setProperty("destination", job.destination);
+        }
+        properties.setProperty("canceled", Boolean.toString(job.canceled));
+        properties.setProperty("accessions", String.join(",", job.states.keySet()));
+        for (Map.Entry<String, RunState> entry : job.states.entrySet()) {
+            properties.setProperty("state." + entry.getKey(), entry.getValue().name());
+        }
+        for (Map.Entry<String, String> entry : job.failures.entrySet()) {
+            properties.setProperty("failure." + entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        properties.setProperty("bases", Long.toString(job.bases));
+        properties.setProperty("activeMillis", Long.toString(job.getActiveMillis()));
+
+        File file = jobFile(job.id);
+        File temporary = new File(directory, job.id + ".tmp");
+        try (OutputStream out = new FileOutputStream(temporary)) {
+            properties.store(out, "SRA download queue job");
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() {
+        Properties settings = readProperties(new File(directory, SETTINGS_FILE));
+        if (settings != null) {
+            paused = Boolean.parseBoolean(settings.getProperty("paused"));
+            try {
+                concurrency = Integer.parseInt(settings.getProperty("concurrency", Integer.toString(concurrency)));
+            } catch (NumberFormatException e) {
+                // Keep the default
+            }
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(JOB_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Properties properties = readProperties(file);
+            if (properties == null) {
+                continue;
+            }
+            try {
+                String id = file.getName().substring(0, file.getName().length() - JOB_SUFFIX.length());
+                Job job = new Job(id, Priority.valueOf(properties.getProperty("priority")),
+                        Long.parseLong(properties.getProperty("created")));
+                job.title = properties.getProperty("title");
+                job.options = properties.getProperty("options");
+                job.destination = properties.getProperty("destination");
+                job.canceled = Boolean.parseBoolean(properties.getProperty("canceled"));
+                for (String accession : properties.getProperty("accessions").split(",")) {
+                    RunState state = RunState.valueOf(properties.getProperty("state." + accession));
+                    // Runs that were downloading when Geneious exited resume from their own journals
+                    job.states.put(accession, state == RunState.RUNNING ? RunState.QUEUED : state);
+                    String failure = properties.getProperty("failure." + accession);
+                    if (failure != null) {
+                        job.failures.put(accession, failure);
+                    }
+                }
+                job.bases = Long.parseLong(properties.getProperty("bases", "0"));
+                job.activeMillis = Long.parseLong(properties.getProperty("activeMillis", "0"));
+                jobs.add(job);
+            } catch (RuntimeException e) {
+                System.err.println("Ignoring unreadable download queue job " + file + ": " + e);
+            }
+        }
+    }
+
+    private void saveSettings() {
+        Properties settings = new Properties();
+        settings.setProperty("paused", Boolean.toString(paused));
+        settings.setProperty("concurrency", Integer.toString(concurrency));
+        try {
+            Files.createDirectories(directory.toPath());
+            try (OutputStream out = new FileOutputStream(new File(directory, SETTINGS_FILE))) {
+                settings.store(out, "SRA download queue settings");
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Could not save download queue settings: " + e.getMessage());
+        }
+    }
+
+    private static Properties readProperties(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            return properties;
+        } catch (IOException e) {
+            System.err.println("Warning: Could not read " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Queued download request. Guarded by the queue's lock.
+     */
+    private static final class Job {
+        final String id;
+        final long created;
+        Priority priority;
+        String title;
+        String options;
+        String destination;
+        boolean canceled;
+        final Map<String, RunState> states = new LinkedHashMap<>();
+        final Map<String, String> failures = new LinkedHashMap<>();
+        // Metadata for runs queued in this session; runs resumed after a restart look theirs up again
+        final Map<String, SraRecord> records = new LinkedHashMap<>();
+        // What each running run is doing, for the status view
+        final Map<String, String> activity = new LinkedHashMap<>();
+        long bases;
+        int running;
+        // Time spent with at least one run downloading, for throughput
+        long activeMillis;
+        long activeSince;
+
+        Job(String id, Priority priority, long created) {
+            this.id = id;
+            this.priority = priority;
+            this.created = created;
+        }
+
+        int count(RunState state) {
+            int count = 0;
+            for (RunState runState : states.values()) {
+                if (runState == state) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        void started() {
+            if (running++ == 0) {
+                activeSince = System.currentTimeMillis();
+            }
+        }
+
+        void finished() {
+            if (--running == 0) {
+                activeMillis += System.currentTimeMillis() - activeSince;
+            }
+        }
+
+        long getActiveMillis() {
+            return activeMillis + (running > 0 ? System.currentTimeMillis() - activeSince : 0);
+        }
+
+        Options createOptions(SraDownloadOperation operation) throws DocumentOperationException {
+            Options restored = operation.getOptions();
+            try {
+                Element values = new SAXBuilder().build(new StringReader(options)).getRootElement();
+                restored.valuesFromXML(values);
+            } catch (JDOMException | IOException e) {
+                throw new DocumentOperationException("Could not read the options this download was queued with: " + e.getMessage(), e);
+            }
+            return restored;
+        }
+    }
+
+    private static final class Task {
+        final Job job;
+        final String accession;
+
+        Task(Job job, String accession) {
+            this.job = job;
+            this.accession = accession;
+        }
+    }
+
+    /**
+     * Passes a run's progress messages to the status view and cancels it when its job is cancelled or the
+     * queue stops
+     */
+    private final class TaskProgress extends ProgressListener {
+        private final Task task;
+
+        TaskProgress(Task task) {
+            this.task = task;
+        }
+
+        @Override
+        protected void _setProgress(double fractionCompleted) {
+        }
+
+        @Override
+        protected void _setIndeterminateProgress() {
+        }
+
+        @Override
+        protected void _setMessage(String message) {
+            synchronized (DownloadQueue.this) {
+                task.job.activity.put(task.accession, message);
+            }
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return DownloadQueue.this.isCanceled(task);
+        }
+    }
+
+    /**
+     * Saves a run's documents into the job's folder and counts the bases saved
+     */
+    private final class QueueCallback extends DocumentOperation.OperationCallback {
+        private final Job job;
+        private final WritableDatabaseService root;
+        private WritableDatabaseService folder;
+
+        QueueCallback(Job job, WritableDatabaseService root) {
+            this.job = job;
+            this.root = root;
+            this.folder = root;
+        }
+
+        @Override
+        public void setSubFolder(String name) throws DatabaseServiceException {
+            if (root == null) {
+                return;
+            }
+            if (name == null) {
+                folder = root;
+                return;
+            }
+            WritableDatabaseService child = root.getChildService(name);
+            folder = child != null ? child : root.createChildFolder(name);
+        }
+
+        @Override
+        public AnnotatedPluginDocument addDocument(AnnotatedPluginDocument document, boolean selectAfterAdding,
+                                                   ProgressListener progressListener) throws DocumentOperationException {
+            AnnotatedPluginDocument saved = document;
+            if (folder != null) {
+                try {
+                    saved = folder.addDocumentCopy(document, progressListener);
+                } catch (DatabaseServiceException e) {
+                    throw new DocumentOperationException("Could not save " + document.getName() + ": " + e.getMessage(), e);
+                }
+            } else {
+                DocumentUtilities.addGeneratedDocument(document, false);
+            }
+            Object reads = document.getFieldValue(FastqStats.FIELD_READS);
+            Object meanLength = document.getFieldValue(FastqStats.FIELD_MEAN_LENGTH);
+            if (reads instanceof Number && meanLength instanceof Number) {
+                synchronized (DownloadQueue.this) {
+                    job.bases += Math.round(((Number) reads).longValue() * ((Number) meanLength).doubleValue());
+                }
+            }
+            return saved;
+        }
+    }
+
+    /**
+     * A job as it was when the snapshot was taken
+     */
+    public static final class JobStatus {
+        private final String id;
+        private final String title;
+        private final Priority priority;
+        private final String status;
+        private final int total;
+        private final int done;
+        private final int failed;
+        private final int running;
+        private final double basesPerSecond;
+        private final String activity;
+        private final Map<String, String> failures;
+
+        private JobStatus(Job job, boolean paused) {
+            id = job.id;
+            title = job.title;
+            priority = job.priority;
+            total = job.states.size();
+            done = job.count(RunState.DONE);
+            failed = job.count(RunState.FAILED);
+            running = job.running;
+            long activeMillis = job.getActiveMillis();
+            basesPerSecond = activeMillis > 0 ? job.bases * 1000.0 / activeMillis : 0;
+            activity = String.join("; ", job.activity.values());
+            failures = new LinkedHashMap<>(job.failures);
+            int queued = job.count(RunState.QUEUED);
+            if (job.canceled) {
+                status = running > 0 ? "Cancelling" : "Cancelled";
+            } else if (running > 0) {
+                status = "Downloading";
+            } else if (queued > 0) {
+                status = paused ? "Paused" : "Queued";
+            } else {
+                status = failed > 0 ? "Finished with failures" : "Finished";
+            }
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getDone() {
+            return done;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        /**
+         * Bases saved per second of time spent downloading
+         */
+        public double getBasesPerSecond() {
+            return basesPerSecond;
+        }
+
+        /**
+         * Latest progress message of each run downloading
+         */
+        public String getActivity() {
+            return activity;
+        }
+
+        public Map<String, String> getFailures() {
+            return failures;
+        }
+    }
+}
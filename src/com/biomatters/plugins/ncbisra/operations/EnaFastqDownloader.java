@@ -0,0 +1,435 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import com.biomatters.geneious.publicapi.plugin.DocumentOperationException;
+import jebl.util.ProgressListener;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches a run's gzipped FASTQ files from the European Nucleotide Archive, which mirrors SRA and serves
+ * ready-made FASTQ over plain HTTP, skipping fasterq-dump's download and conversion. The files are located with
+ * the ENA portal's file report and fetched in byte ranges over several connections at once, then checked
+ * against the size and MD5 the report gives. They are kept gzipped and decompressed as they are imported.
+ * <p>
+ * The {@value #BASE_URL_PROPERTY} system property points both the file report and the files at another server,
+ * such as a local stand-in for testing, which must serve {@code filereport} and the file paths below it.
+ */
+final class EnaFastqDownloader {
+
+    static final String DEFAULT_PORTAL_URL = "https://www.ebi.ac.uk/ena/portal/api/";
+    static final String DEFAULT_FILES_URL = "https://ftp.sra.ebi.ac.uk/";
+    static final String BASE_URL_PROPERTY = "ncbi.sra.ena.url";
+    static final String CONNECTIONS_PROPERTY = "ncbi.sra.ena.connections";
+
+    private static final int DEFAULT_CONNECTIONS = 4;
+    private static final int MAX_CONNECTIONS = 16;
+    // Files are split into about this many ranges per connection, so a slow range doesn't hold up the rest
+    private static final int RANGES_PER_CONNECTION = 4;
+    private static final long MIN_RANGE_BYTES = 8L * 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MS = 1000;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 60000;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // How often to check for cancellation and report progress while ranges download
+    private static final long POLL_MS = 100;
+    private static final String USER_AGENT = "GeneiousNcbiSraPlugin/1.0 (geneious@biomatters.com)";
+
+    /**
+     * One FASTQ file of a run as listed in the file report
+     */
+    static final class RemoteFile {
+        final String url;
+        final String name;
+        // 0 if the report didn't give it
+        final long bytes;
+        // null if the report didn't give it
+        final String md5;
+
+        RemoteFile(String url, String name, long bytes, String md5) {
+            this.url = url;
+            this.name = name;
+            this.bytes = bytes;
+            this.md5 = md5;
+        }
+    }
+
+    private final String portalUrl;
+    private final String filesUrl;
+    private final int connections;
+    private final Set<HttpURLConnection> open = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Downloader for the server named by the {@value #BASE_URL_PROPERTY} system property, or ENA if it isn't set
+     */
+    EnaFastqDownloader() {
+        this(System.getProperty(BASE_URL_PROPERTY));
+    }
+
+    /**
+     * @param baseUrl server for both the file report and the files, or null for ENA
+     */
+    EnaFastqDownloader(String baseUrl) {
+        if (baseUrl == null || baseUrl.trim().isEmpty()) {
+            portalUrl = DEFAULT_PORTAL_URL;
+            filesUrl = DEFAULT_FILES_URL;
+        } else {
+            portalUrl = baseUrl.trim().endsWith("/") ? baseUrl.trim() : baseUrl.trim() + "/";
+            filesUrl = portalUrl;
+        }
+        int configured = DEFAULT_CONNECTIONS;
+        try {
+            configured = Integer.parseInt(System.getProperty(CONNECTIONS_PROPERTY, String.valueOf(DEFAULT_CONNECTIONS)));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid " + CONNECTIONS_PROPERTY + ": " + e.getMessage());
+        }
+        connections = Math.max(1, Math.min(MAX_CONNECTIONS, configured));
+    }
+
+    /**
+     * Look up a run's FASTQ files: both files of a paired run, or else its single file
+     *
+     * @throws IOException if the report can't be fetched or lists no FASTQ for the run
+     */
+    List<RemoteFile> resolve(String accession) throws IOException {
+        String url = portalUrl + "filereport?accession=" + URLEncoder.encode(accession, "UTF-8")
+                + "&result=read_run&fields=run_accession,fastq_ftp,fastq_bytes,fastq_md5&format=tsv";
+        HttpURLConnection connection = openConnection(url, null);
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                connection.disconnect();
+                throw new IOException(String.format("ENA file report for %s failed with HTTP %d", accession, code));
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String header = reader.readLine();
+                if (header == null) {
+                    throw new IOException("ENA has no record of " + accession);
+                }
+                List<String> columns = Arrays.asList(header.split("\t", -1));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] values = line.split("\t", -1);
+                    if (accession.equals(value(values, columns, "run_accession"))) {
+                        return chooseFiles(accession, value(values, columns, "fastq_ftp"),
+                                value(values, columns, "fastq_bytes"), value(values, columns, "fastq_md5"));
+                    }
+                }
+            }
+            throw new IOException("ENA has no record of " + accession);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static String value(String[] values, List<String> columns, String column) {
+        int index = columns.indexOf(column);
+        return index >= 0 && index < values.length ? values[index].trim() : "";
+    }
+
+    /**
+     * Pick the files matching fasterq-dump's split output. ENA lists a paired run's unpaired reads in a third,
+     * unsuffixed file, which is left out like fasterq-dump leaves out technical reads.
+     */
+    private List<RemoteFile> chooseFiles(String accession, String locations, String sizes, String checksums) throws IOException {
+        if (locations.isEmpty()) {
+            throw new IOException("ENA has no FASTQ files for " + accession);
+        }
+        String[] paths = locations.split(";");
+        String[] byteCounts = sizes.split(";");
+        String[] md5s = checksums.split(";");
+        List<RemoteFile> all = new ArrayList<>();
+        for (int i = 0; i < paths.length; i++) {
+            String path = paths[i].trim().replaceFirst("^[a-z]+://", "");
+            // Paths start with the FTP host, which the files URL replaces
+            path = path.substring(path.indexOf('/') + 1);
+            long bytes = 0;
+            if (i < byteCounts.length && !byteCounts[i].trim().isEmpty()) {
+                bytes = Long.parseLong(byteCounts[i].trim());
+            }
+            String md5 = i < md5s.length && !md5s[i].trim().isEmpty() ? md5s[i].trim().toLowerCase(Locale.ROOT) : null;
+            all.add(new RemoteFile(filesUrl + path, path.substring(path.lastIndexOf('/') + 1), bytes, md5));
+        }
+        RemoteFile forward = find(all, accession + "_1.fastq.gz");
+        RemoteFile reverse = find(all, accession + "_2.fastq.gz");
+        if (forward != null && reverse != null) {
+            return Arrays.asList(forward, reverse);
+        }
+        RemoteFile single = find(all, accession + ".fastq.gz");
+        if (single != null) {
+            return Arrays.asList(single);
+        }
+        throw new IOException("ENA lists no FASTQ files named after " + accession + ": " + locations);
+    }
+
+    private static RemoteFile find(List<RemoteFile> files, String name) {
+        for (RemoteFile file : files) {
+            if (file.name.equals(name)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Download the files into a directory, several ranges at a time, and verify them
+     *
+     * @param timeLimitMs longest the download may take, or 0 for no limit
+     * @return the downloaded files, in the order given
+     * @throws DocumentOperationException.Canceled if the user cancels, after closing every open connection
+     * @throws IOException if any file can't be downloaded completely and intact
+     */
+    List<File> download(List<RemoteFile> remoteFiles, File outputDirectory, ProgressListener progressListener,
+                        double baseProgress, double targetProgress, long timeLimitMs) throws IOException, DocumentOperationException {
+        long totalBytes = 0;
+        for (RemoteFile remote : remoteFiles) {
+            totalBytes += remote.bytes;
+        }
+        AtomicLong received = new AtomicLong();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(connections, runnable -> {
+            Thread thread = new Thread(runnable, "ena-download-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        List<FileChannel> channels = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        try {
+            // The response to the first range of each file shows whether the server takes range requests at all;
+            // if it doesn't, the file comes whole in that response. The other ranges start as soon as it's known.
+            List<Future<Boolean>> ranges = new ArrayList<>();
+            List<CompletableFuture<Boolean>> rangeSupport = new ArrayList<>();
+            for (RemoteFile remote : remoteFiles) {
+                File file = new File(outputDirectory, remote.name);
+                Files.deleteIfExists(file.toPath());
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                channels.add(channel);
+                files.add(file);
+                long end = remote.bytes > 0 ? Math.min(remote.bytes, rangeSize(remote.bytes)) : 0;
+                CompletableFuture<Boolean> ranged = new CompletableFuture<>();
+                rangeSupport.add(ranged);
+                ranges.add(pool.submit(() -> {
+                    try {
+                        return fetchRange(remote, channel, 0, end, received, ranged);
+                    } catch (IOException | RuntimeException e) {
+                        ranged.completeExceptionally(e);
+                        throw e;
+                    }
+                }));
+            }
+            for (int i = 0; i < remoteFiles.size(); i++) {
+                RemoteFile remote = remoteFiles.get(i);
+                boolean ranged = await(rangeSupport.get(i), progressListener, received, totalBytes, start, timeLimitMs,
+                        baseProgress, targetProgress);
+                if (!ranged) {
+                    continue;
+                }
+                FileChannel channel = channels.get(i);
+                long rangeSize = rangeSize(remote.bytes);
+                for (long offset = rangeSize; offset < remote.bytes; offset += rangeSize) {
+                    long from = offset;
+                    long end = Math.min(remote.bytes, offset + rangeSize);
+                    ranges.add(pool.submit(() -> fetchRange(remote, channel, from, end, received, null)));
+                }
+            }
+            for (Future<Boolean> range : ranges) {
+                await(range, progressListener, received, totalBytes, start, timeLimitMs, baseProgress, targetProgress);
+            }
+        } finally {
+            pool.shutdownNow();
+            for (HttpURLConnection connection : open) {
+                connection.disconnect();
+            }
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+        for (int i = 0; i < remoteFiles.size(); i++) {
+            verify(remoteFiles.get(i), files.get(i));
+        }
+        progressListener.setProgress(targetProgress);
+        return files;
+    }
+
+    private long rangeSize(long fileBytes) {
+        return Math.max(MIN_RANGE_BYTES, (fileBytes + connections * RANGES_PER_CONNECTION - 1) / (connections * RANGES_PER_CONNECTION));
+    }
+
+    /**
+     * Wait for a range, reporting progress and stopping everything on cancellation or at the time limit
+     */
+    private <T> T await(Future<T> future, ProgressListener progressListener, AtomicLong received, long totalBytes,
+                        long start, long timeLimitMs, double baseProgress, double targetProgress) throws IOException, DocumentOperationException {
+        while (true) {
+            try {
+                return future.get(POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (progressListener.isCanceled()) {
+                    throw new DocumentOperationException.Canceled();
+                }
+                long elapsed = System.nanoTime() - start;
+                if (timeLimitMs > 0 && elapsed > TimeUnit.MILLISECONDS.toNanos(timeLimitMs)) {
+                    throw new IOException(String.format("Stopped after the time limit of %d second(s)",
+                            TimeUnit.MILLISECONDS.toSeconds(timeLimitMs)));
+                }
+                double seconds = Math.max(1e-3, elapsed / 1e9);
+                long bytes = received.get();
+                if (totalBytes > 0) {
+                    progressListener.setProgress(baseProgress + (targetProgress - baseProgress) * Math.min(1, (double) bytes / totalBytes));
+                    progressListener.setMessage(String.format(Locale.ROOT, "Downloading from ENA: %s of %s (%.1f MB/s)",
+                            ScratchPlanner.formatSize(bytes), ScratchPlanner.formatSize(totalBytes), bytes / 1e6 / seconds));
+                } else {
+                    progressListener.setMessage(String.format(Locale.ROOT, "Downloading from ENA: %s (%.1f MB/s)",
+                            ScratchPlanner.formatSize(bytes), bytes / 1e6 / seconds));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DocumentOperationException.Canceled();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+            }
+        }
+    }
+
+    /**
+     * Fetch bytes {@code from} to {@code end} (exclusive) of a file into its channel, retrying from where a
+     * broken connection left off. An {@code end} of 0 asks for the whole file without a range.
+     *
+     * @param rangeSupport completed, if not null, with whether the server answered with the range as soon as it has
+     * @return whether the server answered with the range; if not, the whole file has been written
+     */
+    private boolean fetchRange(RemoteFile remote, FileChannel channel, long from, long end, AtomicLong received,
+                               CompletableFuture<Boolean> rangeSupport) throws IOException {
+        long position = from;
+        for (int attempt = 1; ; attempt++) {
+            String range = end > 0 ? "bytes=" + position + "-" + (end - 1) : null;
+            HttpURLConnection connection = openConnection(remote.url, range);
+            try {
+                int code = connection.getResponseCode();
+                boolean ranged = code == HttpURLConnection.HTTP_PARTIAL;
+                if (code != HttpURLConnection.HTTP_OK && !ranged) {
+                    throw new IOException(String.format("HTTP %d fetching %s", code, remote.url));
+                }
+                if (!ranged && position > 0) {
+                    // A whole file can only be written from its start
+                    throw new IOException("Server ignored a range request for " + remote.url);
+                }
+                if (rangeSupport != null) {
+                    rangeSupport.complete(ranged);
+                }
+                long limit = ranged ? end : Long.MAX_VALUE;
+                try (InputStream in = connection.getInputStream()) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while (position < limit && (read = in.read(buffer, 0, (int) Math.min(buffer.length, limit - position))) > 0) {
+                        ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                        while (data.hasRemaining()) {
+                            position += channel.write(data, position);
+                        }
+                        received.addAndGet(read);
+                    }
+                }
+                if (ranged && position < end) {
+                    throw new IOException(String.format("Connection closed %d bytes short of the end of a range of %s",
+                            end - position, remote.url));
+                }
+                return ranged;
+            } catch (IOException e) {
+                connection.disconnect();
+                if (attempt >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                System.err.println(String.format("Retrying %s from byte %d after: %s", remote.name, position, e.getMessage()));
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MS << (attempt - 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                if (end == 0) {
+                    // Without ranges there's no resuming part way through
+                    received.addAndGet(from - position);
+                    position = from;
+                }
+            } finally {
+                release(connection);
+            }
+        }
+    }
+
+    private static void verify(RemoteFile remote, File file) throws IOException {
+        if (remote.bytes > 0 && file.length() != remote.bytes) {
+            throw new IOException(String.format("%s is %d bytes but ENA lists %d", remote.name, file.length(), remote.bytes));
+        }
+        if (remote.md5 == null) {
+            return;
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), MessageDigest.getInstance("MD5"))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) >= 0) {
+                // Digested as it is read
+            }
+            StringBuilder md5 = new StringBuilder();
+            for (byte b : ((DigestInputStream) in).getMessageDigest().digest()) {
+                md5.append(String.format("%02x", b));
+            }
+            if (!md5.toString().equals(remote.md5)) {
+                throw new IOException(String.format("%s has MD5 %s but ENA lists %s", remote.name, md5, remote.md5));
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private HttpURLConnection openConnection(String url, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("User-Agent", USER_AGENT);
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        open.add(connection);
+        return connection;
+    }
+
+    /**
+     * Stop tracking a connection whose response has been read or abandoned. Connections are not disconnected
+     * here, so that those read to the end can be reused for the next range.
+     */
+    private void release(HttpURLConnection connection) {
+        open.remove(connection);
+    }
+}
@@ -0,0 +1,234 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Bounded record of one fasterq-dump process's output. Only the most recent lines are kept, in a ring buffer,
+ * so a long run with {@code --progress --details} doesn't build up megabytes of output. Each line is parsed
+ * into a typed {@link Event} as it arrives, and the first error lines are kept for classifying the failure.
+ * <p>
+ * fasterq-dump reports problems as {@code <time> <tool>.<version> <level>: <message>}, with levels
+ * {@code fatal}, {@code sys}, {@code int}, {@code err}, {@code warn} and {@code info}; counts as
+ * {@code spots read : 1,234}; and stage progress as {@code join :|-----  45.23%}.
+ */
+final class FasterqDumpLog {
+
+    static final int MAX_LINES = 200;
+    static final int MAX_LINE_LENGTH = 500;
+    static final int MAX_ERRORS = 20;
+
+    enum EventType {
+        PROGRESS,
+        COUNT,
+        WARNING,
+        ERROR,
+        INFO
+    }
+
+    /**
+     * Cause of a failed download, as far as the error lines tell
+     */
+    enum Failure {
+        DISK_FULL,
+        ACCESS_DENIED,
+        NOT_FOUND,
+        NETWORK,
+        UNKNOWN
+    }
+
+    static final class Event {
+        final EventType type;
+        // The whole line for INFO, the message for warnings and errors, and the stage or counter name otherwise
+        final String text;
+        // The count for COUNT, the percentage for PROGRESS
+        final double value;
+
+        Event(EventType type, String text, double value) {
+            this.type = type;
+            this.text = text;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return type + ": " + text + (type == EventType.COUNT || type == EventType.PROGRESS ? " " + value : "");
+        }
+    }
+
+    private final String[] lines = new String[MAX_LINES];
+    private long lineCount;
+    private final List<String> errors = new ArrayList<>();
+    private int warningCount;
+    private volatile long lastLineNanos = System.nanoTime();
+
+    /**
+     * Record a line of output
+     *
+     * @return what the line says
+     */
+    synchronized Event add(String line) {
+        lastLineNanos = System.nanoTime();
+        lines[(int) (lineCount++ % MAX_LINES)] = line.length() > MAX_LINE_LENGTH
+                ? line.substring(0, MAX_LINE_LENGTH) + "..." : line;
+        Event event = parse(line);
+        switch (event.type) {
+            case ERROR:
+                if (errors.size() < MAX_ERRORS) {
+                    errors.add(event.text);
+                }
+                break;
+            case WARNING:
+                warningCount++;
+                break;
+            default:
+                break;
+        }
+        return event;
+    }
+
+    static Event parse(String line) {
+        String trimmed = line.trim();
+        for (String level : new String[] {"fatal", "sys", "int", "err"}) {
+            String message = messageAt(trimmed, level);
+            if (message != null) {
+                return new Event(EventType.ERROR, message, 0);
+            }
+        }
+        if (trimmed.startsWith("fasterq-dump quit with error code")) {
+            return new Event(EventType.ERROR, trimmed, 0);
+        }
+        String warning = messageAt(trimmed, "warn");
+        if (warning != null) {
+            return new Event(EventType.WARNING, warning, 0);
+        }
+
+        int colon = trimmed.indexOf(':');
+        if (colon > 0) {
+            String name = trimmed.substring(0, colon).trim();
+            String value = trimmed.substring(colon + 1).trim();
+            if (value.endsWith("%")) {
+                int start = value.length() - 1;
+                while (start > 0 && (Character.isDigit(value.charAt(start - 1)) || value.charAt(start - 1) == '.')) {
+                    start--;
+                }
+                Double percent = parseNumber(value.substring(start, value.length() - 1));
+                if (percent != null) {
+                    return new Event(EventType.PROGRESS, name, percent);
+                }
+            }
+            Double count = parseNumber(value.replace(",", ""));
+            if (count != null && (name.contains("spots") || name.contains("reads"))) {
+                return new Event(EventType.COUNT, name, count);
+            }
+        }
+        return new Event(EventType.INFO, trimmed, 0);
+    }
+
+    /**
+     * The message of a line logged at the given level, or null if it wasn't
+     */
+    private static String messageAt(String line, String level) {
+        int index = line.indexOf(" " + level + ": ");
+        if (index < 0) {
+            return line.startsWith(level + ": ") ? line.substring(level.length() + 2).trim() : null;
+        }
+        return line.substring(index + level.length() + 3).trim();
+    }
+
+    private static Double parseNumber(String text) {
+        if (text.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isDigit(c) && c != '.') {
+                return null;
+            }
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Classify the failure from the first error that says what went wrong
+     */
+    synchronized Failure getFailure() {
+        for (String error : errors) {
+            Failure failure = classify(error);
+            if (failure != Failure.UNKNOWN) {
+                return failure;
+            }
+        }
+        return Failure.UNKNOWN;
+    }
+
+    static Failure classify(String error) {
+        String message = error.toLowerCase(Locale.ROOT);
+        if (message.contains("storage exhausted") || message.contains("no space") || message.contains("disk full")
+                || message.contains("insufficient disk")) {
+            return Failure.DISK_FULL;
+        }
+        if (message.contains("access denied") || message.contains("permission") || message.contains("unauthorized")
+                || message.contains("( 403 )") || message.contains("dbgap") || message.contains("protected")) {
+            return Failure.ACCESS_DENIED;
+        }
+        if (message.contains("not found") || message.contains("no data") || message.contains("( 404 )")
+                || message.contains("failed to resolve") || message.contains("invalid accession")) {
+            return Failure.NOT_FOUND;
+        }
+        if (message.contains("timeout") || message.contains("network") || message.contains("connection")
+                || message.contains("unreachable") || message.contains("ssl") || message.contains("tls")) {
+            return Failure.NETWORK;
+        }
+        return Failure.UNKNOWN;
+    }
+
+    synchronized int getWarningCount() {
+        return warningCount;
+    }
+
+    /**
+     * {@link System#nanoTime} of the latest line, or of when the log was created if there hasn't been one
+     */
+    long getLastLineNanos() {
+        return lastLineNanos;
+    }
+
+    synchronized long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * The most recent lines, oldest first
+     */
+    synchronized List<String> getRecentLines(int count) {
+        int kept = (int) Math.min(Math.min(lineCount, MAX_LINES), count);
+        List<String> recent = new ArrayList<>(kept);
+        for (long i = lineCount - kept; i < lineCount; i++) {
+            recent.add(lines[(int) (i % MAX_LINES)]);
+        }
+        return recent;
+    }
+
+    /**
+     * Short description of what went wrong for error messages: the errors fasterq-dump reported, or its last
+     * few lines of output if it reported none
+     */
+    synchronized String summarize(int maxLines) {
+        List<String> shown = errors.isEmpty() ? getRecentLines(maxLines)
+                : errors.subList(0, Math.min(errors.size(), maxLines));
+        StringBuilder summary = new StringBuilder();
+        for (String line : shown) {
+            summary.append(line).append("\n");
+        }
+        if (lineCount > shown.size() && errors.isEmpty()) {
+            summary.insert(0, String.format("(last %d of %d lines)\n", shown.size(), lineCount));
+        }
+        return summary.toString().trim();
+    }
+}
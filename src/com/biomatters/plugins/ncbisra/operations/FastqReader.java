@@ -0,0 +1,347 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import com.biomatters.geneious.publicapi.documents.sequence.NucleotideGraph;
+import com.biomatters.geneious.publicapi.documents.sequence.NucleotideSequenceDocument;
+import com.biomatters.geneious.publicapi.implementations.sequence.DefaultNucleotideGraphSequence;
+import com.biomatters.plugins.ncbisra.metrics.CountingInputStream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams reads out of a FASTQ file with Phred+33 qualities, one record at a time, checking that every record is
+ * well formed. FASTQ is plain ASCII, so lines are read as bytes rather than decoded as characters, and qualities go
+ * straight into one byte per base without an intermediate int array. Reads can be counted into {@link FastqStats}
+ * as they pass. Gzipped files ({@code .gz}), as served by the ENA mirror, are decompressed as they are read.
+ */
+final class FastqReader implements Closeable {
+
+    private static final int PHRED_OFFSET = 33;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Records read from a gzipped file to estimate how many it holds from its compressed size
+    private static final int ESTIMATE_SAMPLE_RECORDS = 4096;
+
+    private final File file;
+    private final InputStream in;
+    private final QualityBinning binning;
+    private FastqStats stats;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private long lineNumber;
+
+    // The current record
+    private final Line header = new Line();
+    private final Line sequence = new Line();
+    private final Line separator = new Line();
+    private final Line qualities = new Line();
+
+    /**
+     * @param binning applied to every quality score, or null to keep them as they are
+     * @param stats counts every read, or null
+     */
+    FastqReader(File file, QualityBinning binning, FastqStats stats) throws IOException {
+        this(file, open(file), binning, stats);
+    }
+
+    private FastqReader(File file, InputStream in, QualityBinning binning, FastqStats stats) {
+        this.file = file;
+        this.in = in;
+        this.binning = binning;
+        this.stats = stats;
+    }
+
+    static boolean isGzipped(File file) {
+        return file.getName().endsWith(".gz");
+    }
+
+    /**
+     * The file's contents, decompressed if it is gzipped
+     */
+    private static InputStream open(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (!isGzipped(file)) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read every sequence in a file
+     */
+    static List<NucleotideSequenceDocument> readAll(File file, QualityBinning binning, FastqStats stats) throws IOException {
+        List<NucleotideSequenceDocument> sequences = new ArrayList<>();
+        try (FastqReader reader = new FastqReader(file, binning, stats)) {
+            NucleotideSequenceDocument sequence;
+            while ((sequence = reader.next()) != null) {
+                sequences.add(sequence);
+            }
+        }
+        return sequences;
+    }
+
+    /**
+     * Validate every record in a file without creating sequences
+     *
+     * @throws IOException if the file can't be read or any record is not valid FASTQ
+     */
+    static void scan(File file, FastqStats stats) throws IOException {
+        try (FastqReader reader = new FastqReader(file, null, stats)) {
+            while (reader.readRecord()) {
+                // Counted by readRecord
+            }
+        }
+    }
+
+    /**
+     * Approximate number of records in a file, from its size and the size of its first record
+     */
+    static long estimateRecords(File file) throws IOException {
+        if (isGzipped(file)) {
+            return estimateGzippedRecords(file);
+        }
+        try (FastqReader reader = new FastqReader(file, null, null)) {
+            if (!reader.readRecord()) {
+                return 0;
+            }
+            long recordBytes = reader.header.length + reader.sequence.length + reader.separator.length
+                    + reader.qualities.length + 4;
+            return file.length() / recordBytes;
+        }
+    }
+
+    /**
+     * Approximate number of records in a gzipped file, from its compressed size and the compressed size of its
+     * first few thousand records
+     */
+    private static long estimateGzippedRecords(File file) throws IOException {
+        CountingInputStream compressed = new CountingInputStream(new FileInputStream(file));
+        try (FastqReader reader = new FastqReader(file, new GZIPInputStream(compressed, BUFFER_SIZE), null, null)) {
+            long records = 0;
+            while (records < ESTIMATE_SAMPLE_RECORDS && reader.readRecord()) {
+                records++;
+            }
+            if (records < ESTIMATE_SAMPLE_RECORDS) {
+                return records;
+            }
+            return file.length() * records / Math.max(1, compressed.getCount());
+        }
+    }
+
+    /**
+     * Whether a file holds FASTA rather than FASTQ, as fasterq-dump writes for runs without qualities
+     */
+    static boolean isFasta(File file) throws IOException {
+        try (InputStream in = open(file)) {
+            return in.read() == '>';
+        }
+    }
+
+    /**
+     * @return the next read, or null at the end of the file
+     * @throws IOException if the file can't be read or the record is not valid FASTQ
+     */
+    NucleotideSequenceDocument next() throws IOException {
+        if (!readRecord()) {
+            return null;
+        }
+        String name = new String(header.bytes, 1, header.length - 1, StandardCharsets.US_ASCII);
+        String bases = new String(sequence.bytes, 0, sequence.length, StandardCharsets.US_ASCII);
+        return new DefaultNucleotideGraphSequence(name, "", bases, null,
+                new QualityGraph(Arrays.copyOf(qualities.bytes, qualities.length)));
+    }
+
+    /**
+     * Count the reads that follow into different statistics, such as those of the next shard
+     */
+    void countInto(FastqStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Read and check the next four-line record. Qualities are left as Phred scores, binned if requested.
+     *
+     * @return false at the end of the file
+     */
+    private boolean readRecord() throws IOException {
+        if (!readLine(header)) {
+            return false;
+        }
+        if (header.length < 2 || header.bytes[0] != '@') {
+            throw malformed(header.length > 0 && header.bytes[0] == '>'
+                    ? "FASTA record in a FASTQ file" : "expected a header line starting with '@'");
+        }
+
+        if (!readLine(sequence)) {
+            throw malformed("the file ends after a header line");
+        }
+        for (int i = 0; i < sequence.length; i++) {
+            byte base = sequence.bytes[i];
+            if (!((base >= 'A' && base <= 'Z') || (base >= 'a' && base <= 'z') || base == '.' || base == '-')) {
+                throw malformed("invalid base '" + (char) base + "'");
+            }
+        }
+
+        if (!readLine(separator) || separator.length == 0 || separator.bytes[0] != '+') {
+            throw malformed("expected a '+' separator line");
+        }
+        if (separator.length > 1 && !separatorMatchesHeader()) {
+            throw malformed("the separator line names a different read than the header");
+        }
+
+        if (!readLine(qualities)) {
+            throw malformed("the file ends before the quality line");
+        }
+        if (qualities.length != sequence.length) {
+            throw malformed(String.format("%d quality scores for %d bases", qualities.length, sequence.length));
+        }
+        byte[] scores = qualities.bytes;
+        for (int i = 0; i < qualities.length; i++) {
+            int quality = scores[i] - PHRED_OFFSET;
+            if (quality < 0 || quality > QualityBinning.MAX_QUALITY) {
+                throw malformed("invalid quality character '" + (char) scores[i] + "'");
+            }
+            scores[i] = (byte) quality;
+        }
+        if (stats != null) {
+            stats.add(sequence.bytes, scores, sequence.length);
+        }
+        if (binning != null) {
+            for (int i = 0; i < qualities.length; i++) {
+                scores[i] = binning.bin(scores[i]);
+            }
+        }
+        return true;
+    }
+
+    private boolean separatorMatchesHeader() {
+        if (separator.length != header.length) {
+            return false;
+        }
+        for (int i = 1; i < header.length; i++) {
+            if (separator.bytes[i] != header.bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IOException malformed(String problem) {
+        return new IOException(String.format("Invalid FASTQ at line %d of %s: %s", lineNumber, file.getName(), problem));
+    }
+
+    /**
+     * Read the next line without its terminator
+     *
+     * @return false at the end of the file
+     */
+    private boolean readLine(Line line) throws IOException {
+        line.length = 0;
+        boolean any = false;
+        while (true) {
+            if (position == limit) {
+                limit = in.read(buffer);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    break;
+                }
+            }
+            any = true;
+            byte b = buffer[position++];
+            if (b == '\n') {
+                break;
+            }
+            line.append(b);
+        }
+        if (!any) {
+            return false;
+        }
+        if (line.length > 0 && line.bytes[line.length - 1] == '\r') {
+            line.length--;
+        }
+        lineNumber++;
+        return true;
+    }
+
+    private static final class Line {
+        byte[] bytes = new byte[256];
+        int length;
+
+        void append(byte b) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = b;
+        }
+    }
+
+    /**
+     * Quality-only graph over one byte per base. Geneious copies it into its own compact form.
+     */
+    private static final class QualityGraph implements NucleotideGraph {
+        private final byte[] qualities;
+
+        QualityGraph(byte[] qualities) {
+            this.qualities = qualities;
+        }
+
+        @Override
+        public int getChromatogramValue(int nucleotide, int position) {
+            throw new IndexOutOfBoundsException("No chromatogram");
+        }
+
+        @Override
+        public boolean hasChromatogramValues(int nucleotide) {
+            return false;
+        }
+
+        @Override
+        public int getChromatogramPositionForResidue(int residue) {
+            throw new IndexOutOfBoundsException("No chromatogram");
+        }
+
+        @Override
+        public boolean hasChromatogramPositionsForResidues() {
+            return false;
+        }
+
+        @Override
+        public int getSequenceQuality(int residue) {
+            return qualities[residue];
+        }
+
+        @Override
+        public boolean hasSequenceQualities() {
+            return true;
+        }
+
+        @Override
+        public int getSequenceLength() {
+            return qualities.length;
+        }
+
+        @Override
+        public int getChromatogramLength() {
+            return 0;
+        }
+    }
+}
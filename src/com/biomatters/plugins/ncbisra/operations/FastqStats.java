@@ -0,0 +1,173 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import com.biomatters.geneious.publicapi.documents.AnnotatedPluginDocument;
+import com.biomatters.geneious.publicapi.documents.DocumentField;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Read statistics gathered while FASTQ files are validated, so that basic QC figures come with the imported
+ * sequence list rather than needing a separate pass over it.
+ */
+final class FastqStats {
+
+    static final DocumentField FIELD_READS = DocumentField.createLongField(
+            "Reads", "Number of reads imported", "sra.fastq.reads", true, false);
+    static final DocumentField FIELD_MEAN_LENGTH = DocumentField.createDoubleField(
+            "Mean Read Length", "Mean read length in bases", "sra.fastq.meanLength", true, false);
+    static final DocumentField FIELD_READ_LENGTHS = DocumentField.createStringField(
+            "Read Lengths", "Minimum, median and maximum read length", "sra.fastq.readLengths", false, false);
+    static final DocumentField FIELD_GC = DocumentField.createDoubleField(
+            "GC %", "GC content of called bases", "sra.fastq.gc", true, false);
+    static final DocumentField FIELD_N = DocumentField.createDoubleField(
+            "N %", "Percentage of bases that are N", "sra.fastq.n", false, false);
+    static final DocumentField FIELD_MEAN_QUALITY = DocumentField.createDoubleField(
+            "Mean Quality", "Mean Phred quality score", "sra.fastq.meanQuality", true, false);
+    static final DocumentField FIELD_Q30 = DocumentField.createDoubleField(
+            "Q30 %", "Percentage of bases with quality 30 or higher", "sra.fastq.q30", false, false);
+
+    private static final int A = 0, C = 1, G = 2, T = 3, N = 4;
+    // Composition slot for each byte; anything but A, C, G and T counts as N
+    private static final byte[] BASE_INDEX = new byte[256];
+
+    static {
+        Arrays.fill(BASE_INDEX, (byte) N);
+        BASE_INDEX['A'] = BASE_INDEX['a'] = A;
+        BASE_INDEX['C'] = BASE_INDEX['c'] = C;
+        BASE_INDEX['G'] = BASE_INDEX['g'] = G;
+        BASE_INDEX['T'] = BASE_INDEX['t'] = T;
+    }
+
+    private long reads;
+    private long bases;
+    private long qualitySum;
+    private long q30Bases;
+    private final long[] composition = new long[5];
+    // Reads by length; lengths beyond the end of the array grow it
+    private long[] lengths = new long[512];
+
+    /**
+     * Count one validated read
+     */
+    void add(byte[] sequence, byte[] qualities, int length) {
+        reads++;
+        bases += length;
+        if (length >= lengths.length) {
+            lengths = Arrays.copyOf(lengths, Math.max(length + 1, lengths.length * 2));
+        }
+        lengths[length]++;
+        long[] composition = this.composition;
+        long qualitySum = 0;
+        int q30Bases = 0;
+        for (int i = 0; i < length; i++) {
+            composition[BASE_INDEX[sequence[i] & 0xff]]++;
+            qualitySum += qualities[i];
+            q30Bases += qualities[i] >= 30 ? 1 : 0;
+        }
+        this.qualitySum += qualitySum;
+        this.q30Bases += q30Bases;
+    }
+
+    void addAll(FastqStats other) {
+        reads += other.reads;
+        bases += other.bases;
+        qualitySum += other.qualitySum;
+        q30Bases += other.q30Bases;
+        for (int i = 0; i < composition.length; i++) {
+            composition[i] += other.composition[i];
+        }
+        if (other.lengths.length > lengths.length) {
+            lengths = Arrays.copyOf(lengths, other.lengths.length);
+        }
+        for (int i = 0; i < other.lengths.length; i++) {
+            lengths[i] += other.lengths[i];
+        }
+    }
+
+    long getReads() {
+        return reads;
+    }
+
+    long getBases() {
+        return bases;
+    }
+
+    double getMeanLength() {
+        return reads > 0 ? (double) bases / reads : 0;
+    }
+
+    int getMinLength() {
+        for (int length = 0; length < lengths.length; length++) {
+            if (lengths[length] > 0) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    int getMaxLength() {
+        for (int length = lengths.length - 1; length >= 0; length--) {
+            if (lengths[length] > 0) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    int getMedianLength() {
+        long seen = 0;
+        for (int length = 0; length < lengths.length; length++) {
+            seen += lengths[length];
+            if (seen * 2 >= reads && reads > 0) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return GC as a percentage of A, C, G and T bases
+     */
+    double getGcPercent() {
+        long called = composition[A] + composition[C] + composition[G] + composition[T];
+        return called > 0 ? 100.0 * (composition[C] + composition[G]) / called : 0;
+    }
+
+    double getNPercent() {
+        return bases > 0 ? 100.0 * composition[N] / bases : 0;
+    }
+
+    double getMeanQuality() {
+        return bases > 0 ? (double) qualitySum / bases : 0;
+    }
+
+    double getQ30Percent() {
+        return bases > 0 ? 100.0 * q30Bases / bases : 0;
+    }
+
+    /**
+     * Record the statistics on an imported document
+     */
+    void applyTo(AnnotatedPluginDocument document) {
+        document.setFieldValue(FIELD_READS, reads);
+        document.setFieldValue(FIELD_MEAN_LENGTH, round(getMeanLength()));
+        document.setFieldValue(FIELD_READ_LENGTHS, String.format(Locale.ROOT, "%d / %d / %d",
+                getMinLength(), getMedianLength(), getMaxLength()));
+        document.setFieldValue(FIELD_GC, round(getGcPercent()));
+        document.setFieldValue(FIELD_N, round(getNPercent()));
+        document.setFieldValue(FIELD_MEAN_QUALITY, round(getMeanQuality()));
+        document.setFieldValue(FIELD_Q30, round(getQ30Percent()));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d reads, %d bases, length %d/%d/%d (min/median/max), GC %.1f%%, N %.2f%%, " +
+                        "mean quality %.1f, Q30 %.1f%%", reads, bases, getMinLength(), getMedianLength(), getMaxLength(),
+                getGcPercent(), getNPercent(), getMeanQuality(), getQ30Percent());
+    }
+}
@@ -0,0 +1,297 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import com.biomatters.geneious.publicapi.plugin.DocumentOperationException;
+import jebl.util.ProgressListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Watches an external process on behalf of a download: stops it, and every process it started, promptly when
+ * the user cancels, when it runs past an optional time limit, or when it stops making progress. A process is
+ * making progress while it writes output or its output directory grows, so a long quiet conversion isn't
+ * mistaken for a stuck one.
+ * <p>
+ * Processes still running when Geneious exits are stopped too, rather than left to fill the disk.
+ */
+final class ProcessSupervisor {
+
+    // How often to check for cancellation and timeouts
+    private static final long POLL_MS = 100;
+    // How often to measure the output directory for the stall check
+    private static final long GROWTH_CHECK_MS = 5000;
+    // Time a process tree gets to exit after being asked to before it is killed
+    private static final long TERMINATE_GRACE_MS = 500;
+
+    private static final Set<Process> RUNNING = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (Process process : RUNNING) {
+                destroyTree(process);
+            }
+        }, "Stop SRA downloads"));
+    }
+
+    enum Outcome {
+        EXITED,
+        CANCELED,
+        TIMED_OUT,
+        STALLED
+    }
+
+    private final Process process;
+    private final File outputDirectory;
+    private final LongSupplier lastOutputNanos;
+    private final long timeLimitMs;
+    private final long stallTimeoutMs;
+    private Outcome outcome;
+
+    /**
+     * @param lastOutputNanos {@link System#nanoTime} of the process's latest line of output
+     * @param timeLimitMs longest the process may run, or 0 for no limit
+     * @param stallTimeoutMs longest the process may go without output or growth of its output directory, or 0
+     */
+    ProcessSupervisor(Process process, File outputDirectory, LongSupplier lastOutputNanos, long timeLimitMs, long stallTimeoutMs) {
+        this.process = process;
+        this.outputDirectory = outputDirectory;
+        this.lastOutputNanos = lastOutputNanos;
+        this.timeLimitMs = timeLimitMs;
+        this.stallTimeoutMs = stallTimeoutMs;
+        RUNNING.add(process);
+    }
+
+    /**
+     * Wait for the process to exit, stopping its whole process tree if the download is cancelled or times out
+     *
+     * @return how the process ended; the exit code is only meaningful for {@link Outcome#EXITED}
+     */
+    Outcome waitFor(ProgressListener progressListener) throws InterruptedException {
+        long start = System.nanoTime();
+        long lastGrowth = start;
+        long lastGrowthCheck = start;
+        long lastSize = -1;
+        try {
+            while (!process.waitFor(POLL_MS, TimeUnit.MILLISECONDS)) {
+                long now = System.nanoTime();
+                if (progressListener.isCanceled()) {
+                    return stop(Outcome.CANCELED);
+                }
+                if (timeLimitMs > 0 && now - start > TimeUnit.MILLISECONDS.toNanos(timeLimitMs)) {
+                    return stop(Outcome.TIMED_OUT);
+                }
+                if (stallTimeoutMs > 0) {
+                    if (now - lastGrowthCheck > TimeUnit.MILLISECONDS.toNanos(GROWTH_CHECK_MS)) {
+                        lastGrowthCheck = now;
+                        long size = directorySize(outputDirectory.toPath());
+                        if (size != lastSize) {
+                            lastSize = size;
+                            lastGrowth = now;
+                        }
+                    }
+                    long lastActivity = Math.max(lastGrowth, lastOutputNanos.getAsLong());
+                    if (now - lastActivity > TimeUnit.MILLISECONDS.toNanos(stallTimeoutMs)) {
+                        return stop(Outcome.STALLED);
+                    }
+                }
+            }
+            outcome = Outcome.EXITED;
+            return outcome;
+        } catch (InterruptedException e) {
+            stop(Outcome.CANCELED);
+            throw e;
+        } finally {
+            RUNNING.remove(process);
+        }
+    }
+
+    private Outcome stop(Outcome reason) {
+        outcome = reason;
+        destroyTree(process);
+        return reason;
+    }
+
+    /**
+     * Ask the process and all its descendants to exit, then kill whatever is left once the grace period is over.
+     * Descendants can only be found on Java 9 and later; on Java 8 just the process itself is stopped.
+     */
+    static void destroyTree(Process process) {
+        ProcessTree tree = ProcessTree.of(process);
+        if (tree == null) {
+            process.destroy();
+            try {
+                if (!process.waitFor(TERMINATE_GRACE_MS, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        tree.destroy();
+    }
+
+    /**
+     * A process and its descendants as {@code java.lang.ProcessHandle}s, which are reached reflectively because
+     * the plugin still runs on Java 8
+     */
+    private static final class ProcessTree {
+        private static final Method DESCENDANTS;
+        private static final Method TO_HANDLE;
+        private static final Method DESTROY;
+        private static final Method DESTROY_FORCIBLY;
+        private static final Method IS_ALIVE;
+        private static final Method ON_EXIT;
+
+        static {
+            Method descendants = null;
+            Method toHandle = null;
+            Method destroy = null;
+            Method destroyForcibly = null;
+            Method isAlive = null;
+            Method onExit = null;
+            try {
+                Class<?> handleClass = Class.forName("java.lang.ProcessHandle");
+                descendants = Process.class.getMethod("descendants");
+                toHandle = Process.class.getMethod("toHandle");
+                destroy = handleClass.getMethod("destroy");
+                destroyForcibly = handleClass.getMethod("destroyForcibly");
+                isAlive = handleClass.getMethod("isAlive");
+                onExit = handleClass.getMethod("onExit");
+            } catch (ClassNotFoundException | NoSuchMethodException e) {
+                // Java 8
+                descendants = null;
+            }
+            DESCENDANTS = descendants;
+            TO_HANDLE = toHandle;
+            DESTROY = destroy;
+            DESTROY_FORCIBLY = destroyForcibly;
+            IS_ALIVE = isAlive;
+            ON_EXIT = onExit;
+        }
+
+        private final List<Object> handles;
+
+        private ProcessTree(List<Object> handles) {
+            this.handles = handles;
+        }
+
+        /**
+         * @return the process tree, or null if it can't be walked on this Java version
+         */
+        static ProcessTree of(Process process) {
+            if (DESCENDANTS == null) {
+                return null;
+            }
+            try {
+                // Take the descendants first: once the parent is gone they can no longer be found through it
+                List<Object> handles;
+                try (Stream<?> descendants = (Stream<?>) DESCENDANTS.invoke(process)) {
+                    handles = descendants.collect(Collectors.toList());
+                }
+                handles.add(TO_HANDLE.invoke(process));
+                return new ProcessTree(handles);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        void destroy() {
+            for (Object handle : handles) {
+                invoke(DESTROY, handle);
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TERMINATE_GRACE_MS);
+            for (Object handle : handles) {
+                long remaining = deadline - System.nanoTime();
+                try {
+                    if (remaining > 0) {
+                        ((CompletableFuture<?>) ON_EXIT.invoke(handle)).get(remaining, TimeUnit.NANOSECONDS);
+                    }
+                } catch (Exception e) {
+                    // Killed below
+                }
+                if (Boolean.TRUE.equals(invoke(IS_ALIVE, handle))) {
+                    invoke(DESTROY_FORCIBLY, handle);
+                }
+            }
+        }
+
+        private static Object invoke(Method method, Object handle) {
+            try {
+                return method.invoke(handle);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Turn a download that didn't exit by itself into the exception to report
+     */
+    DocumentOperationException failure(String accession) {
+        switch (outcome) {
+            case CANCELED:
+                return new DocumentOperationException.Canceled();
+            case TIMED_OUT:
+                return new DocumentOperationException(String.format("fasterq-dump for %s was stopped after running for " +
+                        "the time limit of %s", accession, formatDuration(timeLimitMs)));
+            case STALLED:
+                return new DocumentOperationException(String.format("fasterq-dump for %s was stopped after making no " +
+                        "progress for %s", accession, formatDuration(stallTimeoutMs)));
+            default:
+                throw new IllegalStateException("The process exited normally");
+        }
+    }
+
+    /**
+     * Delete what a stopped process left in its output directory
+     *
+     * @return a description of what was removed, or null if there was nothing
+     */
+    static String removePartialOutput(File directory) {
+        long bytes = directorySize(directory.toPath());
+        File[] files = directory.listFiles();
+        if (files == null || files.length == 0) {
+            return null;
+        }
+        int removed = 0;
+        for (File file : files) {
+            try (Stream<Path> paths = Files.walk(file.toPath())) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.deleteIfExists(path);
+                }
+                removed++;
+            } catch (IOException e) {
+                System.err.println("Warning: Could not delete partial download " + file + ": " + e.getMessage());
+            }
+        }
+        return String.format("%d partial file(s), %s", removed, ScratchPlanner.formatSize(bytes));
+    }
+
+    private static String formatDuration(long millis) {
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(millis);
+        return seconds % 60 == 0 ? seconds / 60 + " minute(s)" : seconds + " second(s)";
+    }
+
+    private static long directorySize(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        } catch (IOException | RuntimeException e) {
+            // Files come and go while fasterq-dump runs; the next check will see them
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import com.biomatters.geneious.publicapi.documents.DocumentField;
+
+/**
+ * Maps Phred quality scores onto a small set of representative values. Most downstream tools only distinguish
+ * a handful of quality levels, and binned qualities compress far better than full-resolution ones.
+ * <p>
+ * Tables are written as comma-separated {@code low-high:value} ranges, e.g. {@code 2-9:6,10-19:15}. Scores
+ * outside every range are kept as they are.
+ */
+final class QualityBinning {
+
+    /**
+     * Recorded on imported documents so that it is clear their qualities are not the originals
+     */
+    static final DocumentField FIELD_QUALITY_BINNING = DocumentField.createStringField(
+            "Quality Binning", "Quality score binning applied on import", "sra.qualityBinning");
+
+    static final int MAX_QUALITY = 93;
+
+    /**
+     * Illumina's 8-level scheme as used by RTA/bcl2fastq; Q0 and Q1 (no-calls) are left alone
+     */
+    static final QualityBinning ILLUMINA_8_LEVEL = parse("Illumina 8-level",
+            "2-9:6,10-19:15,20-24:22,25-29:27,30-34:33,35-39:37,40-93:40");
+
+    private final String name;
+    private final String table;
+    private final byte[] bins = new byte[MAX_QUALITY + 1];
+
+    private QualityBinning(String name, String table) {
+        this.name = name;
+        this.table = table;
+        for (int quality = 0; quality <= MAX_QUALITY; quality++) {
+            bins[quality] = (byte) quality;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the table is not a list of valid ranges
+     */
+    static QualityBinning parse(String name, String table) {
+        QualityBinning binning = new QualityBinning(name, table.trim());
+        for (String range : table.split(",")) {
+            if (range.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = range.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected low-high:value but found \"" + range.trim() + "\"");
+            }
+            String[] bounds = parts[0].trim().split("-");
+            try {
+                int low = Integer.parseInt(bounds[0].trim());
+                int high = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : low;
+                int value = Integer.parseInt(parts[1].trim());
+                if (bounds.length > 2 || low < 0 || high > MAX_QUALITY || low > high || value < 0 || value > MAX_QUALITY) {
+                    throw new IllegalArgumentException("Quality range \"" + range.trim() + "\" must lie within 0-" + MAX_QUALITY);
+                }
+                for (int quality = low; quality <= high; quality++) {
+                    binning.bins[quality] = (byte) value;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected low-high:value but found \"" + range.trim() + "\"");
+            }
+        }
+        return binning;
+    }
+
+    /**
+     * @param quality a Phred score from 0 to {@value #MAX_QUALITY}
+     */
+    byte bin(int quality) {
+        return bins[quality];
+    }
+
+    /**
+     * Name and table, as recorded on imported documents
+     */
+    String getDescription() {
+        return name + " (" + table + ")";
+    }
+
+    @Override
+    public String toString() {
+        return getDescription();
+    }
+}
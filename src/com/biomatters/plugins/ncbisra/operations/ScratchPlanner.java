@@ -0,0 +1,345 @@
+package com.biomatters.plugins.ncbisra.operations;
+
+import com.biomatters.plugins.ncbisra.model.SraRecord;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses where fasterq-dump writes each download, before it starts, from the size of the run and the free
+ * space on the candidate volumes. Space is reserved while a download runs so that concurrent downloads don't
+ * count on the same free space, and the fastest volume with room is preferred.
+ * <p>
+ * Candidates are the job directory, any directories listed in the {@value #DIRECTORIES_PROPERTY} system
+ * property (separated by the platform path separator) and the system temp directory, one per volume.
+ * <p>
+ * Runs of known size that fit in half the available memory are written to a memory-backed file system instead
+ * ({@code /dev/shm} on Linux, or the directory in the {@value #MEMORY_PROPERTY} system property, which can also
+ * be {@code off}), so small runs never touch persistent storage and the importer reads them back from memory.
+ */
+class ScratchPlanner {
+
+    static final String DIRECTORIES_PROPERTY = "ncbi.sra.scratch.dirs";
+    static final String MEMORY_PROPERTY = "ncbi.sra.scratch.memory";
+
+    private static final File LINUX_SHARED_MEMORY = new File("/dev/shm");
+    private static final File LINUX_MEMINFO = new File("/proc/meminfo");
+    // Memory scratch may use at most this share of the memory available, leaving the rest to Geneious and the system
+    private static final double MEMORY_SCRATCH_FRACTION = 0.5;
+
+    // fasterq-dump needs temporary space of about 1.5 times its output on top of the output itself
+    private static final double FASTERQ_TEMP_FACTOR = 1.5;
+    // Never plan to fill a volume completely
+    private static final long FREE_SPACE_MARGIN = 1024L * 1024 * 1024;
+    private static final int SPEED_PROBE_BYTES = 8 * 1024 * 1024;
+
+    // In-flight reservations and measured write speeds, shared by every download in this Geneious session
+    private static final Map<FileStore, AtomicLong> RESERVED = new ConcurrentHashMap<>();
+    private static final Map<FileStore, Double> WRITE_SPEEDS = new ConcurrentHashMap<>();
+
+    /**
+     * Expected disk use for one run. Sizes are 0 when the run's size isn't known.
+     */
+    static final class Estimate {
+        final long fastqBytes;
+        final long scratchBytes;
+        final long importedBytes;
+
+        Estimate(long fastqBytes, long scratchBytes, long importedBytes) {
+            this.fastqBytes = fastqBytes;
+            this.scratchBytes = scratchBytes;
+            this.importedBytes = importedBytes;
+        }
+
+        boolean isKnown() {
+            return scratchBytes > 0;
+        }
+    }
+
+    /**
+     * Space set aside on a volume for one download, released when closed
+     */
+    static final class Reservation implements Closeable {
+        private final File directory;
+        private final FileStore store;
+        private final long bytes;
+        private final boolean inMemory;
+        private boolean released;
+
+        private Reservation(File directory, FileStore store, long bytes, boolean inMemory) {
+            this.directory = directory;
+            this.store = store;
+            this.bytes = bytes;
+            this.inMemory = inMemory;
+            RESERVED.computeIfAbsent(store, s -> new AtomicLong()).addAndGet(bytes);
+        }
+
+        File getDirectory() {
+            return directory;
+        }
+
+        /**
+         * Whether the directory is on a memory-backed file system, whose files should be deleted as soon as
+         * they have been imported
+         */
+        boolean isInMemory() {
+            return inMemory;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                RESERVED.get(store).addAndGet(-bytes);
+            }
+        }
+    }
+
+    private final Map<FileStore, File> candidates = new LinkedHashMap<>();
+    private FileStore memoryStore;
+    private File memoryDirectory;
+
+    /**
+     * @param jobDirectory the job's own directory, which is always a candidate
+     * @param useMemory whether runs that fit in memory may be written to a memory-backed file system
+     */
+    ScratchPlanner(File jobDirectory, boolean useMemory) {
+        addCandidate(jobDirectory);
+        String configured = System.getProperty(DIRECTORIES_PROPERTY);
+        if (configured != null) {
+            for (String directory : configured.split(File.pathSeparator)) {
+                if (!directory.trim().isEmpty()) {
+                    addCandidate(new File(directory.trim(), "geneious-sra-" + jobDirectory.getName()));
+                }
+            }
+        }
+        addCandidate(new File(System.getProperty("java.io.tmpdir"), "geneious-sra-" + jobDirectory.getName()));
+        File memoryRoot = useMemory ? getMemoryRoot() : null;
+        if (memoryRoot != null) {
+            try {
+                memoryStore = Files.getFileStore(memoryRoot.toPath());
+                memoryDirectory = new File(memoryRoot, "geneious-sra-" + jobDirectory.getName());
+            } catch (IOException e) {
+                System.err.println("Not using memory for scratch space in " + memoryRoot + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The memory-backed directory to use, or null if there isn't one or it has been turned off
+     */
+    private static File getMemoryRoot() {
+        String configured = System.getProperty(MEMORY_PROPERTY, "").trim();
+        if (configured.equalsIgnoreCase("off") || configured.equalsIgnoreCase("false")) {
+            return null;
+        }
+        File root = configured.isEmpty() ? LINUX_SHARED_MEMORY : new File(configured);
+        return root.isDirectory() && root.canWrite() ? root : null;
+    }
+
+    private void addCandidate(File directory) {
+        try {
+            FileStore store = Files.getFileStore(existingAncestor(directory.toPath()));
+            candidates.putIfAbsent(store, directory);
+        } catch (IOException e) {
+            System.err.println("Ignoring scratch directory " + directory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Estimate FASTQ, scratch and imported sizes from the run's base and spot counts. FASTQ holds a base and a
+     * quality character per base plus a header and separator line per read; the imported sequence list keeps
+     * a byte each for bases and qualities plus the read names.
+     */
+    static Estimate estimate(String accession, SraRecord record) {
+        if (record == null || record.getTotalBases() <= 0) {
+            return new Estimate(0, 0, 0);
+        }
+        long bases = record.getTotalBases();
+        long spots = Math.max(1, record.getTotalSpots());
+        long reads = record.isPairedEnd() ? spots * 2 : spots;
+        int headerBytes = accession.length() + 2 * Long.toString(spots).length() + 16;
+        long fastqBytes = 2 * bases + reads * (2L * headerBytes + 4);
+        long scratchBytes = (long) (fastqBytes * (1 + FASTERQ_TEMP_FACTOR));
+        long importedBytes = 2 * bases + reads * headerBytes;
+        return new Estimate(fastqBytes, scratchBytes, importedBytes);
+    }
+
+    /**
+     * Reserve room for a download on the fastest candidate volume that has it. A download of unknown size goes
+     * to the volume with the most free space.
+     *
+     * @return the reservation, or null if no volume currently has room
+     */
+    Reservation reserve(String accession, Estimate estimate) throws IOException {
+        synchronized (RESERVED) {
+            if (memoryStore != null && estimate.isKnown() && estimate.scratchBytes <= getFreeMemory()) {
+                File directory = new File(memoryDirectory, accession);
+                Files.createDirectories(directory.toPath());
+                return new Reservation(directory, memoryStore, estimate.scratchBytes, true);
+            }
+            FileStore best = null;
+            double bestScore = -1;
+            for (Map.Entry<FileStore, File> candidate : candidates.entrySet()) {
+                long free = getFreeSpace(candidate.getKey());
+                if (free < estimate.scratchBytes) {
+                    continue;
+                }
+                double score = estimate.isKnown() ? getWriteSpeed(candidate.getKey(), candidate.getValue()) : free;
+                if (score > bestScore) {
+                    best = candidate.getKey();
+                    bestScore = score;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            File directory = new File(candidates.get(best), accession);
+            Files.createDirectories(directory.toPath());
+            return new Reservation(directory, best, estimate.scratchBytes, false);
+        }
+    }
+
+    /**
+     * Usable space on the volume with the most, after other downloads' reservations and a safety margin
+     */
+    long getLargestFreeSpace() {
+        long largest = 0;
+        for (FileStore store : candidates.keySet()) {
+            largest = Math.max(largest, getFreeSpace(store));
+        }
+        return largest;
+    }
+
+    /**
+     * Memory scratch space still available to downloads: the smaller of the memory file system's free space and
+     * the permitted share of available memory, less other downloads' reservations
+     */
+    long getFreeMemory() {
+        if (memoryStore == null) {
+            return 0;
+        }
+        long available = getAvailableMemory();
+        if (available <= 0) {
+            return 0;
+        }
+        try {
+            AtomicLong reserved = RESERVED.get(memoryStore);
+            long free = Math.min(memoryStore.getUsableSpace(), (long) (available * MEMORY_SCRATCH_FRACTION));
+            return free - (reserved != null ? reserved.get() : 0);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    File getMemoryDirectory() {
+        return memoryDirectory;
+    }
+
+    /**
+     * Memory the system can give to new data without swapping, from {@code MemAvailable} in /proc/meminfo
+     * where there is one and the free physical memory otherwise
+     */
+    // getFreePhysicalMemorySize is deprecated from JDK 14, but its replacement getFreeMemorySize doesn't exist on 8
+    @SuppressWarnings("deprecation")
+    private static long getAvailableMemory() {
+        if (LINUX_MEMINFO.canRead()) {
+            try {
+                for (String line : Files.readAllLines(LINUX_MEMINFO.toPath())) {
+                    if (line.startsWith("MemAvailable:")) {
+                        return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Fall back to the JVM's view below
+            }
+        }
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+        }
+        return 0;
+    }
+
+    List<File> getCandidateDirectories() {
+        return new ArrayList<>(candidates.values());
+    }
+
+    /**
+     * Whether any download in this session is holding reserved space that it will give back
+     */
+    static boolean hasOutstandingReservations() {
+        for (AtomicLong reserved : RESERVED.values()) {
+            if (reserved.get() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String formatSize(long bytes) {
+        if (bytes >= 1000L * 1000 * 1000) {
+            return String.format(Locale.ROOT, "%.1f GB", bytes / 1e9);
+        }
+        return String.format(Locale.ROOT, "%.0f MB", Math.max(0, bytes) / 1e6);
+    }
+
+    private static long getFreeSpace(FileStore store) {
+        try {
+            AtomicLong reserved = RESERVED.get(store);
+            return store.getUsableSpace() - FREE_SPACE_MARGIN - (reserved != null ? reserved.get() : 0);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Sequential write speed in bytes per second, measured once per volume by writing and syncing a small file
+     */
+    private static double getWriteSpeed(FileStore store, File directory) {
+        return WRITE_SPEEDS.computeIfAbsent(store, s -> {
+            try {
+                Files.createDirectories(directory.toPath());
+                Path probe = Files.createTempFile(directory.toPath(), "speed", ".tmp");
+                try (RandomAccessFile file = new RandomAccessFile(probe.toFile(), "rw");
+                     FileChannel channel = file.getChannel()) {
+                    ByteBuffer buffer = ByteBuffer.allocate(SPEED_PROBE_BYTES);
+                    long start = System.nanoTime();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                    return SPEED_PROBE_BYTES / Math.max(1e-6, (System.nanoTime() - start) / 1e9);
+                } finally {
+                    Files.deleteIfExists(probe);
+                }
+            } catch (IOException e) {
+                return 0.0;
+            }
+        });
+    }
+
+    private static Path existingAncestor(Path path) {
+        Path existing = path.toAbsolutePath();
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        return existing != null ? existing : path.toAbsolutePath().getRoot();
+    }
+}
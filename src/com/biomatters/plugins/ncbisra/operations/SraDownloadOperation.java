@@ -1,5 +1,8 @@
 package com.biomatters.plugins.ncbisra.operations;
 
+import com.biomatters.geneious.publicapi.components.Dialogs;
+import com.biomatters.geneious.publicapi.databaseservice.DatabaseServiceException;
+import com.biomatters.geneious.publicapi.databaseservice.WritableDatabaseService;
 import com.biomatters.geneious.publicapi.documents.AnnotatedPluginDocument;
 import com.biomatters.geneious.publicapi.documents.DocumentUtilities;
 import com.biomatters.geneious.publicapi.documents.PluginDocument;
@@ -9,16 +12,23 @@ import com.biomatters.geneious.publicapi.implementations.PairedReadManager;
 import com.biomatters.geneious.publicapi.implementations.sequence.DefaultNucleotideSequence;
 import com.biomatters.geneious.publicapi.implementations.sequence.DefaultNucleotideGraphSequence;
 import com.biomatters.geneious.publicapi.plugin.*;
+import com.biomatters.plugins.ncbisra.api.EUtilsRequest;
+import com.biomatters.plugins.ncbisra.api.NcbiEUtilsClient;
 import com.biomatters.plugins.ncbisra.binary.FasterqDumpBinaryManager;
+import com.biomatters.plugins.ncbisra.jfr.FastqImportEvent;
+import com.biomatters.plugins.ncbisra.jfr.SraDownloadEvent;
+import com.biomatters.plugins.ncbisra.metrics.SraMetrics;
 import com.biomatters.plugins.ncbisra.model.SraDocument;
 import com.biomatters.plugins.ncbisra.model.SraRecord;
 import jebl.util.ProgressListener;
 
+import java.awt.GraphicsEnvironment;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * DocumentOperation for downloading SRA data using fasterq-dump and importing as FASTQ files
@@ -35,6 +45,50 @@ public class SraDownloadOperation extends DocumentOperation {
     
     // Option keys
     private static final String OPTION_SPLIT_FILES = "splitFiles";
+    private static final String OPTION_QUALITY_BINNING = "qualityBinning";
+    private static final String OPTION_BINNING_TABLE = "binningTable";
+    private static final String OPTION_SHARD_READS = "shardReads";
+    private static final String OPTION_SCHEDULING = "scheduling";
+    private static final String OPTION_DISK_BUDGET = "diskBudget";
+    private static final String OPTION_BACKGROUND = "background";
+    private static final String OPTION_PRIORITY = "priority";
+    private static final String OPTION_TIME_LIMIT = "timeLimit";
+    private static final String OPTION_STALL_TIMEOUT = "stallTimeout";
+    private static final String OPTION_MEMORY_SCRATCH = "memoryScratch";
+    private static final String OPTION_SOURCE = "source";
+    
+    // Runs with more reads than this are split into several sequence lists by default
+    private static final int DEFAULT_SHARD_READS = 2000000;
+    // fasterq-dump is stopped by default if it writes nothing, to its output or to disk, for this long
+    private static final int DEFAULT_STALL_TIMEOUT_MINUTES = 30;
+    
+    private static final Options.OptionValue BINNING_NONE = new Options.OptionValue("none", "None (keep original qualities)");
+    private static final Options.OptionValue BINNING_ILLUMINA = new Options.OptionValue("illumina8", "Illumina 8-level");
+    private static final Options.OptionValue BINNING_CUSTOM = new Options.OptionValue("custom", "Custom table");
+    
+    private static final Options.OptionValue SCHEDULE_AS_SELECTED = new Options.OptionValue("asSelected", "In selection order");
+    private static final Options.OptionValue SCHEDULE_SHORTEST = new Options.OptionValue("shortestFirst", "Smallest runs first");
+    private static final Options.OptionValue SCHEDULE_LARGEST = new Options.OptionValue("largestFirst", "Largest runs first");
+    private static final Options.OptionValue SCHEDULE_FIT = new Options.OptionValue("fitToDisk", "Smallest first, within a disk budget");
+    
+    private static final Options.OptionValue PRIORITY_HIGH = new Options.OptionValue("HIGH", "High");
+    private static final Options.OptionValue PRIORITY_NORMAL = new Options.OptionValue("NORMAL", "Normal");
+    private static final Options.OptionValue PRIORITY_LOW = new Options.OptionValue("LOW", "Low");
+    
+    private static final Options.OptionValue SOURCE_NCBI = new Options.OptionValue("ncbi", "NCBI SRA (fasterq-dump)");
+    private static final Options.OptionValue SOURCE_ENA = new Options.OptionValue("ena", "ENA FASTQ mirror, falling back to NCBI");
+    
+    // Metadata lookups run alongside downloads; cancellation is checked this often while waiting
+    private static final long METADATA_TIMEOUT_MS = 60000;
+    private static final long CANCEL_POLL_MS = 100;
+    // How often a download waiting for disk space checks whether other downloads have freed some
+    private static final long SCRATCH_POLL_MS = 1000;
+    // How long to wait for the rest of fasterq-dump's output once it has exited
+    private static final long OUTPUT_DRAIN_MS = 1000;
+    // fasterq-dump output included in error messages
+    private static final int MAX_OUTPUT_LINES_SHOWN = 20;
+    
+    private static final int MAX_FAILURES_SHOWN = 10;
     
     @Override
     public String getUniqueId() {
@@ -72,14 +126,189 @@ public class SraDownloadOperation extends DocumentOperation {
             return options;
         }
         
-        // Return null to skip the dialog and use default options
-        // This makes the download start immediately without showing a dialog
+        Options options = new Options(this.getClass());
+        Options.ComboBoxOption<Options.OptionValue> binning = options.addComboBoxOption(OPTION_QUALITY_BINNING,
+                "Quality score binning:", new Options.OptionValue[] {BINNING_NONE, BINNING_ILLUMINA, BINNING_CUSTOM}, BINNING_NONE);
+        binning.setDescription("Reduce quality scores to a few levels while importing. Binned sequence lists take " +
+                "much less disk space, but the original qualities are not kept.");
+        Options.StringOption table = options.addStringOption(OPTION_BINNING_TABLE, "Custom bins:",
+                "0-9:6,10-19:15,20-29:25,30-93:37");
+        table.setDescription("Comma-separated low-high:value ranges of Phred scores; scores outside every range are kept");
+        binning.addDependent(table, BINNING_CUSTOM);
+        Options.IntegerOption shardReads = options.addIntegerOption(OPTION_SHARD_READS, "Reads per sequence list:",
+                DEFAULT_SHARD_READS, 0, Integer.MAX_VALUE);
+        shardReads.setDescription("Runs with more reads are split into several sequence lists, saved as they are read, " +
+                "in a folder named after the run. 0 imports every run as a single list.");
+        Options.ComboBoxOption<Options.OptionValue> scheduling = options.addComboBoxOption(OPTION_SCHEDULING,
+                "Download order:", new Options.OptionValue[] {SCHEDULE_SHORTEST, SCHEDULE_LARGEST, SCHEDULE_FIT, SCHEDULE_AS_SELECTED},
+                SCHEDULE_SHORTEST);
+        scheduling.setDescription("Order of the downloads, by each run's size. Smallest first makes most runs of a " +
+                "mixed batch available soonest; within a disk budget also leaves out runs that would not fit.");
+        Options.IntegerOption diskBudget = options.addIntegerOption(OPTION_DISK_BUDGET, "Disk budget (GB):", 0, 0, Integer.MAX_VALUE);
+        diskBudget.setDescription("Estimated disk space the batch may use. 0 uses the free space on the download volume.");
+        scheduling.addDependent(diskBudget, SCHEDULE_FIT);
+        Options.IntegerOption timeLimit = options.addIntegerOption(OPTION_TIME_LIMIT, "Time limit per run (minutes):",
+                0, 0, Integer.MAX_VALUE);
+        timeLimit.setDescription("Stop a run's download if it takes longer than this. 0 for no limit.");
+        Options.IntegerOption stallTimeout = options.addIntegerOption(OPTION_STALL_TIMEOUT, "Stop stalled runs after (minutes):",
+                DEFAULT_STALL_TIMEOUT_MINUTES, 0, Integer.MAX_VALUE);
+        stallTimeout.setDescription("Stop a run's download if fasterq-dump neither reports progress nor writes any " +
+                "data for this long. 0 to wait indefinitely.");
+        Options.ComboBoxOption<Options.OptionValue> source = options.addComboBoxOption(OPTION_SOURCE, "Download from:",
+                new Options.OptionValue[] {SOURCE_NCBI, SOURCE_ENA}, SOURCE_NCBI);
+        source.setDescription("The ENA mirror serves most runs as ready-made gzipped FASTQ, fetched over several " +
+                "connections at once, which is often much faster than converting with fasterq-dump. Runs ENA doesn't " +
+                "have, or that fail to download from it, are downloaded from NCBI.");
+        Options.BooleanOption memoryScratch = options.addBooleanOption(OPTION_MEMORY_SCRATCH,
+                "Download runs that fit in memory to memory", true);
+        memoryScratch.setDescription("Write fasterq-dump's files for runs that fit in half the available memory to a " +
+                "memory-backed file system (/dev/shm on Linux) instead of disk, and delete them once imported.");
+        Options.BooleanOption background = options.addBooleanOption(OPTION_BACKGROUND, "Download in the background queue", false);
+        background.setDescription("Add the runs to the SRA download queue and carry on working. The queue keeps " +
+                "downloading after this dialog closes and picks up where it left off when Geneious restarts.");
+        Options.ComboBoxOption<Options.OptionValue> priority = options.addComboBoxOption(OPTION_PRIORITY, "Queue priority:",
+                new Options.OptionValue[] {PRIORITY_HIGH, PRIORITY_NORMAL, PRIORITY_LOW}, PRIORITY_NORMAL);
+        background.addDependent(priority, true);
+        return options;
+    }
+    
+    /**
+     * The quality binning chosen in the options, or null for none
+     */
+    private static QualityBinning getQualityBinning(Options options) throws DocumentOperationException {
+        Object value = options != null ? options.getValue(OPTION_QUALITY_BINNING) : null;
+        String choice = value instanceof Options.OptionValue ? ((Options.OptionValue) value).getName() : null;
+        if (BINNING_ILLUMINA.getName().equals(choice)) {
+            return QualityBinning.ILLUMINA_8_LEVEL;
+        }
+        if (BINNING_CUSTOM.getName().equals(choice)) {
+            try {
+                return QualityBinning.parse("Custom", String.valueOf(options.getValue(OPTION_BINNING_TABLE)));
+            } catch (IllegalArgumentException e) {
+                throw new DocumentOperationException("Invalid quality binning table: " + e.getMessage(), e);
+            }
+        }
         return null;
     }
     
+    /**
+     * The download order chosen in the options; smallest runs first by default
+     */
+    static BatchScheduler.Order getSchedulingOrder(Options options) {
+        Object value = options != null ? options.getValue(OPTION_SCHEDULING) : null;
+        String choice = value instanceof Options.OptionValue ? ((Options.OptionValue) value).getName() : null;
+        if (SCHEDULE_AS_SELECTED.getName().equals(choice)) {
+            return BatchScheduler.Order.AS_SELECTED;
+        }
+        if (SCHEDULE_LARGEST.getName().equals(choice)) {
+            return BatchScheduler.Order.LARGEST_FIRST;
+        }
+        if (SCHEDULE_FIT.getName().equals(choice)) {
+            return BatchScheduler.Order.FIT_TO_DISK_BUDGET;
+        }
+        return BatchScheduler.Order.SHORTEST_FIRST;
+    }
+    
+    /**
+     * The disk budget chosen in the options in bytes, or 0 to use the free space on the download volume
+     */
+    static long getDiskBudget(Options options) {
+        if (options != null && options.getValue(OPTION_DISK_BUDGET) != null) {
+            return (Integer) options.getValue(OPTION_DISK_BUDGET) * 1000L * 1000 * 1000;
+        }
+        return 0;
+    }
+    
+    private static long getMinutes(Options options, String option, int defaultMinutes) {
+        int minutes = defaultMinutes;
+        if (options != null && options.getValue(option) != null) {
+            minutes = (Integer) options.getValue(option);
+        }
+        return TimeUnit.MINUTES.toMillis(minutes);
+    }
+    
+    private static DownloadQueue.Priority getPriority(Options options) {
+        Object value = options.getValue(OPTION_PRIORITY);
+        if (value instanceof Options.OptionValue) {
+            return DownloadQueue.Priority.valueOf(((Options.OptionValue) value).getName());
+        }
+        return DownloadQueue.Priority.NORMAL;
+    }
+    
     @Override
     public List<AnnotatedPluginDocument> performOperation(AnnotatedPluginDocument[] documents, 
             ProgressListener progressListener, Options options) throws DocumentOperationException {
+        return download(getAccessions(documents), progressListener, options, null);
+    }
+    
+    /**
+     * Geneious calls this variant, which lets each accession's documents, and each shard of a large run, be saved
+     * as soon as they are imported
+     */
+    // Deprecated, but the only overload in this API version that exposes an OperationCallback
+    @SuppressWarnings("deprecation")
+    @Override
+    public void performOperation(AnnotatedPluginDocument[] documents, ProgressListener progressListener, Options options,
+            SequenceSelection sequenceSelection, OperationCallback callback) throws DocumentOperationException {
+        Map<String, SraRecord> accessions = getAccessions(documents);
+        if (options != null && Boolean.TRUE.equals(options.getValue(OPTION_BACKGROUND))) {
+            // The queue saves into the folder the results would have gone to
+            WritableDatabaseService destination = ServiceUtilities.getResultsDestination();
+            DownloadQueue.getInstance().enqueue(accessions, options, getPriority(options), destination);
+            progressListener.setMessage(String.format("Queued %d run(s) for download", accessions.size()));
+            progressListener.setProgress(1.0);
+            return;
+        }
+        for (AnnotatedPluginDocument document : download(accessions, progressListener, options, callback)) {
+            callback.addDocument(document, false, ProgressListener.EMPTY);
+        }
+    }
+    
+    /**
+     * Accessions of the selected SRA documents, in selection order, with their metadata where the documents have it
+     */
+    private static Map<String, SraRecord> getAccessions(AnnotatedPluginDocument[] documents) throws DocumentOperationException {
+        Map<String, SraRecord> accessions = new LinkedHashMap<>();
+        for (AnnotatedPluginDocument document : documents) {
+            if (!(document.getDocument() instanceof SraDocument)) {
+                System.out.println("Skipping non-SRA document: " + 
+                    (document.getDocument() != null ? document.getDocument().getClass().getName() : "null"));
+                continue; // Skip non-SRA documents
+            }
+            
+            SraDocument sraDoc = (SraDocument) document.getDocument();
+            SraRecord sraRecord = sraDoc.getSraRecord();
+            
+            // If no SraRecord, try to extract accession from document name
+            String accession = null;
+            if (sraRecord != null && sraRecord.getAccession() != null) {
+                accession = sraRecord.getAccession();
+            } else if (sraDoc.getName() != null && !sraDoc.getName().equals("Unknown SRA")) {
+                // Document name should be the accession
+                accession = sraDoc.getName();
+                System.out.println("Using document name as accession: " + accession);
+            }
+            
+            if (accession == null) {
+                System.out.println("Skipping document without valid accession");
+                continue; // Skip documents without valid accession
+            }
+            if (accessions.get(accession) == null) {
+                accessions.put(accession, sraRecord);
+            }
+        }
+        return accessions;
+    }
+    
+    /**
+     * Download and import a batch of runs. The job journal is keyed by the accessions.
+     *
+     * @param accessions runs to download, with their metadata or null where it still has to be looked up
+     * @param callback saves documents as they are produced, or null to return every document at the end
+     * @return the imported documents not already handed to the callback
+     */
+    List<AnnotatedPluginDocument> download(Map<String, SraRecord> accessions,
+            ProgressListener progressListener, Options options, OperationCallback callback) throws DocumentOperationException {
         
         // Validate fasterq-dump availability
         FasterqDumpBinaryManager binaryManager = FasterqDumpBinaryManager.getInstance();
@@ -92,102 +321,502 @@ public class SraDownloadOperation extends DocumentOperation {
         if (options != null && options.getValue(OPTION_SPLIT_FILES) != null) {
             splitFiles = (Boolean) options.getValue(OPTION_SPLIT_FILES);
         }
+        QualityBinning binning = getQualityBinning(options);
+        int shardReads = DEFAULT_SHARD_READS;
+        if (options != null && options.getValue(OPTION_SHARD_READS) != null) {
+            shardReads = (Integer) options.getValue(OPTION_SHARD_READS);
+        }
+        BatchScheduler.Order scheduling = getSchedulingOrder(options);
+        long diskBudget = getDiskBudget(options);
+        long timeLimitMs = getMinutes(options, OPTION_TIME_LIMIT, 0);
+        long stallTimeoutMs = getMinutes(options, OPTION_STALL_TIMEOUT, DEFAULT_STALL_TIMEOUT_MINUTES);
+        Object source = options != null ? options.getValue(OPTION_SOURCE) : null;
+        boolean fromEna = source instanceof Options.OptionValue
+                && SOURCE_ENA.getName().equals(((Options.OptionValue) source).getName());
+        if (fromEna && !splitFiles) {
+            System.out.println("ENA only serves reads split into files by mate; downloading from NCBI instead");
+            fromEna = false;
+        }
+        boolean memoryScratch = options == null || options.getValue(OPTION_MEMORY_SCRATCH) == null
+                || (Boolean) options.getValue(OPTION_MEMORY_SCRATCH);
         
-        // Create temporary directory for downloads
-        File outputDirectory;
+        // Completed accessions and their FASTQ files survive failures, cancellation and crashes in the journal
+        DownloadJournal journal;
         try {
-            Path tempPath = Files.createTempDirectory("sra_download_");
-            outputDirectory = tempPath.toFile();
-            outputDirectory.deleteOnExit(); // Mark for deletion on JVM exit
+            journal = DownloadJournal.open(new ArrayList<>(accessions.keySet()), splitFiles);
+        } catch (DownloadJournal.JobInUseException e) {
+            throw new DocumentOperationException(e.getMessage() + " by the download queue or another download; " +
+                    "try again once it has finished", e);
         } catch (IOException e) {
-            throw new DocumentOperationException("Failed to create temporary directory for downloads: " + e.getMessage(), e);
+            throw new DocumentOperationException("Failed to create download job directory: " + e.getMessage(), e);
         }
         
         List<AnnotatedPluginDocument> importedDocuments = new ArrayList<>();
-        List<File> tempFilesToCleanup = new ArrayList<>();
+        int importedCount = 0;
+        Map<String, EUtilsRequest<SraRecord>> metadataRequests = new HashMap<>();
+        int alreadyImported = journal.countImported();
         
         try {
             progressListener.setMessage("Initializing download...");
+            if (alreadyImported > 0) {
+                System.out.println("Resuming download job: " + alreadyImported + " of " + accessions.size() + " accessions already imported");
+            }
             
-            for (int i = 0; i < documents.length; i++) {
-                AnnotatedPluginDocument document = documents[i];
-                
-                if (!(document.getDocument() instanceof SraDocument)) {
-                    System.out.println("Skipping non-SRA document: " + 
-                        (document.getDocument() != null ? document.getDocument().getClass().getName() : "null"));
-                    continue; // Skip non-SRA documents
+            // Look up missing metadata in the background while the downloads run
+            prefetchMissingMetadata(accessions, metadataRequests);
+            
+            ScratchPlanner scratchPlanner = new ScratchPlanner(journal.getDirectory(), memoryScratch);
+            logScratchPlan(accessions, scratchPlanner);
+            
+            // Runs already downloaded go first, then the rest by size so one huge run doesn't hold up many small ones
+            List<String> done = new ArrayList<>();
+            List<String> ready = new ArrayList<>();
+            Map<String, SraRecord> remaining = new LinkedHashMap<>();
+            for (Map.Entry<String, SraRecord> entry : accessions.entrySet()) {
+                if (journal.isDone(entry.getKey())) {
+                    done.add(entry.getKey());
+                    continue;
                 }
-                
-                SraDocument sraDoc = (SraDocument) document.getDocument();
-                SraRecord sraRecord = sraDoc.getSraRecord();
-                
-                // If no SraRecord, try to extract accession from document name
-                String accession = null;
-                if (sraRecord != null && sraRecord.getAccession() != null) {
-                    accession = sraRecord.getAccession();
-                } else if (sraDoc.getName() != null && !sraDoc.getName().equals("Unknown SRA")) {
-                    // Document name should be the accession
-                    accession = sraDoc.getName();
-                    System.out.println("Using document name as accession: " + accession);
+                if (journal.getState(entry.getKey()) == DownloadJournal.State.CONVERTED) {
+                    ready.add(entry.getKey());
+                }
+                remaining.put(entry.getKey(), entry.getValue());
+            }
+            BatchScheduler scheduler = new BatchScheduler(remaining, ready, scheduling,
+                    diskBudget > 0 ? diskBudget : scratchPlanner.getLargestFreeSpace(), callback == null);
+            for (Map.Entry<String, String> skipped : scheduler.getSkipped().entrySet()) {
+                System.out.println(skipped.getKey() + ": " + skipped.getValue());
+                try {
+                    journal.failed(skipped.getKey(), skipped.getValue());
+                } catch (IOException e) {
+                    throw new DocumentOperationException("Failed to update download journal: " + e.getMessage(), e);
+                }
+            }
+            
+            // Accessions that don't fit on disk yet are retried once at the end of the batch
+            List<String> order = new ArrayList<>(done);
+            order.addAll(scheduler.getOrder());
+            if (scheduling != BatchScheduler.Order.AS_SELECTED) {
+                System.out.println("Download order (" + scheduling + "): " + scheduler.getOrder() + "; "
+                        + BatchScheduler.describe(remaining, scheduler.getOrder()));
+            }
+            Set<String> deferred = new HashSet<>();
+            int i = -1;
+            for (int position = 0; position < order.size(); position++) {
+                if (progressListener.isCanceled()) {
+                    throw new DocumentOperationException.Canceled();
+                }
+                String accession = order.get(position);
+                SraRecord sraRecord = accessions.get(accession);
+                if (!deferred.contains(accession)) {
+                    i++;
                 }
                 
-                if (accession == null) {
-                    System.out.println("Skipping document without valid accession");
-                    continue; // Skip documents without valid accession
+                DownloadJournal.State state = journal.getState(accession);
+                if (journal.isDone(accession)) {
+                    continue; // Imported by an earlier attempt at this job
                 }
                 
-                // accession already set above
-                double baseProgress = (double) i / documents.length;
-                double nextProgress = (double) (i + 1) / documents.length;
+                double baseProgress = (double) i / accessions.size();
+                double nextProgress = (double) (i + 1) / accessions.size();
                 
                 progressListener.setMessage(String.format("Downloading %s (%d of %d)...", 
-                        accession, i + 1, documents.length));
+                        accession, i + 1, accessions.size()));
                 progressListener.setProgress(baseProgress);
                 
+                SraMetrics metrics = SraMetrics.getInstance();
+                metrics.jobStarted();
                 try {
-                    // Download the SRA data
-                    List<File> downloadedFiles = downloadSraData(accession, outputDirectory, 
-                            splitFiles, binaryManager, progressListener, baseProgress, nextProgress);
+                    List<File> downloadedFiles = Collections.emptyList();
+                    long downloadNanos = 0;
+                    boolean inMemory = false;
+                    if (state == DownloadJournal.State.CONVERTED) {
+                        // Downloaded by an earlier attempt that did not get as far as handing back the documents
+                        downloadedFiles = findDownloadedFiles(accession, journal.getOutputDirectory(accession), splitFiles);
+                    }
                     
                     if (downloadedFiles.isEmpty()) {
-                        throw new DocumentOperationException("No files were downloaded for " + accession);
+                        // The run's size decides where it is downloaded, so wait for its metadata first
+                        if (sraRecord == null && metadataRequests.containsKey(accession)) {
+                            sraRecord = awaitMetadata(metadataRequests.remove(accession), accession, progressListener);
+                        }
+                        ScratchPlanner.Estimate estimate = ScratchPlanner.estimate(accession, sraRecord);
+                        boolean canDefer = !deferred.contains(accession) && position < order.size() - 1;
+                        ScratchPlanner.Reservation reservation = reserveScratch(scratchPlanner, journal, accession,
+                                estimate, canDefer, progressListener);
+                        if (reservation == null) {
+                            System.out.println("Not enough free disk space for " + accession + " yet; retrying it at the end of the batch");
+                            deferred.add(accession);
+                            order.add(accession);
+                            continue;
+                        }
+                        
+                        inMemory = reservation.isInMemory();
+                        
+                        // Download the SRA data
+                        SraDownloadEvent downloadEvent = new SraDownloadEvent();
+                        downloadEvent.begin();
+                        long downloadStart = System.nanoTime();
+                        try {
+                            journal.downloading(accession, reservation.getDirectory());
+                            if (fromEna) {
+                                downloadedFiles = downloadFromEna(accession, reservation.getDirectory(), progressListener,
+                                        baseProgress, nextProgress, timeLimitMs, downloadEvent);
+                            }
+                            if (downloadedFiles.isEmpty()) {
+                                downloadedFiles = downloadSraData(accession, reservation.getDirectory(), 
+                                        splitFiles, binaryManager, progressListener, baseProgress, nextProgress,
+                                        timeLimitMs, stallTimeoutMs, downloadEvent);
+                            }
+                        } catch (DocumentOperationException e) {
+                            metrics.recordDownload(0, System.nanoTime() - downloadStart, false);
+                            throw e;
+                        } finally {
+                            // Once written, the files themselves count against the volume's free space
+                            reservation.close();
+                            downloadEvent.end();
+                            if (downloadEvent.shouldCommit()) {
+                                downloadEvent.accession = accession;
+                                downloadEvent.fileCount = downloadedFiles.size();
+                                for (File file : downloadedFiles) {
+                                    downloadEvent.fastqBytes += file.length();
+                                }
+                                downloadEvent.commit();
+                            }
+                        }
+                        downloadNanos = System.nanoTime() - downloadStart;
+                        
+                        if (downloadedFiles.isEmpty()) {
+                            throw new DocumentOperationException("No files were downloaded for " + accession);
+                        }
+                        journal.converted(accession);
                     }
                     
-                    tempFilesToCleanup.addAll(downloadedFiles);
+                    if (sraRecord == null && metadataRequests.containsKey(accession)) {
+                        sraRecord = awaitMetadata(metadataRequests.remove(accession), accession, progressListener);
+                    }
                     
                     // Import the downloaded FASTQ files as sequence lists
                     progressListener.setMessage(String.format("Importing FASTQ files for %s...", accession));
                     
-                    List<AnnotatedPluginDocument> imported = importFastqAsSequenceList(downloadedFiles, accession, sraRecord);
-                    importedDocuments.addAll(imported);
+                    FastqImportEvent importEvent = new FastqImportEvent();
+                    importEvent.begin();
+                    long importStart = System.nanoTime();
+                    List<AnnotatedPluginDocument> imported = new ArrayList<>();
+                    long reads;
+                    int documentCount;
+                    if (shardReads > 0 && !FastqReader.isFasta(downloadedFiles.get(0))
+                            && estimateReads(downloadedFiles, sraRecord) > shardReads) {
+                        // Shards are saved into a folder for the run as each fills, so the run is never held in memory
+                        FastqStats total = new FastqStats();
+                        if (callback != null) {
+                            setSubFolder(callback, createDocumentName(accession, sraRecord));
+                        }
+                        try {
+                            documentCount = importShardedFastq(downloadedFiles, accession, sraRecord, binning, shardReads, total,
+                                    (shard, stats) -> {
+                                        AnnotatedPluginDocument document = createShardDocument(shard, stats, binning);
+                                        if (callback != null) {
+                                            callback.addDocument(document, false, ProgressListener.EMPTY);
+                                        } else {
+                                            imported.add(document);
+                                        }
+                                    });
+                        } finally {
+                            if (callback != null) {
+                                setSubFolder(callback, null);
+                            }
+                        }
+                        reads = total.getReads();
+                    } else {
+                        imported.addAll(importFastqAsSequenceList(downloadedFiles, accession, sraRecord, binning));
+                        reads = countReads(imported);
+                        documentCount = imported.size();
+                    }
+                    importedCount += documentCount;
+                    metrics.recordImport(reads, System.nanoTime() - importStart);
+                    importEvent.end();
+                    if (importEvent.shouldCommit()) {
+                        importEvent.accession = accession;
+                        importEvent.paired = downloadedFiles.size() == 2;
+                        importEvent.readsImported = reads;
+                        importEvent.documentCount = documentCount;
+                        importEvent.commit();
+                    }
                     
+                    if (callback != null) {
+                        // Saved as each accession finishes, so results appear as they come and the reads are
+                        // released before the next accession rather than held until the end of the batch
+                        progressListener.setMessage(String.format("Saving %s...", accession));
+                        for (AnnotatedPluginDocument document : imported) {
+                            callback.addDocument(document, false, ProgressListener.EMPTY);
+                        }
+                        imported.clear();
+                        journal.saved(accession);
+                    } else {
+                        importedDocuments.addAll(imported);
+                        journal.imported(accession);
+                        if (inMemory) {
+                            // Not worth holding memory for: after a restart the files would be gone anyway
+                            journal.reclaim(accession);
+                        }
+                    }
+                    
+                    if (downloadNanos > 0) {
+                        // Paired runs have two reads per spot
+                        long spots = sraRecord != null && sraRecord.getTotalSpots() > 0
+                                ? sraRecord.getTotalSpots() : reads / downloadedFiles.size();
+                        metrics.recordDownload(spots, downloadNanos, true);
+                    }
+                    
+                } catch (DocumentOperationException.Canceled e) {
+                    throw e;
                 } catch (Exception e) {
-                    throw new DocumentOperationException("Failed to download SRA data for " + accession + ": " + e.getMessage(), e);
+                    // One bad accession shouldn't cost the rest of the batch
+                    String message = "Failed to download SRA data for " + accession + ": " + e.getMessage();
+                    System.err.println(message);
+                    try {
+                        journal.failed(accession, e.getMessage());
+                    } catch (IOException journalError) {
+                        throw new DocumentOperationException("Failed to update download journal: " + journalError.getMessage(), journalError);
+                    }
+                } finally {
+                    metrics.jobFinished();
+                }
+            }
+            
+            Map<String, String> failures = journal.getFailures();
+            if (importedCount == 0 && !failures.isEmpty()) {
+                if (failures.size() == 1) {
+                    Map.Entry<String, String> failure = failures.entrySet().iterator().next();
+                    throw new DocumentOperationException("Failed to download SRA data for " + failure.getKey() + ": " + failure.getValue());
                 }
+                throw new DocumentOperationException(String.format("All %d remaining accessions failed to download:\n%s",
+                        failures.size(), summarizeFailures(failures)));
+            }
+            
+            try {
+                journal.commit();
+            } catch (IOException e) {
+                System.err.println("Warning: Could not update download journal: " + e.getMessage());
+            }
+            if (!failures.isEmpty()) {
+                reportPartialFailure(importedCount, failures);
             }
             
-            progressListener.setMessage(String.format("Successfully imported %d sequence list(s)", importedDocuments.size()));
+            progressListener.setMessage(String.format("Successfully imported %d sequence list(s)", importedCount));
             progressListener.setProgress(1.0);
             
             return importedDocuments;
             
         } finally {
-            // Always cleanup temporary files
-            cleanupTempFiles(tempFilesToCleanup);
+            // Abandon metadata lookups that are still in flight
+            for (EUtilsRequest<SraRecord> request : metadataRequests.values()) {
+                request.cancel(true);
+            }
             
-            // Also try to delete the temp directory itself
-            if (outputDirectory != null && outputDirectory.exists()) {
-                outputDirectory.delete();
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // Everything written has already been synced
+            }
+        }
+    }
+    
+    /**
+     * Log the expected disk use of the batch and where downloads can go
+     */
+    private static void logScratchPlan(Map<String, SraRecord> accessions, ScratchPlanner planner) {
+        long largestScratch = 0;
+        long totalImported = 0;
+        int unknown = 0;
+        for (Map.Entry<String, SraRecord> entry : accessions.entrySet()) {
+            ScratchPlanner.Estimate estimate = ScratchPlanner.estimate(entry.getKey(), entry.getValue());
+            if (!estimate.isKnown()) {
+                unknown++;
+            }
+            largestScratch = Math.max(largestScratch, estimate.scratchBytes);
+            totalImported += estimate.importedBytes;
+        }
+        System.out.println(String.format("Estimated disk use: up to %s of scratch space per download, %s once imported%s. " +
+                "Scratch directories: %s (%s free)", ScratchPlanner.formatSize(largestScratch),
+                ScratchPlanner.formatSize(totalImported), unknown > 0 ? " (" + unknown + " accession(s) of unknown size)" : "",
+                planner.getCandidateDirectories(), ScratchPlanner.formatSize(planner.getLargestFreeSpace())));
+        if (planner.getMemoryDirectory() != null) {
+            System.out.println(String.format("Runs needing up to %s of scratch space are downloaded to memory in %s",
+                    ScratchPlanner.formatSize(planner.getFreeMemory()), planner.getMemoryDirectory()));
+        }
+    }
+    
+    /**
+     * Reserve disk space for a download. When no volume has room, the kept FASTQ files of accessions already
+     * imported in this job are deleted first; failing that the download is deferred if it can be, or waits
+     * for other downloads in this session to release their space.
+     *
+     * @return the reservation, or null if the download should be deferred
+     * @throws DocumentOperationException if there will never be enough space
+     */
+    private static ScratchPlanner.Reservation reserveScratch(ScratchPlanner planner, DownloadJournal journal,
+            String accession, ScratchPlanner.Estimate estimate, boolean canDefer,
+            ProgressListener progressListener) throws DocumentOperationException, IOException {
+        ScratchPlanner.Reservation reservation = planner.reserve(accession, estimate);
+        if (reservation == null) {
+            boolean reclaimed = false;
+            for (String imported : journal.getStates().keySet()) {
+                reclaimed |= journal.reclaim(imported);
+            }
+            if (reclaimed) {
+                reservation = planner.reserve(accession, estimate);
+            }
+        }
+        if (reservation != null || canDefer) {
+            return reservation;
+        }
+        while (ScratchPlanner.hasOutstandingReservations()) {
+            progressListener.setMessage(String.format("Waiting for %s of free disk space to download %s...",
+                    ScratchPlanner.formatSize(estimate.scratchBytes), accession));
+            try {
+                Thread.sleep(SCRATCH_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DocumentOperationException.Canceled();
+            }
+            if (progressListener.isCanceled()) {
+                throw new DocumentOperationException.Canceled();
+            }
+            reservation = planner.reserve(accession, estimate);
+            if (reservation != null) {
+                return reservation;
+            }
+        }
+        reservation = planner.reserve(accession, estimate);
+        if (reservation == null) {
+            throw new DocumentOperationException(String.format("Not enough disk space: %s needs about %s of scratch space " +
+                    "but at most %s is free in %s. Free some space or add a directory on another disk with -D%s",
+                    accession, ScratchPlanner.formatSize(estimate.scratchBytes),
+                    ScratchPlanner.formatSize(planner.getLargestFreeSpace()), planner.getCandidateDirectories(),
+                    ScratchPlanner.DIRECTORIES_PROPERTY));
+        }
+        return reservation;
+    }
+    
+    /**
+     * Direct documents saved through the callback into a subfolder of the destination, or back to the
+     * destination itself when the name is null
+     */
+    private static void setSubFolder(OperationCallback callback, String name) {
+        try {
+            callback.setSubFolder(name);
+        } catch (DatabaseServiceException e) {
+            System.err.println("Warning: Could not create folder " + name + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Tell the user which accessions failed; the imported documents are still returned
+     */
+    private void reportPartialFailure(int imported, Map<String, String> failures) {
+        String message = String.format("%d accession(s) failed to download and were skipped:\n%s\n\n" +
+                "Run the download again on the same documents to retry only the failed accessions.",
+                failures.size(), summarizeFailures(failures));
+        System.err.println(message);
+        if (!GraphicsEnvironment.isHeadless()) {
+            Dialogs.showMessageDialog(message, "Some SRA Downloads Failed", null, Dialogs.DialogIcon.WARNING);
+        }
+    }
+    
+    private static String summarizeFailures(Map<String, String> failures) {
+        StringBuilder summary = new StringBuilder();
+        int shown = 0;
+        for (Map.Entry<String, String> failure : failures.entrySet()) {
+            if (shown++ == MAX_FAILURES_SHOWN) {
+                summary.append(String.format("... and %d more\n", failures.size() - MAX_FAILURES_SHOWN));
+                break;
+            }
+            summary.append(failure.getKey()).append(": ").append(failure.getValue()).append("\n");
+        }
+        return summary.toString().trim();
+    }
+    
+    /**
+     * Start asynchronous metadata lookups for accessions that came without a record, such as documents that only
+     * carry an accession as their name
+     */
+    private void prefetchMissingMetadata(Map<String, SraRecord> accessions, Map<String, EUtilsRequest<SraRecord>> requests)
+            throws DocumentOperationException {
+        NcbiEUtilsClient client = null;
+        for (Map.Entry<String, SraRecord> entry : accessions.entrySet()) {
+            if (entry.getValue() != null || requests.containsKey(entry.getKey())) {
+                continue;
+            }
+            if (client == null) {
+                client = new NcbiEUtilsClient();
+            }
+            requests.put(entry.getKey(), client.searchByAccessionAsync(entry.getKey(), METADATA_TIMEOUT_MS));
+        }
+    }
+    
+    /**
+     * Wait for a metadata lookup started by {@link #prefetchMissingMetadata}. Metadata is optional,
+     * so failures are logged and the documents are created without it.
+     */
+    private SraRecord awaitMetadata(EUtilsRequest<SraRecord> request, String accession,
+            ProgressListener progressListener) throws DocumentOperationException {
+        try {
+            while (true) {
+                if (progressListener.isCanceled()) {
+                    request.cancel(true);
+                    throw new DocumentOperationException.Canceled();
+                }
+                try {
+                    return request.get(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Keep polling for cancellation
+                }
             }
+        } catch (InterruptedException e) {
+            request.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new DocumentOperationException.Canceled();
+        } catch (ExecutionException e) {
+            System.err.println("Could not fetch metadata for " + accession + ": " + e.getCause().getMessage());
+            return null;
+        }
+    }
+    
+    // The download, verify and import stages are package-private so that the pipeline harness in bench/ can drive them
+    
+    /**
+     * Download a run's gzipped FASTQ files from the ENA mirror
+     *
+     * @return the files, or an empty list if ENA couldn't provide them and fasterq-dump should be used instead
+     */
+    List<File> downloadFromEna(String accession, File outputDir, ProgressListener progressListener,
+            double baseProgress, double targetProgress, long timeLimitMs, SraDownloadEvent event) throws DocumentOperationException {
+        progressListener.setMessage(String.format("Locating %s on ENA...", accession));
+        EnaFastqDownloader downloader = new EnaFastqDownloader();
+        try {
+            List<File> files = downloader.download(downloader.resolve(accession), outputDir, progressListener,
+                    baseProgress, targetProgress, timeLimitMs);
+            event.source = "ENA";
+            return files;
+        } catch (DocumentOperationException e) {
+            ProcessSupervisor.removePartialOutput(outputDir);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            System.out.println(String.format("Could not download %s from ENA (%s); using fasterq-dump", accession, e.getMessage()));
+            ProcessSupervisor.removePartialOutput(outputDir);
+            return Collections.emptyList();
         }
     }
     
     /**
      * Download SRA data using fasterq-dump
      */
-    private List<File> downloadSraData(String accession, File outputDir, boolean splitFiles, 
+    List<File> downloadSraData(String accession, File outputDir, boolean splitFiles, 
             FasterqDumpBinaryManager binaryManager, ProgressListener progressListener, 
-            double baseProgress, double targetProgress) throws DocumentOperationException {
+            double baseProgress, double targetProgress, long timeLimitMs, long stallTimeoutMs,
+            SraDownloadEvent event) throws DocumentOperationException {
         
         List<File> downloadedFiles = new ArrayList<>();
         
@@ -200,6 +829,9 @@ public class SraDownloadOperation extends DocumentOperation {
             command.add(accession);
             command.add("--outdir");
             command.add(outputDir.getAbsolutePath());
+            // Keep fasterq-dump's temporary files on the volume that was checked for room
+            command.add("--temp");
+            command.add(outputDir.getAbsolutePath());
             
             // Explicitly request FASTQ format (with quality scores)
             command.add("--format");
@@ -227,59 +859,87 @@ public class SraDownloadOperation extends DocumentOperation {
             pb.directory(outputDir);
             pb.redirectErrorStream(true);
             
+            long spawnStart = System.nanoTime();
             Process process = pb.start();
+            SraMetrics.getInstance().recordProcessSpawn(System.nanoTime() - spawnStart);
             
-            // Monitor process output for progress and errors
-            AtomicBoolean processCompleted = new AtomicBoolean(false);
-            StringBuilder outputLog = new StringBuilder();
+            // Monitor process output for progress and errors, keeping only the recent lines
+            FasterqDumpLog outputLog = new FasterqDumpLog();
             
             Thread outputReader = new Thread(() -> {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
                     String line;
                     while ((line = reader.readLine()) != null && !Thread.currentThread().isInterrupted()) {
-                        outputLog.append(line).append("\n");
-                        
-                        // Update progress message based on fasterq-dump output
-                        if (line.contains("spots read") || line.contains("reads read")) {
-                            progressListener.setMessage(String.format("%s: %s", accession, line.trim()));
+                        FasterqDumpLog.Event output = outputLog.add(line);
+                        switch (output.type) {
+                            case PROGRESS:
+                                progressListener.setMessage(String.format("%s: %s %.0f%%", accession, output.text, output.value));
+                                break;
+                            case COUNT:
+                                progressListener.setMessage(String.format("%s: %s %,d", accession, output.text, (long) output.value));
+                                break;
+                            case WARNING:
+                            case ERROR:
+                                System.err.println("fasterq-dump " + accession + ": " + line.trim());
+                                break;
+                            default:
+                                break;
                         }
                     }
                 } catch (IOException e) {
                     // Ignore IO exceptions during process monitoring
-                } finally {
-                    processCompleted.set(true);
                 }
-            });
-            
+            }, "fasterq-dump output " + accession);
+            outputReader.setDaemon(true);
             outputReader.start();
             
-            // Wait for process to complete with timeout
+            // Wait for the process, stopping it and everything it started on cancel or timeout
+            ProcessSupervisor supervisor = new ProcessSupervisor(process, outputDir, outputLog::getLastLineNanos,
+                    timeLimitMs, stallTimeoutMs);
             int exitCode;
             try {
-                exitCode = process.waitFor();
+                ProcessSupervisor.Outcome outcome = supervisor.waitFor(progressListener);
+                if (outcome != ProcessSupervisor.Outcome.EXITED) {
+                    event.failure = outcome.name();
+                    String removed = ProcessSupervisor.removePartialOutput(outputDir);
+                    if (removed != null) {
+                        System.out.println("Stopped fasterq-dump for " + accession + " (" + outcome + "); removed " + removed);
+                    }
+                    throw supervisor.failure(accession);
+                }
+                exitCode = process.exitValue();
+                event.exitCode = exitCode;
+                // Let the reader drain what the process wrote before it exited
+                outputReader.join(OUTPUT_DRAIN_MS);
             } catch (InterruptedException e) {
-                process.destroyForcibly();
+                ProcessSupervisor.removePartialOutput(outputDir);
                 Thread.currentThread().interrupt();
                 throw new DocumentOperationException("Download was interrupted");
             } finally {
                 outputReader.interrupt();
+                event.outputLines = outputLog.getLineCount();
+                event.warnings = outputLog.getWarningCount();
             }
             
             if (exitCode != 0) {
+                FasterqDumpLog.Failure failure = outputLog.getFailure();
+                event.failure = failure.name();
                 String errorMessage = String.format("fasterq-dump failed for %s (exit code: %d)\nOutput: %s", 
-                        accession, exitCode, outputLog.toString());
+                        accession, exitCode, outputLog.summarize(MAX_OUTPUT_LINES_SHOWN));
                 System.err.println(errorMessage);
                 
-                // Check if it's a network/download error
-                String output = outputLog.toString().toLowerCase();
-                if (output.contains("timeout") || output.contains("network") || output.contains("connection")) {
-                    throw new DocumentOperationException("Network error downloading " + accession + ". Please check your internet connection and try again.");
-                } else if (output.contains("not found") || output.contains("invalid")) {
-                    throw new DocumentOperationException("SRA accession " + accession + " was not found or is invalid.");
-                } else if (output.contains("permission") || output.contains("access")) {
-                    throw new DocumentOperationException("Permission denied accessing SRA data. The dataset may be restricted.");
+                switch (failure) {
+                    case NETWORK:
+                        throw new DocumentOperationException("Network error downloading " + accession + ". Please check your internet connection and try again.");
+                    case NOT_FOUND:
+                        throw new DocumentOperationException("SRA accession " + accession + " was not found or is invalid.");
+                    case ACCESS_DENIED:
+                        throw new DocumentOperationException("Permission denied accessing SRA data. The dataset may be restricted.");
+                    case DISK_FULL:
+                        throw new DocumentOperationException("Ran out of disk space downloading " + accession + " to " + outputDir.getAbsolutePath() + ".");
+                    default:
+                        throw new DocumentOperationException(errorMessage);
                 }
-                throw new DocumentOperationException(errorMessage);
             }
             
             // Find downloaded files
@@ -303,16 +963,7 @@ public class SraDownloadOperation extends DocumentOperation {
                 }
                 
                 throw new DocumentOperationException("No FASTQ files were created by fasterq-dump for " + accession + 
-                    ". Output: " + outputLog.toString());
-            }
-            
-            // Verify the files are actually FASTQ format (not FASTA)
-            for (File file : downloadedFiles) {
-                if (!verifyFastqFormat(file)) {
-                    System.err.println("WARNING: File " + file.getName() + " appears to be FASTA format, not FASTQ!");
-                    System.err.println("This SRA accession may not have quality scores available.");
-                    // Continue anyway - Geneious will handle it as FASTA
-                }
+                    ". Output: " + outputLog.summarize(MAX_OUTPUT_LINES_SHOWN));
             }
             
             progressListener.setProgress(targetProgress);
@@ -325,87 +976,75 @@ public class SraDownloadOperation extends DocumentOperation {
     }
     
     /**
-     * Verify if a file is in FASTQ format (has quality scores) vs FASTA format
+     * Check that the files have the reads the run should have: paired files must match, and each file should hold
+     * one read per spot when the run's spot count is known. Fewer reads than spots is only a warning, since
+     * fasterq-dump drops empty reads.
+     *
+     * @param fileStats statistics for each file, in the same order
+     * @return the statistics of all files together
      */
-    private boolean verifyFastqFormat(File file) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String firstLine = reader.readLine();
-            if (firstLine == null) {
-                return false;
-            }
-            
-            // FASTQ starts with @, FASTA starts with >
-            if (firstLine.startsWith(">")) {
-                return false; // This is FASTA
-            }
-            
-            if (!firstLine.startsWith("@")) {
-                return false; // Not FASTQ either
-            }
-            
-            // Read next 3 lines to verify FASTQ structure
-            String seqLine = reader.readLine();
-            String plusLine = reader.readLine();
-            String qualLine = reader.readLine();
-            
-            if (seqLine == null || plusLine == null || qualLine == null) {
-                return false;
-            }
-            
-            // Check if plus line starts with +
-            if (!plusLine.startsWith("+")) {
-                return false;
+    private static FastqStats checkReadCounts(List<File> files, List<FastqStats> fileStats, String accession,
+            SraRecord sraRecord) throws DocumentOperationException {
+        FastqStats total = new FastqStats();
+        for (int i = 0; i < files.size(); i++) {
+            FastqStats stats = fileStats.get(i);
+            if (stats.getReads() == 0) {
+                throw new DocumentOperationException("No reads found in " + files.get(i).getName());
             }
-            
-            // Check if quality line exists and has same length as sequence
-            if (qualLine.length() != seqLine.length()) {
-                return false;
+            if (i > 0 && stats.getReads() != fileStats.get(0).getReads()) {
+                throw new DocumentOperationException(String.format(
+                        "Paired-end files have different numbers of sequences: %d in %s, %d in %s",
+                        fileStats.get(0).getReads(), files.get(0).getName(), stats.getReads(), files.get(i).getName()));
             }
-            
-            // Check if quality line contains valid quality characters (ASCII 33-126)
-            for (char c : qualLine.toCharArray()) {
-                if (c < 33 || c > 126) {
-                    return false;
-                }
+            total.addAll(stats);
+        }
+        
+        checkSpotCount(files, fileStats.get(0).getReads(), accession, sraRecord);
+        System.out.println("Validated " + accession + ": " + total);
+        return total;
+    }
+    
+    /**
+     * Warn if the first file doesn't hold one read per spot of the run
+     */
+    private static void checkSpotCount(List<File> files, long found, String accession, SraRecord sraRecord) {
+        long spots = sraRecord != null ? sraRecord.getTotalSpots() : 0;
+        if (spots > 0) {
+            // A single file from a paired run holds both reads of each spot
+            long expected = files.size() == 1 && sraRecord.isPairedEnd() ? spots * 2 : spots;
+            if (found > expected || (files.size() == 1 && found < spots)) {
+                System.err.println(String.format("WARNING: %s has %d spots but %s holds %d reads",
+                        accession, spots, files.get(0).getName(), found));
+            } else if (found < expected) {
+                System.err.println(String.format("WARNING: %s has %d spots but only %d were written; %d empty or " +
+                        "missing reads", accession, spots, found, expected - found));
             }
-            
-            return true; // This is valid FASTQ
-            
-        } catch (IOException e) {
-            System.err.println("Error verifying file format for " + file.getName() + ": " + e.getMessage());
-            return false;
         }
     }
     
     /**
-     * Find the FASTQ files created by fasterq-dump
+     * Find the FASTQ files created by fasterq-dump, or the gzipped FASTQ files fetched from ENA
      */
     private List<File> findDownloadedFiles(String accession, File outputDir, boolean splitFiles) {
         List<File> files = new ArrayList<>();
         
         if (splitFiles) {
             // Look for paired-end files: accession_1.fastq and accession_2.fastq
-            File file1 = new File(outputDir, accession + "_1.fastq");
-            File file2 = new File(outputDir, accession + "_2.fastq");
+            File file1 = findFastqFile(outputDir, accession + "_1");
+            File file2 = findFastqFile(outputDir, accession + "_2");
             
-            if (file1.exists()) {
+            if (file1 != null) {
                 files.add(file1);
             }
-            if (file2.exists()) {
+            if (file2 != null) {
                 files.add(file2);
             }
-            
-            // If no split files found, look for single file
-            if (files.isEmpty()) {
-                File singleFile = new File(outputDir, accession + ".fastq");
-                if (singleFile.exists()) {
-                    files.add(singleFile);
-                }
-            }
-        } else {
-            // Look for single file: accession.fastq
-            File singleFile = new File(outputDir, accession + ".fastq");
-            if (singleFile.exists()) {
+        }
+        
+        // If no split files found, look for single file: accession.fastq
+        if (files.isEmpty()) {
+            File singleFile = findFastqFile(outputDir, accession);
+            if (singleFile != null) {
                 files.add(singleFile);
             }
         }
@@ -414,10 +1053,26 @@ public class SraDownloadOperation extends DocumentOperation {
     }
     
     /**
-     * Import FASTQ files using Geneious's native importer to preserve quality scores
+     * The named FASTQ file, plain or gzipped, or null if there is neither
+     */
+    private static File findFastqFile(File outputDir, String name) {
+        for (String extension : new String[] {".fastq", ".fastq.gz"}) {
+            File file = new File(outputDir, name + extension);
+            if (file.exists()) {
+                return file;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Import FASTQ files using Geneious's native importer to preserve quality scores. When qualities are binned the
+     * files are instead streamed through {@link FastqReader}, which bins each read as it goes.
+     *
+     * @param binning quality binning to apply, or null to keep the original qualities
      */
-    private List<AnnotatedPluginDocument> importFastqAsSequenceList(List<File> fastqFiles, String accession, SraRecord sraRecord) 
-            throws IOException, DocumentOperationException {
+    List<AnnotatedPluginDocument> importFastqAsSequenceList(List<File> fastqFiles, String accession, SraRecord sraRecord,
+            QualityBinning binning) throws IOException, DocumentOperationException {
         
         List<AnnotatedPluginDocument> documents = new ArrayList<>();
         
@@ -430,17 +1085,27 @@ public class SraDownloadOperation extends DocumentOperation {
                              fastqFiles.get(0).getName().contains("_1") && 
                              fastqFiles.get(1).getName().contains("_2");
         
-        // Verify files are FASTQ format before importing
+        // Runs without qualities come as FASTA, which Geneious imports as it is
         boolean hasQualityScores = true;
         for (File file : fastqFiles) {
-            if (!verifyFastqFormat(file)) {
+            if (FastqReader.isFasta(file)) {
                 System.out.println("WARNING: File " + file.getName() + " appears to be FASTA format without quality scores");
                 hasQualityScores = false;
-            } else {
-                System.out.println("Verified " + file.getName() + " is valid FASTQ with quality scores");
             }
         }
         
+        // Every FASTQ record is validated once, with statistics gathered in the same pass. Binned imports stream
+        // the files themselves, so they validate as they read; otherwise the files are scanned before importing.
+        boolean streaming = binning != null && hasQualityScores;
+        List<FastqStats> fileStats = new ArrayList<>();
+        FastqStats stats = null;
+        if (hasQualityScores && !streaming) {
+            for (File file : fastqFiles) {
+                FastqReader.scan(file, addStats(fileStats));
+            }
+            stats = checkReadCounts(fastqFiles, fileStats, accession, sraRecord);
+        }
+        
         // Create import options to force FASTQ interpretation
         Map<String, String> importOptions = new HashMap<>();
         if (hasQualityScores) {
@@ -455,51 +1120,59 @@ public class SraDownloadOperation extends DocumentOperation {
                 File forwardFile = fastqFiles.get(0).getName().contains("_1") ? fastqFiles.get(0) : fastqFiles.get(1);
                 File reverseFile = fastqFiles.get(0).getName().contains("_2") ? fastqFiles.get(0) : fastqFiles.get(1);
                 
-                // Use Geneious's native FASTQ importer with explicit format options
-                List<AnnotatedPluginDocument> forwardDocs;
-                List<AnnotatedPluginDocument> reverseDocs;
-                try {
-                    // Try to get the FASTQ-specific importer
-                    DocumentFileImporter fastqImporter = PluginUtilities.getDocumentFileImporter("com.biomatters.plugins.fileimportexport.fastq.FastqImporterPlugin");
+                List<NucleotideSequenceDocument> forwardSeqs;
+                List<NucleotideSequenceDocument> reverseSeqs;
+                if (streaming) {
+                    forwardSeqs = FastqReader.readAll(forwardFile, binning, addStats(fileStats));
+                    reverseSeqs = FastqReader.readAll(reverseFile, binning, addStats(fileStats));
+                    stats = checkReadCounts(Arrays.asList(forwardFile, reverseFile), fileStats, accession, sraRecord);
+                } else {
+                    // Use Geneious's native FASTQ importer with explicit format options
+                    List<AnnotatedPluginDocument> forwardDocs;
+                    List<AnnotatedPluginDocument> reverseDocs;
+                    try {
+                        // Try to get the FASTQ-specific importer
+                        DocumentFileImporter fastqImporter = PluginUtilities.getDocumentFileImporter("com.biomatters.plugins.fileimportexport.fastq.FastqImporterPlugin");
                     
-                    if (fastqImporter != null && hasQualityScores) {
-                        // Use FASTQ-specific importer if available
-                        System.out.println("Using FASTQ-specific importer for quality score preservation");
-                        SimpleImportCallback forwardCallback = new SimpleImportCallback();
-                        SimpleImportCallback reverseCallback = new SimpleImportCallback();
-                        
-                        fastqImporter.importDocuments(forwardFile, forwardCallback, ProgressListener.EMPTY);
-                        fastqImporter.importDocuments(reverseFile, reverseCallback, ProgressListener.EMPTY);
-                        forwardDocs = forwardCallback.getDocuments();
-                        reverseDocs = reverseCallback.getDocuments();
-                    } else {
-                        // Fall back to general importer with options
-                        forwardDocs = PluginUtilities.importDocuments(forwardFile, importOptions, ProgressListener.EMPTY);
-                        reverseDocs = PluginUtilities.importDocuments(reverseFile, importOptions, ProgressListener.EMPTY);
+                        if (fastqImporter != null && hasQualityScores) {
+                            // Use FASTQ-specific importer if available
+                            System.out.println("Using FASTQ-specific importer for quality score preservation");
+                            SimpleImportCallback forwardCallback = new SimpleImportCallback();
+                            SimpleImportCallback reverseCallback = new SimpleImportCallback();
+                    
+                            fastqImporter.importDocuments(forwardFile, forwardCallback, ProgressListener.EMPTY);
+                            fastqImporter.importDocuments(reverseFile, reverseCallback, ProgressListener.EMPTY);
+                            forwardDocs = forwardCallback.getDocuments();
+                            reverseDocs = reverseCallback.getDocuments();
+                        } else {
+                            // Fall back to general importer with options
+                            forwardDocs = PluginUtilities.importDocuments(forwardFile, importOptions, ProgressListener.EMPTY);
+                            reverseDocs = PluginUtilities.importDocuments(reverseFile, importOptions, ProgressListener.EMPTY);
+                        }
+                    } catch (DocumentImportException e) {
+                        throw new DocumentOperationException("Failed to import FASTQ files: " + e.getMessage(), e);
                     }
-                } catch (DocumentImportException e) {
-                    throw new DocumentOperationException("Failed to import FASTQ files: " + e.getMessage(), e);
-                }
-                
-                // Extract sequences from imported documents
-                List<NucleotideSequenceDocument> forwardSeqs = new ArrayList<>();
-                List<NucleotideSequenceDocument> reverseSeqs = new ArrayList<>();
-                
-                for (AnnotatedPluginDocument doc : forwardDocs) {
-                    if (doc.getDocument() instanceof SequenceListDocument) {
-                        SequenceListDocument list = (SequenceListDocument) doc.getDocument();
-                        forwardSeqs.addAll(list.getNucleotideSequences());
-                    } else if (doc.getDocument() instanceof NucleotideSequenceDocument) {
-                        forwardSeqs.add((NucleotideSequenceDocument) doc.getDocument());
+                    
+                    // Extract sequences from imported documents
+                    forwardSeqs = new ArrayList<>();
+                    reverseSeqs = new ArrayList<>();
+                    
+                    for (AnnotatedPluginDocument doc : forwardDocs) {
+                        if (doc.getDocument() instanceof SequenceListDocument) {
+                            SequenceListDocument list = (SequenceListDocument) doc.getDocument();
+                            forwardSeqs.addAll(list.getNucleotideSequences());
+                        } else if (doc.getDocument() instanceof NucleotideSequenceDocument) {
+                            forwardSeqs.add((NucleotideSequenceDocument) doc.getDocument());
+                        }
                     }
-                }
-                
-                for (AnnotatedPluginDocument doc : reverseDocs) {
-                    if (doc.getDocument() instanceof SequenceListDocument) {
-                        SequenceListDocument list = (SequenceListDocument) doc.getDocument();
-                        reverseSeqs.addAll(list.getNucleotideSequences());
-                    } else if (doc.getDocument() instanceof NucleotideSequenceDocument) {
-                        reverseSeqs.add((NucleotideSequenceDocument) doc.getDocument());
+                    
+                    for (AnnotatedPluginDocument doc : reverseDocs) {
+                        if (doc.getDocument() instanceof SequenceListDocument) {
+                            SequenceListDocument list = (SequenceListDocument) doc.getDocument();
+                            reverseSeqs.addAll(list.getNucleotideSequences());
+                        } else if (doc.getDocument() instanceof NucleotideSequenceDocument) {
+                            reverseSeqs.add((NucleotideSequenceDocument) doc.getDocument());
+                        }
                     }
                 }
                 
@@ -511,79 +1184,8 @@ public class SraDownloadOperation extends DocumentOperation {
                         reverseSeqs.size(), reverseFile.getName()));
                 }
                 
-                // Interleave the sequences: forward1, reverse1, forward2, reverse2, ...
-                List<SequenceDocument> allSeqs = new ArrayList<>();
-                for (int i = 0; i < forwardSeqs.size(); i++) {
-                    // Add read direction suffix to names for clarity
-                    NucleotideSequenceDocument fwd = forwardSeqs.get(i);
-                    NucleotideSequenceDocument rev = reverseSeqs.get(i);
-                    
-                    // Clone sequences to modify names if needed
-                    if (!fwd.getName().endsWith("/1") && !fwd.getName().endsWith("/R1")) {
-                        if (fwd instanceof DefaultNucleotideSequence) {
-                            ((DefaultNucleotideSequence) fwd).setName(fwd.getName() + "/1");
-                        } else if (fwd instanceof DefaultNucleotideGraphSequence) {
-                            ((DefaultNucleotideGraphSequence) fwd).setName(fwd.getName() + "/1");
-                        }
-                    }
-                    if (!rev.getName().endsWith("/2") && !rev.getName().endsWith("/R2")) {
-                        if (rev instanceof DefaultNucleotideSequence) {
-                            ((DefaultNucleotideSequence) rev).setName(rev.getName() + "/2");
-                        } else if (rev instanceof DefaultNucleotideGraphSequence) {
-                            ((DefaultNucleotideGraphSequence) rev).setName(rev.getName() + "/2");
-                        }
-                    }
-                    
-                    allSeqs.add(fwd);
-                    allSeqs.add(rev);
-                }
-                
-                // Use DefaultSequenceListDocument for viewer compatibility
-                List<NucleotideSequenceDocument> nucleotideSeqs = new ArrayList<>();
-                List<AminoAcidSequenceDocument> aminoAcidSeqs = new ArrayList<>();
-                
-                for (SequenceDocument seq : allSeqs) {
-                    if (seq instanceof NucleotideSequenceDocument) {
-                        nucleotideSeqs.add((NucleotideSequenceDocument) seq);
-                    } else if (seq instanceof AminoAcidSequenceDocument) {
-                        aminoAcidSeqs.add((AminoAcidSequenceDocument) seq);
-                    }
-                }
-                
-                // Create the default sequence list with metadata in the name
-                DefaultSequenceListDocument sequenceList;
-                if (!nucleotideSeqs.isEmpty() && !aminoAcidSeqs.isEmpty()) {
-                    sequenceList = DefaultSequenceListDocument.forBothSequenceTypes(nucleotideSeqs, aminoAcidSeqs);
-                } else if (!nucleotideSeqs.isEmpty()) {
-                    sequenceList = DefaultSequenceListDocument.forNucleotideSequences(nucleotideSeqs);
-                } else if (!aminoAcidSeqs.isEmpty()) {
-                    sequenceList = DefaultSequenceListDocument.forAminoAcidSequences(aminoAcidSeqs);
-                } else {
-                    throw new DocumentOperationException("No valid sequences found");
-                }
-                
-                // Set the document name with SRA metadata
                 String documentName = createDocumentName(accession, sraRecord);
-                sequenceList.setName(documentName);
-                
-                // Create PairedReadManager using Builder for interlaced sequences
-                PairedReadManager.Builder pairedReadsBuilder = new PairedReadManager.Builder();
-                
-                // Set up the paired read relationships for interlaced sequences
-                for (int i = 0; i < allSeqs.size(); i += 2) {
-                    // i is forward read (index i), i+1 is reverse read (index i+1)
-                    // Forward read (at index i) has mate at index i+1
-                    pairedReadsBuilder.addSequenceWithMate(i + 1, 300);
-                    // Reverse read (at index i+1) has mate at index i  
-                    pairedReadsBuilder.addSequenceWithMate(i, -300); // Negative distance indicates mate is to the left
-                }
-                
-                // Build and configure the PairedReadManager
-                PairedReadManager pairedReadManager = pairedReadsBuilder.toPairedReadManager();
-                pairedReadManager.setInterlaced(300, PairedReadManager.Orientation.ForwardReverse);
-                
-                // Associate the PairedReadManager with the sequence list document
-                sequenceList.setPairedReadsManager(pairedReadManager);
+                DefaultSequenceListDocument sequenceList = createPairedSequenceList(forwardSeqs, reverseSeqs, documentName);
                 
                 // Create annotated document with the sequence list
                 AnnotatedPluginDocument annotatedDoc = DocumentUtilities.createAnnotatedPluginDocument(sequenceList);
@@ -597,23 +1199,28 @@ public class SraDownloadOperation extends DocumentOperation {
                 // For single-end, just import the file(s) directly
                 for (File fastqFile : fastqFiles) {
                     List<AnnotatedPluginDocument> importedDocs;
-                    try {
-                        // Try to use FASTQ-specific importer
-                        DocumentFileImporter fastqImporter = PluginUtilities.getDocumentFileImporter("com.biomatters.plugins.fileimportexport.fastq.FastqImporterPlugin");
-                        
-                        if (fastqImporter != null && hasQualityScores) {
-                            // Use FASTQ-specific importer if available
-                            System.out.println("Using FASTQ-specific importer for single-end file: " + fastqFile.getName());
-                            SimpleImportCallback callback = new SimpleImportCallback();
+                    if (streaming) {
+                        importedDocs = Collections.singletonList(DocumentUtilities.createAnnotatedPluginDocument(
+                                DefaultSequenceListDocument.forNucleotideSequences(FastqReader.readAll(fastqFile, binning, addStats(fileStats)))));
+                    } else {
+                        try {
+                            // Try to use FASTQ-specific importer
+                            DocumentFileImporter fastqImporter = PluginUtilities.getDocumentFileImporter("com.biomatters.plugins.fileimportexport.fastq.FastqImporterPlugin");
                             
-                            fastqImporter.importDocuments(fastqFile, callback, ProgressListener.EMPTY);
-                            importedDocs = callback.getDocuments();
-                        } else {
-                            // Fall back to general importer with options
-                            importedDocs = PluginUtilities.importDocuments(fastqFile, importOptions, ProgressListener.EMPTY);
+                            if (fastqImporter != null && hasQualityScores) {
+                                // Use FASTQ-specific importer if available
+                                System.out.println("Using FASTQ-specific importer for single-end file: " + fastqFile.getName());
+                                SimpleImportCallback callback = new SimpleImportCallback();
+                                
+                                fastqImporter.importDocuments(fastqFile, callback, ProgressListener.EMPTY);
+                                importedDocs = callback.getDocuments();
+                            } else {
+                                // Fall back to general importer with options
+                                importedDocs = PluginUtilities.importDocuments(fastqFile, importOptions, ProgressListener.EMPTY);
+                            }
+                        } catch (DocumentImportException e) {
+                            throw new DocumentOperationException("Failed to import FASTQ file: " + e.getMessage(), e);
                         }
-                    } catch (DocumentImportException e) {
-                        throw new DocumentOperationException("Failed to import FASTQ file: " + e.getMessage(), e);
                     }
                     
                     for (AnnotatedPluginDocument doc : importedDocs) {
@@ -638,10 +1245,236 @@ public class SraDownloadOperation extends DocumentOperation {
         if (documents.isEmpty()) {
             throw new DocumentOperationException("No valid sequences found in FASTQ files");
         }
+        if (streaming && stats == null) {
+            stats = checkReadCounts(fastqFiles, fileStats, accession, sraRecord);
+        }
+        for (AnnotatedPluginDocument doc : documents) {
+            if (stats != null) {
+                stats.applyTo(doc);
+            }
+            if (streaming) {
+                doc.setFieldValue(QualityBinning.FIELD_QUALITY_BINNING, binning.getDescription());
+            }
+        }
         
         return documents;
     }
     
+    /**
+     * Receives each shard of a sharded import as soon as it is complete
+     */
+    interface ShardSink {
+        /**
+         * @param stats statistics of the reads in this shard
+         */
+        void add(DefaultSequenceListDocument shard, FastqStats stats) throws DocumentOperationException;
+    }
+    
+    /**
+     * Expected number of reads in the downloaded files, from the run's spot count or else from the size of the
+     * files and of their first record
+     */
+    static long estimateReads(List<File> fastqFiles, SraRecord sraRecord) throws IOException {
+        if (sraRecord != null && sraRecord.getTotalSpots() > 0) {
+            boolean twoReadsPerSpot = fastqFiles.size() == 2 || sraRecord.isPairedEnd();
+            return sraRecord.getTotalSpots() * (twoReadsPerSpot ? 2 : 1);
+        }
+        long reads = 0;
+        for (File file : fastqFiles) {
+            reads += FastqReader.estimateRecords(file);
+        }
+        return reads;
+    }
+    
+    /**
+     * Import a run as several sequence lists of at most {@code shardReads} reads each, keeping pairs together.
+     * The files are streamed and each shard goes to the sink as soon as it is full, so only one shard is held in
+     * memory when the sink saves it. Every record is validated on the way through.
+     *
+     * @param total collects statistics for the whole run
+     * @return the number of shards
+     */
+    int importShardedFastq(List<File> fastqFiles, String accession, SraRecord sraRecord, QualityBinning binning,
+            int shardReads, FastqStats total, ShardSink sink) throws IOException, DocumentOperationException {
+        boolean isPairedEnd = fastqFiles.size() == 2;
+        File forwardFile = fastqFiles.get(0);
+        File reverseFile = isPairedEnd ? fastqFiles.get(1) : null;
+        if (isPairedEnd && forwardFile.getName().contains("_2")) {
+            forwardFile = fastqFiles.get(1);
+            reverseFile = fastqFiles.get(0);
+        }
+        int recordsPerShard = Math.max(1, isPairedEnd ? shardReads / 2 : shardReads);
+        String baseName = createDocumentName(accession, sraRecord);
+        
+        int shards = 0;
+        long records = 0;
+        try (FastqReader forward = new FastqReader(forwardFile, binning, null);
+             FastqReader reverse = isPairedEnd ? new FastqReader(reverseFile, binning, null) : null) {
+            boolean more = true;
+            while (more) {
+                FastqStats stats = new FastqStats();
+                forward.countInto(stats);
+                if (reverse != null) {
+                    reverse.countInto(stats);
+                }
+                List<NucleotideSequenceDocument> forwardSeqs = new ArrayList<>();
+                List<NucleotideSequenceDocument> reverseSeqs = new ArrayList<>();
+                while (forwardSeqs.size() < recordsPerShard) {
+                    NucleotideSequenceDocument read = forward.next();
+                    NucleotideSequenceDocument mate = reverse != null ? reverse.next() : null;
+                    if (reverse != null && (read == null) != (mate == null)) {
+                        throw new DocumentOperationException(String.format("Paired-end files have different numbers " +
+                                "of sequences: %s ends after %d", (read == null ? forwardFile : reverseFile).getName(),
+                                records + forwardSeqs.size()));
+                    }
+                    if (read == null) {
+                        more = false;
+                        break;
+                    }
+                    forwardSeqs.add(read);
+                    if (mate != null) {
+                        reverseSeqs.add(mate);
+                    }
+                }
+                if (forwardSeqs.isEmpty()) {
+                    break;
+                }
+                records += forwardSeqs.size();
+                shards++;
+                
+                String name = String.format("%s (part %d)", baseName, shards);
+                DefaultSequenceListDocument sequenceList;
+                if (isPairedEnd) {
+                    sequenceList = createPairedSequenceList(forwardSeqs, reverseSeqs, name);
+                } else {
+                    sequenceList = DefaultSequenceListDocument.forNucleotideSequences(forwardSeqs);
+                    sequenceList.setName(name);
+                }
+                total.addAll(stats);
+                sink.add(sequenceList, stats);
+            }
+        }
+        if (records == 0) {
+            throw new DocumentOperationException("No reads found in " + forwardFile.getName());
+        }
+        checkSpotCount(fastqFiles, records, accession, sraRecord);
+        System.out.println(String.format("Imported %s as %d shards: %s", accession, shards, total));
+        return shards;
+    }
+    
+    private static AnnotatedPluginDocument createShardDocument(DefaultSequenceListDocument shard, FastqStats stats,
+            QualityBinning binning) {
+        AnnotatedPluginDocument document = DocumentUtilities.createAnnotatedPluginDocument(shard);
+        document.setName(shard.getName());
+        stats.applyTo(document);
+        if (binning != null) {
+            document.setFieldValue(QualityBinning.FIELD_QUALITY_BINNING, binning.getDescription());
+        }
+        return document;
+    }
+    
+    /**
+     * Interleave forward and reverse reads into one sequence list with their pairing set up
+     */
+    private static DefaultSequenceListDocument createPairedSequenceList(List<NucleotideSequenceDocument> forwardSeqs,
+            List<NucleotideSequenceDocument> reverseSeqs, String documentName) throws DocumentOperationException {
+        // Interleave the sequences: forward1, reverse1, forward2, reverse2, ...
+        List<SequenceDocument> allSeqs = new ArrayList<>();
+        for (int i = 0; i < forwardSeqs.size(); i++) {
+            // Add read direction suffix to names for clarity
+            NucleotideSequenceDocument fwd = forwardSeqs.get(i);
+            NucleotideSequenceDocument rev = reverseSeqs.get(i);
+            
+            // Clone sequences to modify names if needed
+            if (!fwd.getName().endsWith("/1") && !fwd.getName().endsWith("/R1")) {
+                if (fwd instanceof DefaultNucleotideSequence) {
+                    ((DefaultNucleotideSequence) fwd).setName(fwd.getName() + "/1");
+                } else if (fwd instanceof DefaultNucleotideGraphSequence) {
+                    ((DefaultNucleotideGraphSequence) fwd).setName(fwd.getName() + "/1");
+                }
+            }
+            if (!rev.getName().endsWith("/2") && !rev.getName().endsWith("/R2")) {
+                if (rev instanceof DefaultNucleotideSequence) {
+                    ((DefaultNucleotideSequence) rev).setName(rev.getName() + "/2");
+                } else if (rev instanceof DefaultNucleotideGraphSequence) {
+                    ((DefaultNucleotideGraphSequence) rev).setName(rev.getName() + "/2");
+                }
+            }
+            
+            allSeqs.add(fwd);
+            allSeqs.add(rev);
+        }
+        
+        // Use DefaultSequenceListDocument for viewer compatibility
+        List<NucleotideSequenceDocument> nucleotideSeqs = new ArrayList<>();
+        List<AminoAcidSequenceDocument> aminoAcidSeqs = new ArrayList<>();
+        
+        for (SequenceDocument seq : allSeqs) {
+            if (seq instanceof NucleotideSequenceDocument) {
+                nucleotideSeqs.add((NucleotideSequenceDocument) seq);
+            } else if (seq instanceof AminoAcidSequenceDocument) {
+                aminoAcidSeqs.add((AminoAcidSequenceDocument) seq);
+            }
+        }
+        
+        // Create the default sequence list with metadata in the name
+        DefaultSequenceListDocument sequenceList;
+        if (!nucleotideSeqs.isEmpty() && !aminoAcidSeqs.isEmpty()) {
+            sequenceList = DefaultSequenceListDocument.forBothSequenceTypes(nucleotideSeqs, aminoAcidSeqs);
+        } else if (!nucleotideSeqs.isEmpty()) {
+            sequenceList = DefaultSequenceListDocument.forNucleotideSequences(nucleotideSeqs);
+        } else if (!aminoAcidSeqs.isEmpty()) {
+            sequenceList = DefaultSequenceListDocument.forAminoAcidSequences(aminoAcidSeqs);
+        } else {
+            throw new DocumentOperationException("No valid sequences found");
+        }
+        
+        // Set the document name with SRA metadata
+        sequenceList.setName(documentName);
+        
+        // Create PairedReadManager using Builder for interlaced sequences
+        PairedReadManager.Builder pairedReadsBuilder = new PairedReadManager.Builder();
+        
+        // Set up the paired read relationships for interlaced sequences
+        for (int i = 0; i < allSeqs.size(); i += 2) {
+            // i is forward read (index i), i+1 is reverse read (index i+1)
+            // Forward read (at index i) has mate at index i+1
+            pairedReadsBuilder.addSequenceWithMate(i + 1, 300);
+            // Reverse read (at index i+1) has mate at index i  
+            pairedReadsBuilder.addSequenceWithMate(i, -300); // Negative distance indicates mate is to the left
+        }
+        
+        // Build and configure the PairedReadManager
+        PairedReadManager pairedReadManager = pairedReadsBuilder.toPairedReadManager();
+        pairedReadManager.setInterlaced(300, PairedReadManager.Orientation.ForwardReverse);
+        
+        // Associate the PairedReadManager with the sequence list document
+        sequenceList.setPairedReadsManager(pairedReadManager);
+        return sequenceList;
+    }
+    
+    private static FastqStats addStats(List<FastqStats> fileStats) {
+        FastqStats stats = new FastqStats();
+        fileStats.add(stats);
+        return stats;
+    }
+    
+    /**
+     * Total number of reads in imported sequence lists
+     */
+    static long countReads(List<AnnotatedPluginDocument> documents) throws DocumentOperationException {
+        long reads = 0;
+        for (AnnotatedPluginDocument doc : documents) {
+            PluginDocument pluginDocument = doc.getDocument();
+            if (pluginDocument instanceof SequenceListDocument) {
+                reads += ((SequenceListDocument) pluginDocument).getNucleotideSequences().size();
+            } else if (pluginDocument instanceof SequenceDocument) {
+                reads++;
+            }
+        }
+        return reads;
+    }
+    
     /**
      * Create a simple document name with just accession and title
      */
@@ -655,22 +1488,6 @@ public class SraDownloadOperation extends DocumentOperation {
         return accession + " - NCBI SRA Dataset";
     }
     
-    /**
-     * Clean up temporary files
-     */
-    private void cleanupTempFiles(List<File> filesToDelete) {
-        for (File file : filesToDelete) {
-            try {
-                if (file.exists()) {
-                    Files.delete(file.toPath());
-                }
-            } catch (IOException e) {
-                // Ignore cleanup errors - log if logger available
-                System.err.println("Warning: Could not delete temporary file: " + file.getAbsolutePath());
-            }
-        }
-    }
-    
     /**
      * Simple implementation of ImportCallback for collecting imported documents
      */
@@ -0,0 +1,238 @@
+package com.biomatters.plugins.ncbisra.service;
+
+import com.biomatters.geneious.publicapi.components.Dialogs;
+import com.biomatters.geneious.publicapi.plugin.GeneiousServiceListener;
+import com.biomatters.geneious.publicapi.plugin.GeneiousServiceWithPanel;
+import com.biomatters.geneious.publicapi.plugin.Icons;
+import com.biomatters.geneious.publicapi.utilities.StandardIcons;
+import com.biomatters.plugins.ncbisra.operations.DownloadQueue;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Service tree entry for the background {@link DownloadQueue}, showing every queued job with its progress and
+ * throughput, and controls for priority, concurrency, pausing, cancelling and retrying
+ */
+public class DownloadQueueService extends GeneiousServiceWithPanel {
+
+    private static final String SERVICE_NAME = "SRA Download Queue";
+    private static final String SERVICE_DESCRIPTION = "Background downloads of NCBI SRA runs";
+    private static final String SERVICE_HELP = "Runs queued with \"Download in the background queue\" are downloaded here " +
+            "while you keep working. Higher priority jobs go first, and the queue resumes after Geneious restarts.";
+    private static final String UNIQUE_ID = "ncbi_sra_download_queue";
+
+    // How often the status view refreshes while it is showing
+    private static final int REFRESH_MS = 1000;
+
+    private JPanel panel;
+
+    @Override
+    public String getUniqueID() {
+        return UNIQUE_ID;
+    }
+
+    @Override
+    public String getName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public String getDescription() {
+        return SERVICE_DESCRIPTION;
+    }
+
+    @Override
+    public String getHelp() {
+        return SERVICE_HELP;
+    }
+
+    @Override
+    public Icons getIcons() {
+        return StandardIcons.server.getIcons();
+    }
+
+    @Override
+    protected void initialize(GeneiousServiceListener listener) {
+        // Jobs left over from the last session carry on without waiting for the user to open the queue
+        DownloadQueue.getInstance().start();
+    }
+
+    @Override
+    protected void _shutdown() {
+        DownloadQueue.getInstance().stop();
+    }
+
+    @Override
+    public JPanel getPanel() {
+        if (panel == null) {
+            panel = createPanel();
+        }
+        return panel;
+    }
+
+    private JPanel createPanel() {
+        DownloadQueue queue = DownloadQueue.getInstance();
+        JobTableModel model = new JobTableModel();
+        JTable table = new JTable(model);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getColumnModel().getColumn(0).setPreferredWidth(180);
+        table.getColumnModel().getColumn(6).setPreferredWidth(320);
+
+        JButton pause = new JButton(queue.isPaused() ? "Resume" : "Pause");
+        pause.addActionListener(e -> {
+            queue.setPaused(!queue.isPaused());
+            pause.setText(queue.isPaused() ? "Resume" : "Pause");
+        });
+        JButton raise = new JButton("Raise Priority");
+        raise.addActionListener(e -> changePriority(model.getSelected(table), -1));
+        JButton lower = new JButton("Lower Priority");
+        lower.addActionListener(e -> changePriority(model.getSelected(table), 1));
+        JButton cancel = new JButton("Cancel Job");
+        cancel.addActionListener(e -> {
+            DownloadQueue.JobStatus job = model.getSelected(table);
+            if (job != null) {
+                queue.cancel(job.getId());
+            }
+        });
+        JButton retry = new JButton("Retry Failed");
+        retry.addActionListener(e -> {
+            DownloadQueue.JobStatus job = model.getSelected(table);
+            if (job != null) {
+                queue.retry(job.getId());
+            }
+        });
+        JButton failures = new JButton("Show Failures");
+        failures.addActionListener(e -> showFailures(model.getSelected(table)));
+        JButton clear = new JButton("Clear Finished");
+        clear.addActionListener(e -> queue.clearFinished());
+        JSpinner concurrency = new JSpinner(new SpinnerNumberModel(queue.getConcurrency(), 1, DownloadQueue.MAX_CONCURRENCY, 1));
+        concurrency.addChangeListener(e -> queue.setConcurrency((Integer) concurrency.getValue()));
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        controls.add(pause);
+        controls.add(raise);
+        controls.add(lower);
+        controls.add(cancel);
+        controls.add(retry);
+        controls.add(failures);
+        controls.add(clear);
+        controls.add(new JLabel("Simultaneous downloads:"));
+        controls.add(concurrency);
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+        panel.add(controls, BorderLayout.NORTH);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        // Refresh only while the panel is on screen
+        Timer timer = new Timer(REFRESH_MS, e -> {
+            if (panel.isShowing()) {
+                model.refresh(table);
+            }
+        });
+        timer.start();
+        model.refresh(table);
+        return panel;
+    }
+
+    private static void changePriority(DownloadQueue.JobStatus job, int step) {
+        if (job == null) {
+            return;
+        }
+        DownloadQueue.Priority[] priorities = DownloadQueue.Priority.values();
+        int index = Math.max(0, Math.min(priorities.length - 1, job.getPriority().ordinal() + step));
+        DownloadQueue.getInstance().setPriority(job.getId(), priorities[index]);
+    }
+
+    private void showFailures(DownloadQueue.JobStatus job) {
+        if (job == null || job.getFailures().isEmpty()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        for (Map.Entry<String, String> failure : job.getFailures().entrySet()) {
+            message.append(failure.getKey()).append(": ").append(failure.getValue()).append("\n");
+        }
+        Dialogs.showMessageDialog(message.toString().trim(), "Failed Downloads in " + job.getTitle(), panel,
+                Dialogs.DialogIcon.WARNING);
+    }
+
+    private static final class JobTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        private static final String[] COLUMNS = {"Job", "Priority", "Status", "Runs", "Failed", "Throughput", "Activity"};
+
+        private List<DownloadQueue.JobStatus> jobs = new ArrayList<>();
+
+        void refresh(JTable table) {
+            DownloadQueue.JobStatus selected = getSelected(table);
+            jobs = DownloadQueue.getInstance().getJobs();
+            fireTableDataChanged();
+            if (selected != null) {
+                for (int row = 0; row < jobs.size(); row++) {
+                    if (jobs.get(row).getId().equals(selected.getId())) {
+                        table.setRowSelectionInterval(row, row);
+                    }
+                }
+            }
+        }
+
+        DownloadQueue.JobStatus getSelected(JTable table) {
+            int row = table.getSelectedRow();
+            return row >= 0 && row < jobs.size() ? jobs.get(row) : null;
+        }
+
+        @Override
+        public int getRowCount() {
+            return jobs.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            DownloadQueue.JobStatus job = jobs.get(row);
+            switch (column) {
+                case 0:
+                    return job.getTitle();
+                case 1:
+                    return job.getPriority();
+                case 2:
+                    return job.getStatus();
+                case 3:
+                    return String.format(Locale.ROOT, "%d of %d%s", job.getDone(), job.getTotal(),
+                            job.getRunning() > 0 ? " (" + job.getRunning() + " downloading)" : "");
+                case 4:
+                    return job.getFailed();
+                case 5:
+                    return job.getBasesPerSecond() > 0
+                            ? String.format(Locale.ROOT, "%.1f Mbases/s", job.getBasesPerSecond() / 1e6) : "";
+                default:
+                    return job.getActivity();
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.biomatters.plugins.ncbisra.service;
 
+import com.biomatters.geneious.publicapi.components.Dialogs;
 import com.biomatters.geneious.publicapi.databaseservice.*;
 import com.biomatters.geneious.publicapi.documents.AnnotatedPluginDocument;
 import com.biomatters.geneious.publicapi.documents.Condition;
@@ -12,18 +13,25 @@ import com.biomatters.geneious.publicapi.plugin.DocumentOperationException;
 import com.biomatters.plugins.ncbisra.model.SraDocument;
 import com.biomatters.geneious.publicapi.plugin.Icons;
 import com.biomatters.geneious.publicapi.utilities.StandardIcons;
+import com.biomatters.plugins.ncbisra.api.EUtilsRequest;
 import com.biomatters.plugins.ncbisra.api.NcbiEUtilsClient;
+import com.biomatters.plugins.ncbisra.api.SraQueryPlanner;
 import com.biomatters.plugins.ncbisra.binary.FasterqDumpBinaryManager;
+import com.biomatters.plugins.ncbisra.metrics.SraMetrics;
 import com.biomatters.plugins.ncbisra.model.SraRecord;
 import com.biomatters.plugins.ncbisra.model.SraSearchResult;
 import com.biomatters.plugins.ncbisra.operations.SraDownloadOperation;
 
+import java.awt.GraphicsEnvironment;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Simplified DatabaseService implementation for NCBI SRA search
@@ -35,11 +43,35 @@ public class NcbiSraDatabaseServiceSimple extends DatabaseService {
     private static final String SERVICE_HELP = "Search the NCBI SRA database and download sequence data directly using fasterq-dump";
     private static final String UNIQUE_ID = "ncbi_sra_service";
     
+    // NCBI esearch returns at most 10000 UIDs per query
+    private static final int MAX_RESULTS = 10000;
+    
+    // Searches larger than this ask for confirmation before retrieving everything
+    private static final int CONFIRM_THRESHOLD = 10000;
+    
+    // Page sizes for fetching records from the history server
+    private static final int SINGLE_PAGE_LIMIT = 500;
+    private static final int SMALL_PAGE_SIZE = 500;
+    private static final int LARGE_PAGE_SIZE = 2000;
+    
+    // Deadline for the count and history searches, and how often to check for cancellation while waiting
+    private static final long REQUEST_TIMEOUT_MS = 120000;
+    private static final long CANCEL_POLL_MS = 100;
+    
     private final NcbiEUtilsClient ncbiClient;
+    private final SraQueryPlanner queryPlanner;
     private FasterqDumpBinaryManager binaryManager;
     
     public NcbiSraDatabaseServiceSimple() {
-        this.ncbiClient = new NcbiEUtilsClient();
+        this(new NcbiEUtilsClient());
+    }
+    
+    /**
+     * Service backed by a specific client, e.g. one pointed at a local E-utilities stand-in
+     */
+    public NcbiSraDatabaseServiceSimple(NcbiEUtilsClient ncbiClient) {
+        this.ncbiClient = ncbiClient;
+        this.queryPlanner = new SraQueryPlanner(ncbiClient);
         // Don't initialize binary manager in constructor to avoid blocking
         // It will be initialized lazily when needed
     }
@@ -132,31 +164,175 @@ public class NcbiSraDatabaseServiceSimple extends DatabaseService {
                 return;
             }
             
-            // Perform search - get up to 10000 results (NCBI max)
-            // Most searches will return far fewer, but this ensures we get all available results
-            SraSearchResult searchResult = ncbiClient.search(searchTerm, 0, 10000);
+            // Accession lists and long OR queries are split into concurrent sub-queries
+            List<String> subQueries = queryPlanner.plan(searchTerm);
+            if (subQueries.size() > 1) {
+                retrievePlanned(subQueries, callback);
+                return;
+            }
             
-            if (searchResult.getRecords() == null || searchResult.getRecords().isEmpty()) {
+            // Count first so the size of the search is known before anything is fetched
+            String term = subQueries.get(0);
+            int count = await(ncbiClient.searchCountAsync(term, REQUEST_TIMEOUT_MS), callback);
+            callback.setMessage(String.format("Found %,d matching SRA experiments", count));
+            if (count == 0) {
                 // No records found - return empty results
                 return;
             }
             
-            // Process each SRA record
-            for (SraRecord sraRecord : searchResult.getRecords()) {
-                if (Thread.currentThread().isInterrupted()) {
-                    throw new DatabaseServiceException.Canceled();
-                }
-                
-                // Create document for search results with rich metadata
-                AnnotatedPluginDocument mockDocument = createDocumentFromSraRecord(sraRecord);
-                callback.add(mockDocument, java.util.Collections.<String,Object>emptyMap());
+            int limit = confirmResultLimit(count, callback);
+            SraSearchResult history = await(ncbiClient.searchHistoryAsync(term, REQUEST_TIMEOUT_MS), callback);
+            int total = Math.min(limit, history.getTotalCount());
+            int pageSize = choosePageSize(total);
+            int pages = (total + pageSize - 1) / pageSize;
+            int concurrency = Math.min(pages, SraQueryPlanner.MAX_CONCURRENT_REQUESTS);
+            
+            DocumentAdder adder = new DocumentAdder(callback, pages);
+            queryPlanner.fetchPages(history, total, pageSize, concurrency, adder);
+            
+            if (adder.isCanceled()) {
+                throw new DatabaseServiceException.Canceled();
             }
             
         } catch (IOException e) {
+            if (callback.isCanceled()) {
+                throw new DatabaseServiceException.Canceled();
+            }
             throw new DatabaseServiceException("Error searching NCBI SRA: " + e.getMessage(), false);
         }
     }
     
+    /**
+     * Ask before retrieving searches larger than the confirmation threshold
+     *
+     * @return the number of results to retrieve
+     */
+    private int confirmResultLimit(int count, RetrieveCallback callback) {
+        if (count <= CONFIRM_THRESHOLD) {
+            return count;
+        }
+        
+        String limitMessage = String.format("Retrieving the first %,d of %,d results. Refine the search to see the rest.",
+                CONFIRM_THRESHOLD, count);
+        if (GraphicsEnvironment.isHeadless()) {
+            callback.issueWarning(limitMessage, limitMessage);
+            return CONFIRM_THRESHOLD;
+        }
+        
+        boolean retrieveAll = Dialogs.showYesNoDialog(String.format(
+                "This search matches %,d SRA experiments. Retrieving all of them may take a long time " +
+                "and count against your NCBI request quota.\n\nRetrieve all %,d results? " +
+                "Choose No to retrieve only the first %,d.", count, count, CONFIRM_THRESHOLD),
+                "Large SRA Search", null, Dialogs.DialogIcon.QUESTION);
+        if (!retrieveAll) {
+            callback.issueWarning(limitMessage, limitMessage);
+            return CONFIRM_THRESHOLD;
+        }
+        return count;
+    }
+    
+    /**
+     * Small searches are fetched in one request; larger ones are paged so that results appear progressively
+     */
+    private static int choosePageSize(int total) {
+        if (total <= SINGLE_PAGE_LIMIT) {
+            return Math.max(total, 1);
+        }
+        return total <= CONFIRM_THRESHOLD ? SMALL_PAGE_SIZE : LARGE_PAGE_SIZE;
+    }
+    
+    /**
+     * Retrieve the results of a split query, adding documents as each batch of records arrives
+     */
+    private void retrievePlanned(List<String> subQueries, RetrieveCallback callback) throws IOException, DatabaseServiceException {
+        callback.setMessage(String.format("Searching NCBI SRA with %d sub-queries...", subQueries.size()));
+        
+        DocumentAdder adder = new DocumentAdder(callback, 0);
+        queryPlanner.execute(subQueries, MAX_RESULTS, adder);
+        
+        if (adder.isCanceled()) {
+            throw new DatabaseServiceException.Canceled();
+        }
+    }
+    
+    /**
+     * Wait for an asynchronous request, cancelling it (and closing its connection) as soon as the user cancels the search
+     */
+    private static <T> T await(EUtilsRequest<T> request, RetrieveCallback callback) throws IOException, DatabaseServiceException {
+        try {
+            while (true) {
+                if (callback.isCanceled()) {
+                    request.cancel(true);
+                    throw new DatabaseServiceException.Canceled();
+                }
+                try {
+                    return request.get(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Keep polling for cancellation
+                }
+            }
+        } catch (InterruptedException e) {
+            request.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new DatabaseServiceException.Canceled();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+    
+    /**
+     * Adds search results to the callback as batches of records arrive
+     */
+    private class DocumentAdder implements SraQueryPlanner.RecordBatchHandler {
+        private final RetrieveCallback callback;
+        private final int pages;
+        private int pagesDone;
+        private boolean canceled;
+        
+        /**
+         * @param pages expected number of batches for progress reporting, or 0 if unknown
+         */
+        DocumentAdder(RetrieveCallback callback, int pages) {
+            this.callback = callback;
+            this.pages = pages;
+        }
+        
+        @Override
+        public boolean recordsReceived(List<SraRecord> records) {
+            long start = System.nanoTime();
+            int created = 0;
+            try {
+                for (SraRecord sraRecord : records) {
+                    if (isCanceled()) {
+                        return false;
+                    }
+                    // Create document for search results with rich metadata
+                    callback.add(createDocumentFromSraRecord(sraRecord), Collections.<String,Object>emptyMap());
+                    created++;
+                }
+            } finally {
+                SraMetrics.getInstance().recordDocumentsCreated(created, System.nanoTime() - start);
+            }
+            if (pages > 0) {
+                pagesDone++;
+                callback.setProgress((double) pagesDone / pages);
+            }
+            return true;
+        }
+        
+        @Override
+        public boolean isCanceled() {
+            if (!canceled && (Thread.currentThread().isInterrupted() || callback.isCanceled())) {
+                canceled = true;
+            }
+            return canceled;
+        }
+    }
+    
     // Note: Custom column display and action providers are not available in this API version
     // The enhanced search fields will still work for better query building
     
@@ -198,11 +374,11 @@ public class NcbiSraDatabaseServiceSimple extends DatabaseService {
             case "search":
                 return value; // Basic search, no field tag
             case "accession":
-                return value + "[Accession]";
+                return tagEachValue(value, "[Accession]");
             case "bioproject":
-                return value + "[Bioproject]";
+                return tagEachValue(value, "[Bioproject]");
             case "biosample":
-                return value + "[Biosample]";
+                return tagEachValue(value, "[Biosample]");
             case "organism":
                 return value + "[Organism]";
             case "library_strategy":
@@ -216,6 +392,25 @@ public class NcbiSraDatabaseServiceSimple extends DatabaseService {
         }
     }
     
+    /**
+     * Tag a value with a field tag. A list of identifiers becomes a parenthesized OR query with each identifier
+     * tagged, so that it stays one term when combined with AND.
+     */
+    private String tagEachValue(String value, String fieldTag) {
+        String[] identifiers = value.split("[\\s,;]+");
+        if (identifiers.length <= 1) {
+            return value + fieldTag;
+        }
+        
+        List<String> terms = new ArrayList<>();
+        for (String identifier : identifiers) {
+            if (!identifier.isEmpty()) {
+                terms.add(identifier + fieldTag);
+            }
+        }
+        return "(" + String.join(" OR ", terms) + ")";
+    }
+    
     /**
      * Build compound queries with AND/OR operators
      */